@@ -0,0 +1,186 @@
+package banking;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/* ───────────────────── Balance history ─────────────────────
+ * An account's balance after every change, for getBalance(timeAt). Replaces a TreeMap<Integer, Integer>,
+ * which costs a tree node and two boxed ints (~70 bytes) per change.
+ *
+ * Changes arrive in time order, so the history is append-only:
+ *   - the open block is two parallel int[] (time, balance), grown by doubling up to BLOCK entries, so an
+ *     account with a handful of changes costs a few dozen bytes;
+ *   - a full open block is sealed into a Packed block: the first time and balance in full, then per entry
+ *     the time as an offset from the first (unsigned) and the balance as a zigzagged delta from the first,
+ *     each in the fewest bits that fit the block's largest value. Fixed widths keep random access, so a
+ *     sealed block is binary searched in place. Typical ledgers pack to 4-6 bytes per change.
+ * balanceAt binary searches the first times of the sealed blocks, then inside one block: O(log n).
+ *
+ * A change stamped before the latest one (concurrent callers with their own clocks) is recorded at the
+ * latest time, in the order it was applied. Several changes at one time keep the last balance.
+ * Not thread safe; Account's lock guards it. */
+final class BalanceHistory {
+    static final int BLOCK = 1024;
+    private static final int FIRST_BLOCK = 4;
+    private static final int[] NONE = {};
+
+    private Packed[] sealed;        // null until the first block fills
+    private int[] sealedFirst;      // first time of each sealed block
+    private int sealedCount;
+
+    private int[] times = NONE, balances = NONE;
+    private int open;               // entries in the open block
+    private int lastTime = Integer.MIN_VALUE;
+    private long size;
+
+    /** balance is the account's balance from time on */
+    void record(int time, int balance) {
+        if (size > 0 && time <= lastTime) {
+            time = lastTime;
+            if (open > 0) {                                // same time: the last balance wins
+                balances[open - 1] = balance;
+                return;
+            }
+        }
+        if (open == times.length) {
+            if (open == BLOCK) {
+                seal();
+            } else {
+                int capacity = Math.max(FIRST_BLOCK, open * 2);
+                times = Arrays.copyOf(times, capacity);
+                balances = Arrays.copyOf(balances, capacity);
+            }
+        }
+        times[open] = time;
+        balances[open++] = balance;
+        lastTime = time;
+        size++;
+    }
+
+    /** the balance in force at time, or null before the first change */
+    Integer balanceAt(int time) {
+        if (open > 0 && times[0] <= time) {
+            return balances[lastAtOrBefore(times, open, time)];
+        }
+        if (sealedCount == 0 || sealedFirst[0] > time) return null;
+        Packed block = sealed[lastAtOrBefore(sealedFirst, sealedCount, time)];
+        int lo = 0, hi = block.count - 1;                // block.time(lo) <= time
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (block.time(mid) <= time) lo = mid; else hi = mid - 1;
+        }
+        return block.balance(lo);
+    }
+
+    /** changes recorded, same-time overwrites not counted */
+    long size() {
+        return size;
+    }
+
+    /** every entry, oldest first, as [long n] ([int time][int balance])* */
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeLong(size);
+        for (int b = 0; b < sealedCount; b++) {
+            Packed block = sealed[b];
+            for (int i = 0; i < block.count; i++) {
+                out.writeInt(block.time(i));
+                out.writeInt(block.balance(i));
+            }
+        }
+        for (int i = 0; i < open; i++) {
+            out.writeInt(times[i]);
+            out.writeInt(balances[i]);
+        }
+    }
+
+    /** appends what writeTo wrote */
+    void readFrom(DataInputStream in) throws IOException {
+        for (long n = in.readLong(); n > 0; n--) {
+            record(in.readInt(), in.readInt());
+        }
+    }
+
+    /** index of the last a[i] <= key in a[0..n), given a[0] <= key */
+    private static int lastAtOrBefore(int[] a, int n, int key) {
+        int lo = 0, hi = n - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (a[mid] <= key) lo = mid; else hi = mid - 1;
+        }
+        return lo;
+    }
+
+    private void seal() {
+        if (sealed == null) {
+            sealed = new Packed[4];
+            sealedFirst = new int[4];
+        } else if (sealedCount == sealed.length) {
+            sealed = Arrays.copyOf(sealed, sealedCount * 2);
+            sealedFirst = Arrays.copyOf(sealedFirst, sealedCount * 2);
+        }
+        sealed[sealedCount] = new Packed(times, balances, open);
+        sealedFirst[sealedCount++] = times[0];
+        open = 0;                                        // the open arrays are reused at full size
+    }
+
+    /** one sealed block of entries, bit-packed at fixed widths */
+    private static final class Packed {
+        final int firstTime, firstBalance, count;
+        final int timeBits, balanceBits;
+        final long[] bits;
+
+        Packed(int[] times, int[] balances, int n) {
+            firstTime = times[0];
+            firstBalance = balances[0];
+            count = n;
+            long maxTime = 0, maxBalance = 0;
+            for (int i = 0; i < n; i++) {
+                maxTime = Math.max(maxTime, timeOffset(times[i]));
+                maxBalance = Math.max(maxBalance, zigzag(balances[i]));
+            }
+            timeBits = 64 - Long.numberOfLeadingZeros(maxTime);
+            balanceBits = 64 - Long.numberOfLeadingZeros(maxBalance);
+            bits = new long[(int) (((long) n * (timeBits + balanceBits) + 63) >>> 6)];
+            for (int i = 0; i < n; i++) {
+                long at = (long) i * (timeBits + balanceBits);
+                put(at, timeBits, timeOffset(times[i]));
+                put(at + timeBits, balanceBits, zigzag(balances[i]));
+            }
+        }
+
+        int time(int i) {
+            return (int) (firstTime + get((long) i * (timeBits + balanceBits), timeBits));
+        }
+
+        int balance(int i) {
+            long z = get((long) i * (timeBits + balanceBits) + timeBits, balanceBits);
+            return (int) (firstBalance + ((z >>> 1) ^ -(z & 1)));
+        }
+
+        private long timeOffset(int time) {
+            return (long) time - firstTime;                // times never go down, so 0 .. 2^32 - 1
+        }
+
+        private long zigzag(int balance) {
+            long d = (long) balance - firstBalance;
+            return (d << 1) ^ (d >> 63);
+        }
+
+        private void put(long at, int width, long value) {
+            if (width == 0) return;
+            int word = (int) (at >>> 6), shift = (int) (at & 63);
+            bits[word] |= value << shift;
+            if (shift + width > 64) bits[word + 1] |= value >>> (64 - shift);
+        }
+
+        private long get(long at, int width) {
+            if (width == 0) return 0;
+            int word = (int) (at >>> 6), shift = (int) (at & 63);
+            long v = bits[word] >>> shift;
+            if (shift + width > 64) v |= bits[word + 1] << (64 - shift);
+            return v & (-1L >>> (64 - width));
+        }
+    }
+}
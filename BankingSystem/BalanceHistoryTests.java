@@ -0,0 +1,105 @@
+package banking;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import org.junit.jupiter.api.*;
+/**
+ * BalanceHistory against the TreeMap it replaced: balanceAt(t) must equal floorEntry(t)'s balance,
+ * in the open block, inside sealed blocks and across block edges.
+ */
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class BalanceHistoryTests {
+    private BalanceHistory history;
+    @BeforeEach
+    public void setUp() {
+        history = new BalanceHistory();
+    }
+    /**
+     * Empty -> null, record 100 at 5 and 40 at 9 -> null at 4, 100 at 5..8, 40 from 9 on,
+     * 70 at 9 again overwrites 40
+     */
+    @Test
+    @Order(1)
+    public void test_01_basics() {
+        Assertions.assertTimeoutPreemptively(Duration.ofMillis(100), () -> {
+            Assertions.assertNull(history.balanceAt(0));
+            history.record(5, 100);
+            history.record(9, 40);
+            Assertions.assertNull(history.balanceAt(4));
+            Assertions.assertEquals(100, history.balanceAt(5));
+            Assertions.assertEquals(100, history.balanceAt(8));
+            Assertions.assertEquals(40, history.balanceAt(9));
+            Assertions.assertEquals(40, history.balanceAt(Integer.MAX_VALUE));
+            history.record(9, 70);
+            Assertions.assertEquals(70, history.balanceAt(9));
+            Assertions.assertEquals(2, history.size());
+        });
+    }
+    /**
+     * 100 blocks of random gaps (many zero) and balances (small moves, and jumps across the whole int range),
+     * queried at every recorded time, just before it, and at random times
+     */
+    @Test
+    @Order(2)
+    public void test_02_matchesTreeMap() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            Random random = new Random(42);
+            TreeMap<Integer, Integer> reference = new TreeMap<>();
+            int time = -1_000_000, balance = 0;
+            for (int i = 0; i < 100 * BalanceHistory.BLOCK; ++i) {
+                time += random.nextInt(4) == 0 ? 0 : random.nextInt(1000);
+                balance = random.nextInt(50) == 0 ? random.nextInt() : balance + random.nextInt(2001) - 1000;
+                history.record(time, balance);
+                reference.put(time, balance);
+            }
+            for (Map.Entry<Integer, Integer> e : reference.entrySet()) {
+                Assertions.assertEquals(e.getValue(), history.balanceAt(e.getKey()));
+                Map.Entry<Integer, Integer> before = reference.floorEntry(e.getKey() - 1);
+                Assertions.assertEquals(before == null ? null : before.getValue(), history.balanceAt(e.getKey() - 1));
+            }
+            for (int i = 0; i < 100_000; ++i) {
+                int t = random.nextInt();
+                Map.Entry<Integer, Integer> floor = reference.floorEntry(t);
+                Assertions.assertEquals(floor == null ? null : floor.getValue(), history.balanceAt(t));
+            }
+        });
+    }
+    /**
+     * Extremes: times from Integer.MIN_VALUE to Integer.MAX_VALUE - 1 in one block,
+     * balances alternating between Integer.MIN_VALUE and Integer.MAX_VALUE
+     */
+    @Test
+    @Order(3)
+    public void test_03_extremes() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(1), () -> {
+            for (int i = 0; i < BalanceHistory.BLOCK; ++i) {
+                int t = i == BalanceHistory.BLOCK - 1 ? Integer.MAX_VALUE - 1 : Integer.MIN_VALUE + i;
+                history.record(t, i % 2 == 0 ? Integer.MIN_VALUE : Integer.MAX_VALUE);
+            }
+            history.record(Integer.MAX_VALUE, 7);            // seals the full block, opens a new one
+            Assertions.assertEquals(Integer.MIN_VALUE, history.balanceAt(Integer.MIN_VALUE));
+            Assertions.assertEquals(Integer.MAX_VALUE, history.balanceAt(Integer.MIN_VALUE + 1));
+            Assertions.assertEquals(Integer.MIN_VALUE, history.balanceAt(Integer.MAX_VALUE - 2));
+            Assertions.assertEquals(Integer.MAX_VALUE, history.balanceAt(Integer.MAX_VALUE - 1));
+            Assertions.assertEquals(7, history.balanceAt(Integer.MAX_VALUE));
+            Assertions.assertEquals(BalanceHistory.BLOCK + 1, history.size());
+        });
+    }
+    /**
+     * A change stamped before the latest one is recorded at the latest time:
+     * record 10 at 5, 20 at 8, then 30 stamped 6 -> 10 at 6..7, 30 from 8 on
+     */
+    @Test
+    @Order(4)
+    public void test_04_lateStamp() {
+        Assertions.assertTimeoutPreemptively(Duration.ofMillis(100), () -> {
+            history.record(5, 10);
+            history.record(8, 20);
+            history.record(6, 30);
+            Assertions.assertEquals(10, history.balanceAt(7));
+            Assertions.assertEquals(30, history.balanceAt(8));
+        });
+    }
+}
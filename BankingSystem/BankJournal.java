@@ -0,0 +1,347 @@
+package banking;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/* ───────────────────── Bank journal ─────────────────────
+ * Append-only journal of every money movement of a durable BankingService. Segment files
+ * journal-<n>.log, each a sequence of records
+ *     [int length][int crc32][long seq][payload]      payload = one Op
+ * seq numbers every record across segments and restarts; BankingService keeps the seq of the last record
+ * applied to each account and to the payment queue, which is what makes replay over a fuzzy snapshot exact.
+ * Group commit: append() numbers the record and copies it into the pending batch. The first caller of
+ * sync() writes the whole batch with one write + force and wakes the others, so concurrent operations
+ * share one fsync. A checkpoint rolls to a new segment and snapshots next to it.
+ * A failed flush may have written part of a batch, so no record after it would replay: the journal stops
+ * there, and sync, roll and close all throw from then on. New segments have their directory entry synced. */
+final class BankJournal implements AutoCloseable {
+    static final int MAX_RECORD = 1 << 20;
+
+    /** one logged change; the fields a type does not use are null / 0 */
+    static final class Op {
+        static final byte CREATE = 1, DEPOSIT = 2, TRANSFER = 3, SCHEDULE = 4, CANCEL = 5, EXECUTE = 6, MERGE = 7;
+
+        final byte type;
+        final int timestamp;
+        final String account, other;      // other: transfer destination, merged-away account
+        final int amount;
+        final int payment, executedAt;    // payment number, "Payment <n>"
+        final int otherBalance, otherOutgoing;
+        long seq;                         // set by append, or read back by replay
+
+        private Op(byte type, int timestamp, String account, String other, int amount, int payment, int executedAt,
+                   int otherBalance, int otherOutgoing) {
+            this.type = type; this.timestamp = timestamp; this.account = account; this.other = other; this.amount = amount;
+            this.payment = payment; this.executedAt = executedAt; this.otherBalance = otherBalance; this.otherOutgoing = otherOutgoing;
+        }
+
+        static Op create(int ts, String account) { return new Op(CREATE, ts, account, null, 0, 0, 0, 0, 0); }
+        static Op deposit(int ts, String account, int amount) { return new Op(DEPOSIT, ts, account, null, amount, 0, 0, 0, 0); }
+        static Op transfer(int ts, String source, String destination, int amount) {
+            return new Op(TRANSFER, ts, source, destination, amount, 0, 0, 0, 0);
+        }
+        static Op schedule(int ts, String account, int amount, int payment, int executedAt) {
+            return new Op(SCHEDULE, ts, account, null, amount, payment, executedAt, 0, 0);
+        }
+        static Op cancel(int ts, String account, int payment) { return new Op(CANCEL, ts, account, null, 0, payment, 0, 0, 0); }
+        static Op execute(int ts, String account, int amount, int payment) { return new Op(EXECUTE, ts, account, null, amount, payment, 0, 0, 0); }
+        /** the merged-away account's balance and outgoing go in the record: replay may not have that account */
+        static Op merge(int ts, String account, String other, int otherBalance, int otherOutgoing) {
+            return new Op(MERGE, ts, account, other, 0, 0, 0, otherBalance, otherOutgoing);
+        }
+    }
+
+    private final Path dir;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition flushed = lock.newCondition();
+
+    private FileChannel channel;
+    private long segment;
+    private ByteBuffer pending = ByteBuffer.allocate(1 << 16);
+    private ByteBuffer spare = ByteBuffer.allocate(1 << 16);
+    private long lastSeq;
+    private long durableSeq;
+    private boolean flushing;
+    private IOException failed;           // first failed flush; records after it never become durable
+
+    /** opens a fresh segment after the newest one already in dir; records get seq numbers above lastSeq */
+    BankJournal(Path dir, long lastSeq) throws IOException {
+        this.dir = dir;
+        this.lastSeq = durableSeq = lastSeq;
+        Files.createDirectories(dir);
+        List<Long> existing = segments(dir);
+        segment = existing.isEmpty() ? 1 : existing.get(existing.size() - 1) + 1;
+        channel = open(segment);
+    }
+
+    /** a segment whose directory entry is not on disk can vanish in a crash with the records synced into it */
+    private FileChannel open(long n) throws IOException {
+        FileChannel ch = FileChannel.open(segmentPath(dir, n),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        try {
+            syncDirectory(dir);
+        } catch (IOException e) {
+            ch.close();
+            throw e;
+        }
+        return ch;
+    }
+
+    /** makes the files created, renamed and deleted in dir so far durable */
+    static void syncDirectory(Path dir) throws IOException {
+        try (FileChannel ch = FileChannel.open(dir, StandardOpenOption.READ)) {
+            ch.force(true);
+        }
+    }
+
+    static Path segmentPath(Path dir, long n) { return dir.resolve("journal-" + n + ".log"); }
+    static Path snapshotPath(Path dir, long n) { return dir.resolve("journal-" + n + ".snap"); }
+
+    static List<Long> segments(Path dir) throws IOException { return numbered(dir, ".log"); }
+    static List<Long> snapshots(Path dir) throws IOException { return numbered(dir, ".snap"); }
+
+    /** n of every journal-<n><suffix> in dir, ascending */
+    private static List<Long> numbered(Path dir, String suffix) throws IOException {
+        List<Long> out = new ArrayList<>();
+        if (!Files.isDirectory(dir)) return out;
+        try (Stream<Path> files = Files.list(dir)) {
+            files.map(p -> p.getFileName().toString())
+                    .filter(n -> n.startsWith("journal-") && n.endsWith(suffix))
+                    .forEach(n -> out.add(Long.parseLong(n.substring(8, n.length() - suffix.length()))));
+        }
+        out.sort(null);
+        return out;
+    }
+
+    Path dir() { return dir; }
+
+    /** the segment new records go to */
+    long segment() {
+        lock.lock();
+        try {
+            return segment;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** numbers op, buffers its record and returns the seq for sync(). Callers append while holding the locks
+     *  of everything the op changed, so seq order is the order the changes were made in */
+    long append(Op op) {
+        byte[] payload = encode(op);
+        lock.lock();
+        try {
+            op.seq = ++lastSeq;
+            CRC32 crc = new CRC32();
+            crc.update(ByteBuffer.allocate(8).putLong(0, op.seq));
+            crc.update(payload);
+            int length = payload.length + 8;
+            if (pending.remaining() < length + 8) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + length + 8));
+                pending.flip();
+                pending = bigger.put(pending);
+            }
+            pending.putInt(length).putInt((int) crc.getValue()).putLong(op.seq).put(payload);
+            return op.seq;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** returns once the record with this seq, and every one before it, is on disk */
+    void sync(long seq) {
+        lock.lock();
+        try {
+            while (durableSeq < seq) {
+                if (failed != null) throw new UncheckedIOException(failed);
+                if (flushing) {
+                    flushed.awaitUninterruptibly();
+                    continue;
+                }
+                flushing = true;
+                ByteBuffer batch = pending;
+                long upTo = lastSeq;
+                FileChannel ch = channel;
+                pending = spare;
+                lock.unlock();
+                try {
+                    writeFully(ch, batch);
+                } catch (IOException e) {
+                    failed = e;
+                } finally {
+                    lock.lock();
+                }
+                batch.clear();
+                spare = batch;
+                flushing = false;
+                if (failed == null) durableSeq = upTo;
+                flushed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer batch) throws IOException {
+        batch.flip();
+        while (batch.hasRemaining()) ch.write(batch);
+        ch.force(false);
+    }
+
+    /** flushes what is pending and starts a new segment; returns the new segment number */
+    long roll() throws IOException {
+        lock.lock();
+        try {
+            flushPending();
+            FileChannel next = open(segment + 1);
+            channel.close();
+            channel = next;
+            return ++segment;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** under the lock: writes the pending batch once no flush is running, or throws if one ever failed */
+    private void flushPending() throws IOException {
+        while (flushing) flushed.awaitUninterruptibly();
+        if (failed != null) throw new IOException("journal stopped at a failed flush", failed);
+        try {
+            writeFully(channel, pending);
+        } catch (IOException e) {
+            failed = e;
+            flushed.signalAll();
+            throw e;
+        }
+        pending.clear();
+        durableSeq = lastSeq;
+    }
+
+    /** drops the segments and snapshots older than n, the snapshot n covers them */
+    void deleteBefore(long n) throws IOException {
+        for (long s : segments(dir)) if (s < n) Files.deleteIfExists(segmentPath(dir, s));
+        for (long s : snapshots(dir)) if (s < n) Files.deleteIfExists(snapshotPath(dir, s));
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            flushPending();
+        } finally {
+            try {
+                channel.close();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /* ---------- record format ---------- */
+
+    static byte[] encode(Op op) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(op.type);
+            out.writeInt(op.timestamp);
+            writeString(out, op.account);
+            switch (op.type) {
+                case Op.CREATE -> { }
+                case Op.DEPOSIT -> out.writeInt(op.amount);
+                case Op.TRANSFER -> { writeString(out, op.other); out.writeInt(op.amount); }
+                case Op.SCHEDULE -> { out.writeInt(op.amount); out.writeInt(op.payment); out.writeInt(op.executedAt); }
+                case Op.CANCEL -> out.writeInt(op.payment);
+                case Op.EXECUTE -> { out.writeInt(op.amount); out.writeInt(op.payment); }
+                case Op.MERGE -> { writeString(out, op.other); out.writeInt(op.otherBalance); out.writeInt(op.otherOutgoing); }
+                default -> throw new IllegalArgumentException("unknown op " + op.type);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static Op decode(ByteBuffer in) {
+        long seq = in.getLong();
+        byte type = in.get();
+        int ts = in.getInt();
+        String account = readString(in);
+        Op op = switch (type) {
+            case Op.CREATE -> Op.create(ts, account);
+            case Op.DEPOSIT -> Op.deposit(ts, account, in.getInt());
+            case Op.TRANSFER -> Op.transfer(ts, account, readString(in), in.getInt());
+            case Op.SCHEDULE -> Op.schedule(ts, account, in.getInt(), in.getInt(), in.getInt());
+            case Op.CANCEL -> Op.cancel(ts, account, in.getInt());
+            case Op.EXECUTE -> Op.execute(ts, account, in.getInt(), in.getInt());
+            case Op.MERGE -> Op.merge(ts, account, readString(in), in.getInt(), in.getInt());
+            default -> throw new IllegalStateException("unknown op " + type);
+        };
+        op.seq = seq;
+        return op;
+    }
+
+    /** strings as [int byteLength][utf-8], shared with the snapshot format */
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    static String readString(ByteBuffer in) {
+        byte[] b = new byte[in.getInt()];
+        in.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        byte[] b = new byte[in.readInt()];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    /** feeds every intact record of a segment to sink, stops at the first torn or corrupt one.
+     *  Only the tail of a segment can be torn: after a crash, the next open starts a new segment. */
+    static long replay(Path file, Consumer<Op> sink) throws IOException {
+        long records = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(FileChannel.open(file, StandardOpenOption.READ)), 1 << 20))) {
+            while (true) {
+                byte[] payload;
+                int crc;
+                try {
+                    int length = in.readInt();
+                    crc = in.readInt();
+                    if (length < 9 || length > MAX_RECORD) return records;
+                    payload = new byte[length];
+                    in.readFully(payload);
+                } catch (EOFException torn) {
+                    return records;
+                }
+                CRC32 check = new CRC32();
+                check.update(payload);
+                if ((int) check.getValue() != crc) return records;
+                sink.accept(decode(ByteBuffer.wrap(payload)));
+                records++;
+            }
+        }
+    }
+}
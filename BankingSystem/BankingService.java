@@ -1,6 +1,25 @@
 package banking;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.*;
 
 class Account{
@@ -9,7 +28,13 @@ class Account{
     int createdAt;
     int outgoing;
 
-    TreeMap<Integer, Integer> balanceLog = new TreeMap<>(); // to find the account balance at any point of time.
+    final ReentrantLock lock = new ReentrantLock();  // guards balance, outgoing, balanceLog and closed
+    boolean closed;                                 // merged away; whoever locked it late treats it as gone
+    final Set<ScheduledPayment> pending = new HashSet<>();   // not yet executed; guarded by paymentsLock
+    AccountSummary rank;                            // this account's entry in the spenders index; guarded by lock
+    long seq;                                       // last journal record applied to it; guarded by lock
+
+    final BalanceHistory balanceLog = new BalanceHistory(); // to find the account balance at any point of time.
         //balanceLog -> time, balance
 
     public Account(String accountId, int createdAt) {
@@ -19,8 +44,8 @@ class Account{
 }
 
 class AccountSummary {
-    String accountId;
-    int outgoing;
+    final String accountId;
+    final int outgoing;
 
     public AccountSummary(String accountId, int outgoing) {
         this.accountId = accountId;
@@ -33,196 +58,609 @@ class ScheduledPayment {
     String accountId;
     int amount;
     int executedAt;
+    int number;          // order of scheduling, breaks ties between payments due at the same time
+    boolean skip;        // cancelled (or executed by journal replay) but still in the due queue
 
-    public ScheduledPayment(String id, String accountId, int amount, int executedAt) {
+    public ScheduledPayment(String id, String accountId, int amount, int executedAt, int number) {
         this.id = id;
         this.accountId = accountId;
         this.amount = amount;
         this.executedAt = executedAt;
+        this.number = number;
     }
 }
-public class BankingService {
-
-    ReentrantLock lock = new ReentrantLock();
-    private final Map<String, Account> accounts = new HashMap<>();
-    private final List<ScheduledPayment>  scheduledPayments =  new ArrayList<>();
+/* Concurrency
+ * Every account has its own lock, so operations on disjoint accounts run in parallel. An operation that
+ * needs two accounts (transfer, mergeAccounts) locks them in accountId order, so two of them can never
+ * wait on each other in a cycle.
+ * Scheduled payments sit behind paymentsLock. Lock order is paymentsLock before any account lock, and
+ * nothing holding an account lock takes paymentsLock, so the two orders cannot deadlock either.
+ * processPayments only takes paymentsLock when a payment may be due (nextDue), so the common case of
+ * nothing due costs one volatile read.
+ *
+ * Scheduled payments
+ * dueQueue is a min-heap on (executedAt, number), so processing pops exactly the payments that are due.
+ * paymentsById makes cancel O(1): the payment is marked skip and dropped when it reaches the top
+ * of the heap, or in one rebuild once skipped entries are half the heap. Each account keeps its own
+ * pending set, so a merge only touches the merged account's payments.
+ *
+ * Top spenders
+ * spenders holds one AccountSummary per account, ordered by outgoing (largest first) then accountId, and is
+ * updated under the account's lock whenever outgoing changes, so topSpenders(n) just reads the first n.
+ * A moving account is briefly out of place, and accounts that move up jump over a reader walking the set,
+ * so the read lock of spendersLock is taken by the updates (any number at once, the set is concurrent)
+ * and its write lock by topSpenders, which then reads a set no update is halfway through.
+ * Lock order: account lock, then spendersLock.
+ *
+ * Durability
+ * open(dir, ...) journals every change (BankJournal): the record is appended while the locks of everything it
+ * changed are still held, and the call returns once it is on disk (group commit). Each record has a seq, and
+ * every account and the payment queue remember the last seq applied to them.
+ * checkpoint() rolls the journal and snapshots the accounts one at a time under their locks while
+ * operations keep running. Recovery loads the newest snapshot and replays the journal after it, applying
+ * each record only to the accounts (and payment queue) whose seq is older, so a change the snapshot already
+ * holds is never applied twice. A merge record carries the merged-away account's balance and outgoing:
+ * that account may be missing from the snapshot. */
+public class BankingService implements AutoCloseable {
+
+    private final Map<String, Account> accounts = new ConcurrentHashMap<>();
+    private final ReentrantLock paymentsLock = new ReentrantLock();
+    // guarded by paymentsLock
+    private PriorityQueue<ScheduledPayment> dueQueue = new PriorityQueue<>(
+            Comparator.comparingInt((ScheduledPayment p) -> p.executedAt).thenComparingInt(p -> p.number));
+    private final Map<String, ScheduledPayment> paymentsById = new HashMap<>();   // pending ones only
+    private int skippedInQueue = 0;
     private int paymentCounter = 0;
+    private long paymentsSeq;                        // last journal record applied to the payments
+    private volatile int nextDue = Integer.MAX_VALUE;   // earliest executedAt in dueQueue
+    private final ReentrantReadWriteLock spendersLock = new ReentrantReadWriteLock();
+    private final ConcurrentSkipListSet<AccountSummary> spenders = new ConcurrentSkipListSet<>(
+            Comparator.comparingInt((AccountSummary a) -> a.outgoing).reversed().thenComparing(a -> a.accountId));
+
+    private BankJournal journal;                     // null unless opened on a directory
+    private final ReentrantLock checkpointLock = new ReentrantLock();
+    private ScheduledExecutorService checkpoints;    // background checkpoints, if asked for
+    private final AtomicReference<IOException> checkpointFailure = new AtomicReference<>();   // thrown by the next checkpoint or close
+
+    public BankingService() {
+    }
+
+    /** open(dir, ...) - a durable bank: loads the newest snapshot in dir, replays the journal written after it,
+     *  then journals every change; a call returns once its changes are on disk.
+     *  checkpointIntervalMillis - period of background checkpoints, 0 to only checkpoint on demand */
+    public static BankingService open(Path dir, long checkpointIntervalMillis) throws IOException {
+        BankingService bank = new BankingService();
+        long lastSeq = bank.recover(dir);
+        bank.journal = new BankJournal(dir, lastSeq);
+        if (checkpointIntervalMillis > 0) bank.startCheckpoints(checkpointIntervalMillis);
+        return bank;
+    }
+
+    private void startCheckpoints(long intervalMillis) {
+        checkpoints = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "bank-checkpoint");
+            t.setDaemon(true);
+            return t;
+        });
+        checkpoints.scheduleWithFixedDelay(this::backgroundCheckpoint, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** one run of the scheduled checkpoint; its first failure is kept until checkpoint() or close() can throw it */
+    void backgroundCheckpoint() {
+        try {
+            checkpoint();
+        } catch (IOException e) {
+            checkpointFailure.compareAndSet(null, e);
+        } catch (UncheckedIOException e) {
+            checkpointFailure.compareAndSet(null, e.getCause());
+        }
+    }
 
+    private long log(BankJournal.Op op) {
+        return journal == null ? 0 : journal.append(op);
+    }
+
+    private void sync(long seq) {
+        if (journal != null && seq > 0) journal.sync(seq);
+    }
 
     public boolean createAccount(int timestamp, String accountId) {
-        lock.lock();
+        processPayments(timestamp); //Calls this often for all the payments scheduled.
+        Account account = new Account(accountId, timestamp);
+        long seq;
+        account.lock.lock();   // a merge that finds it in the map waits until it is in the index too
         try {
-            processPayments(timestamp); //Calls this often for all the payments scheduled.
-            if(accounts.containsKey(accountId)) return  false;
-            accounts.put(accountId,new Account(accountId,timestamp));
-            return true;
-        }finally {
-             lock.unlock();
+            if (accounts.putIfAbsent(accountId, account) != null) return false;
+            account.rank = new AccountSummary(accountId, 0);
+            updateSpenders(account.rank, null);
+            seq = account.seq = log(BankJournal.Op.create(timestamp, accountId));
+        } finally {
+            account.lock.unlock();
         }
+        sync(seq);
+        return true;
     }
 
     public Integer deposit(int timestamp, String accountId, int amount) {
-        lock.unlock();
-
+        processPayments(timestamp);
+        Account account = accounts.get(accountId);
+        if(account == null) return null;
+        int balance;
+        long seq;
+        account.lock.lock();
         try {
-            processPayments(timestamp);
-            Account account = accounts.get(accountId);
-            if(account != null) {
-                account.balance += amount;
-                account.balanceLog.put(timestamp, account.balance);
-                return account.balance;
-            }
-            return null;
+            if(account.closed) return null;
+            account.balance += amount;
+            account.balanceLog.record(timestamp, account.balance);
+            balance = account.balance;
+            seq = account.seq = log(BankJournal.Op.deposit(timestamp, accountId, amount));
         }finally {
-             lock.unlock();
+             account.lock.unlock();
         }
+        sync(seq);
+        return balance;
     }
 
     public Integer transfer(int timestamp, String soureId, String destinationId, int amount) {
-        lock.lock();
-        try {
-            processPayments(timestamp);
-            Account source = accounts.get(soureId);
-            Account destination = accounts.get(destinationId);
+        processPayments(timestamp);
+        Account source = accounts.get(soureId);
+        Account destination = accounts.get(destinationId);
 
-            if(source == null || destination == null || soureId.equals(destinationId) || source.balance < amount){
+        if(source == null || destination == null || soureId.equals(destinationId)){
+            return null;
+        }
+        int balance;
+        long seq;
+        lockBoth(source, destination);
+        try {
+            if(source.closed || destination.closed || source.balance < amount){
                 return null;
             }
             source.balance -= amount;
-            source.outgoing += amount;
-            source.balanceLog.put(timestamp,source.balance);
+            addOutgoing(source, amount);
+            source.balanceLog.record(timestamp,source.balance);
 
             destination.balance += amount;
-            destination.balanceLog.put(timestamp, destination.balance);
+            destination.balanceLog.record(timestamp, destination.balance);
 
-            return source.balance;
+            balance = source.balance;
+            seq = source.seq = destination.seq = log(BankJournal.Op.transfer(timestamp, soureId, destinationId, amount));
         }finally {
-            lock.unlock();
+            unlockBoth(source, destination);
         }
+        sync(seq);
+        return balance;
     }
 
-    public List<String> topSpenders (int timestamp, int n) {
-        lock.lock();
-        try {
-            processPayments(timestamp);
-            List<AccountSummary> summaries = new ArrayList<>();
-            for(Account account : accounts.values()) {
-                summaries.add(new AccountSummary(account.accountId, account.outgoing)); //Prepate the account summary.
-            }
+    /** locks two distinct accounts, lower accountId first */
+    private static void lockBoth(Account a, Account b) {
+        if(a.accountId.compareTo(b.accountId) > 0) { Account t = a; a = b; b = t; }
+        a.lock.lock();
+        b.lock.lock();
+    }
 
-            summaries.sort((a, b) -> {
-                if(b.outgoing != a.outgoing) // same as  cmp != 0 below
-                    return Integer.compare(a.outgoing, b.outgoing);
-                return a.accountId.compareTo(b.accountId);
-            });
+    private static void unlockBoth(Account a, Account b) {
+        a.lock.unlock();
+        b.lock.unlock();
+    }
 
-         //Using comparator on List.
-//        summaries.sort(
-//                Comparator.comparingInt((AccountSummary a) -> a.outgoing).
-//                        thenComparing(a -> a.accountId)); is only called when the first comparator (on outgoing) considers two objects equal—that is, when s1.outgoing == s2.outgoing:
+    /** raises outgoing and moves the account in the spenders index; the caller holds account.lock */
+    private void addOutgoing(Account account, int amount) {
+        if (amount == 0) return;
+        account.outgoing += amount;
+        AccountSummary old = account.rank;
+        account.rank = new AccountSummary(account.accountId, account.outgoing);
+        updateSpenders(account.rank, old);
+    }
 
-//Another way of using compare in case of map.sorted
-            //   summaries.sorted((a, b) -> {
-//           int cmp = Integer.compare(a.outgoing, b.outgoing);
-//           return  cmp != 0 ? cmp : a.accountId.compareTo(b.accountId);
-//        });
+    /** adds and/or removes one entry; updates share the lock, see the class comment */
+    private void updateSpenders(AccountSummary add, AccountSummary remove) {
+        spendersLock.readLock().lock();
+        try {
+            if (add != null) spenders.add(add);
+            if (remove != null) spenders.remove(remove);
+        } finally {
+            spendersLock.readLock().unlock();
+        }
+    }
 
-            List<String> result = new ArrayList<>();
-            for (int i = 0; i < Math.min(summaries.size(), n); i++){
-                AccountSummary s = summaries.get(i);
+    /** the n accounts with the most outgoing money, largest first, ties by accountId. O(n) */
+    public List<String> topSpenders (int timestamp, int n) {
+        processPayments(timestamp);
+        List<String> result = new ArrayList<>();
+        spendersLock.writeLock().lock();
+        try {
+            for (AccountSummary s : spenders) {
+                if (result.size() >= n) break;
                 result.add(s.accountId + "(" + s.outgoing + ")");
             }
-            return  result;
         } finally {
-             lock.unlock();
+            spendersLock.writeLock().unlock();
         }
+        return  result;
     }
 
     //schedule payment
 
     public String schedulePayment (int timestamp, String accountId, int amount, int delay) {
-        lock.lock();
+        processPayments(timestamp);
+        String paymentId;
+        long seq;
+        paymentsLock.lock();
         try {
-            processPayments(timestamp);
-            if (!accounts.containsKey(accountId)) return null;
+            Account account = accounts.get(accountId);   // merges remove accounts under paymentsLock
+            if (account == null) return null;
             paymentCounter++;
-            String paymentId = "Payment "+paymentCounter;
-            scheduledPayments.add(new ScheduledPayment(paymentId, accountId, amount, timestamp+delay));
-            return paymentId;
+            paymentId = "Payment "+paymentCounter;
+            ScheduledPayment payment = new ScheduledPayment(paymentId, accountId, amount, timestamp+delay, paymentCounter);
+            dueQueue.add(payment);
+            paymentsById.put(paymentId, payment);
+            account.pending.add(payment);
+            nextDue = dueQueue.peek().executedAt;
+            seq = paymentsSeq = log(BankJournal.Op.schedule(timestamp, accountId, amount, paymentCounter, payment.executedAt));
 
         }finally {
-            lock.unlock();
+            paymentsLock.unlock();
         }
+        sync(seq);
+        return paymentId;
     }
 
     public Integer getBalance(int timestamp, String accountId, int timeAt) {
-        lock.lock();
+        processPayments(timestamp);
+        Account acc  =  accounts.get(accountId);
+        if (acc == null) return null;
+        acc.lock.lock();
         try {
-            processPayments(timestamp);
-            Account acc  =  accounts.get(accountId);
-            int closeTime =  acc.balanceLog.floorKey(timeAt);
-            return acc.balanceLog.get(closeTime);
+            return acc.balanceLog.balanceAt(timeAt);   // null before the account's first change
         }
         finally {
-            lock.unlock();
+            acc.lock.unlock();
         }
     }
 
     private void processPayments(int currentTimestamp) {
-        List<ScheduledPayment> newQueue = new ArrayList<>();
-        for(ScheduledPayment payment : scheduledPayments){
-           if (payment.executedAt <= currentTimestamp) {
-               Account acc = accounts.get(payment.accountId);
-               acc.balance -= payment.amount;
-               acc.balanceLog.put(currentTimestamp, acc.balance);
-           } else {
-               newQueue.add(payment); //New List to store all the future payments.
-           }
+        if (currentTimestamp < nextDue) return;   // nothing due, skip the lock
+        long seq = 0;
+        paymentsLock.lock();
+        try {
+            while (!dueQueue.isEmpty() && dueQueue.peek().executedAt <= currentTimestamp) {
+                ScheduledPayment payment = dueQueue.poll();
+                if (payment.skip) {
+                    skippedInQueue--;
+                    continue;
+                }
+                paymentsById.remove(payment.id);
+                Account acc = accounts.get(payment.accountId);
+                acc.pending.remove(payment);
+                acc.lock.lock();
+                try {
+                    acc.balance -= payment.amount;
+                    addOutgoing(acc, payment.amount);   // executed payments count as outgoing money
+                    acc.balanceLog.record(currentTimestamp, acc.balance);
+                    seq = acc.seq = paymentsSeq = log(BankJournal.Op.execute(currentTimestamp, acc.accountId, payment.amount, payment.number));
+                } finally {
+                    acc.lock.unlock();
+                }
+            }
+            nextDue = dueQueue.isEmpty() ? Integer.MAX_VALUE : dueQueue.peek().executedAt;
+        } finally {
+            paymentsLock.unlock();
         }
-        scheduledPayments.clear();// clear all the paid and future payments.
-        scheduledPayments.addAll(newQueue); //Add all the future payments in one shot.
+        sync(seq);
     }
 
     public boolean cancelPayment(int timestamp, String accountId, String paymentId) {
-        lock.lock();
+        processPayments(timestamp);
+        long seq;
+        paymentsLock.lock();
         try {
-            processPayments(timestamp);
-            Iterator<ScheduledPayment> iterator = scheduledPayments.iterator();
-            while (iterator.hasNext()) {
-                ScheduledPayment p = iterator.next();
-                if (p.id.equals(paymentId)) {
-                    if (!p.accountId.equals(accountId)) return false;
-                    iterator.remove();
-                    return true;
-                }
-            }
-            return false;
+            ScheduledPayment p = paymentsById.get(paymentId);
+            if (p == null || !p.accountId.equals(accountId)) return false;
+            paymentsById.remove(paymentId);
+            accounts.get(accountId).pending.remove(p);
+            p.skip = true;
+            if (++skippedInQueue > dueQueue.size() / 2) dropSkipped();
+            seq = paymentsSeq = log(BankJournal.Op.cancel(timestamp, accountId, p.number));
         } finally {
-            lock.unlock();
+            paymentsLock.unlock();
         }
+        sync(seq);
+        return true;
     }
 
     public boolean mergeAccounts(int timestamp, String accountId1, String accountId2) {
-        lock.lock();
+        processPayments(timestamp);
+        if (accountId1.equals(accountId2)) return false;
+        long seq;
+        paymentsLock.lock();   // payments move to accountId1 and accountId2 disappears atomically for them
         try {
-            processPayments(timestamp);
-            if (accountId1.equals(accountId2)) return false;
             Account acc1 = accounts.get(accountId1);
             Account acc2 = accounts.get(accountId2);
             if (acc1 == null || acc2 == null) return false;
-            acc1.balance += acc2.balance;
-            acc1.outgoing += acc2.outgoing;
-            acc1.balanceLog.put(timestamp, acc1.balance);
-            for (ScheduledPayment p : scheduledPayments) {
-                if (p.accountId.equals(accountId2)) {
-                    p.accountId = accountId1;
-                }
+            lockBoth(acc1, acc2);
+            try {
+                // logged before accountId2 leaves the map, so a createAccount reusing the id comes after it
+                seq = acc1.seq = acc2.seq = paymentsSeq =
+                        log(BankJournal.Op.merge(timestamp, accountId1, accountId2, acc2.balance, acc2.outgoing));
+                acc1.balance += acc2.balance;
+                addOutgoing(acc1, acc2.outgoing);
+                acc1.balanceLog.record(timestamp, acc1.balance);
+                acc2.closed = true;
+                updateSpenders(null, acc2.rank);
+                accounts.remove(accountId2);
+            } finally {
+                unlockBoth(acc1, acc2);
             }
-            accounts.remove(accountId2);
-            return true;
+            for (ScheduledPayment p : acc2.pending) {
+                p.accountId = accountId1;
+            }
+            acc1.pending.addAll(acc2.pending);
+            acc2.pending.clear();
+        } finally {
+            paymentsLock.unlock();
+        }
+        sync(seq);
+        return true;
+    }
+
+    /** rebuilds the heap without the skipped payments, O(P) once per P / 2 cancels */
+    private void dropSkipped() {
+        PriorityQueue<ScheduledPayment> live = new PriorityQueue<>(Math.max(1, dueQueue.size() - skippedInQueue), dueQueue.comparator());
+        for (ScheduledPayment p : dueQueue) {
+            if (!p.skip) live.add(p);
+        }
+        dueQueue = live;
+        skippedInQueue = 0;
+        nextDue = dueQueue.isEmpty() ? Integer.MAX_VALUE : dueQueue.peek().executedAt;
+    }
+
+    /* ---------- persistence ---------- */
+
+    private static final long SNAPSHOT_MAGIC = 0x42414e4b2d534e50L;   // "BANK-SNP"
+
+    /** checkpoint - snapshots the bank and drops the journal segments and snapshots it covers.
+     *  The journal is rolled first and operations keep running while the snapshot is written; see the
+     *  class comment for why replaying over it is exact. A background checkpoint that failed is thrown here
+     *  first, once. */
+    public void checkpoint() throws IOException {
+        if (journal == null) throw new IllegalStateException("BankingService was not opened with a directory");
+        IOException failed = checkpointFailure.getAndSet(null);
+        if (failed != null) throw new IOException("background checkpoint failed", failed);
+        checkpointLock.lock();
+        try {
+            long segment = journal.roll();
+            writeSnapshot(BankJournal.snapshotPath(journal.dir(), segment));
+            journal.deleteBefore(segment);
         } finally {
-            lock.unlock();
+            checkpointLock.unlock();
+        }
+    }
+
+    /* Snapshot layout:
+     *   [long magic] [int paymentCounter][long paymentsSeq][int pending] ([int number][string account][int amount][int executedAt])*
+     *   ([bool more = true][string id][int createdAt][int balance][int outgoing][long seq][history])* [bool more = false]
+     *   history = [long n] ([int time][int balance])*
+     * Operations journal their record under the account locks but sync it after letting go, so the snapshot
+     * can hold changes whose records are still pending. The journal is synced up to the newest seq the
+     * snapshot holds before the rename: otherwise a crash could keep one side of a transfer in the snapshot
+     * and lose the record that replays the other side. */
+    private void writeSnapshot(Path path) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(ch), 1 << 16));
+            out.writeLong(SNAPSHOT_MAGIC);
+            List<ScheduledPayment> pending;
+            int counter;
+            long seq;
+            paymentsLock.lock();
+            try {
+                counter = paymentCounter;
+                seq = paymentsSeq;
+                pending = new ArrayList<>(paymentsById.values());
+                pending.replaceAll(p -> new ScheduledPayment(p.id, p.accountId, p.amount, p.executedAt, p.number));
+            } finally {
+                paymentsLock.unlock();
+            }
+            long newest = seq;
+            out.writeInt(counter);
+            out.writeLong(seq);
+            out.writeInt(pending.size());
+            for (ScheduledPayment p : pending) {
+                out.writeInt(p.number);
+                BankJournal.writeString(out, p.accountId);
+                out.writeInt(p.amount);
+                out.writeInt(p.executedAt);
+            }
+            for (Account a : accounts.values()) {
+                a.lock.lock();
+                try {
+                    if (a.closed) continue;
+                    out.writeBoolean(true);
+                    BankJournal.writeString(out, a.accountId);
+                    out.writeInt(a.createdAt);
+                    out.writeInt(a.balance);
+                    out.writeInt(a.outgoing);
+                    out.writeLong(a.seq);
+                    a.balanceLog.writeTo(out);
+                    newest = Math.max(newest, a.seq);
+                } finally {
+                    a.lock.unlock();
+                }
+            }
+            out.writeBoolean(false);
+            out.flush();
+            ch.force(true);
+            journal.sync(newest);
+        }
+        Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE);
+        BankJournal.syncDirectory(path.getParent());       // the rename is durable before old segments go
+    }
+
+    /** newest snapshot, then every journal segment from it on; returns the highest seq seen */
+    private long recover(Path dir) throws IOException {
+        List<Long> snapshots = BankJournal.snapshots(dir);
+        long from = 1, lastSeq = 0;
+        if (!snapshots.isEmpty()) {
+            from = snapshots.get(snapshots.size() - 1);
+            lastSeq = readSnapshot(BankJournal.snapshotPath(dir, from));
+        }
+        long[] last = { lastSeq };
+        for (long segment : BankJournal.segments(dir)) {
+            if (segment < from) continue;
+            BankJournal.replay(BankJournal.segmentPath(dir, segment), op -> {
+                replay(op);
+                last[0] = Math.max(last[0], op.seq);
+            });
+        }
+        for (ScheduledPayment p : paymentsById.values()) {
+            Account account = accounts.get(p.accountId);
+            if (account == null) throw new IllegalStateException(p.id + " belongs to missing account " + p.accountId);
+            account.pending.add(p);
+        }
+        if (skippedInQueue > 0) dropSkipped();
+        nextDue = dueQueue.isEmpty() ? Integer.MAX_VALUE : dueQueue.peek().executedAt;
+        return last[0];
+    }
+
+    private long readSnapshot(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            if (in.readLong() != SNAPSHOT_MAGIC) throw new IOException("not a bank snapshot: " + path);
+            paymentCounter = in.readInt();
+            long lastSeq = paymentsSeq = in.readLong();
+            for (int i = in.readInt(); i > 0; i--) {
+                int number = in.readInt();
+                String account = BankJournal.readString(in);
+                int amount = in.readInt(), executedAt = in.readInt();
+                addPayment(new ScheduledPayment("Payment " + number, account, amount, executedAt, number));
+            }
+            while (in.readBoolean()) {
+                Account a = new Account(BankJournal.readString(in), in.readInt());
+                a.balance = in.readInt();
+                a.outgoing = in.readInt();
+                a.seq = in.readLong();
+                a.balanceLog.readFrom(in);
+                a.rank = new AccountSummary(a.accountId, a.outgoing);
+                spenders.add(a.rank);
+                accounts.put(a.accountId, a);
+                lastSeq = Math.max(lastSeq, a.seq);
+            }
+            return lastSeq;
+        }
+    }
+
+    private void addPayment(ScheduledPayment p) {
+        dueQueue.add(p);
+        paymentsById.put(p.id, p);
+    }
+
+    /** account the record still has to be applied to, or null if it is gone or already has it */
+    private Account behind(String accountId, long seq) {
+        Account a = accounts.get(accountId);
+        return a != null && a.seq < seq ? a : null;
+    }
+
+    /** applies one journal record during recovery, single threaded and before any caller can see the bank.
+     *  Pending sets are rebuilt after the last record */
+    private void replay(BankJournal.Op op) {
+        Account a;
+        switch (op.type) {
+            case BankJournal.Op.CREATE -> {
+                if (!accounts.containsKey(op.account)) {     // a present one is this one or a later one
+                    a = new Account(op.account, op.timestamp);
+                    a.rank = new AccountSummary(op.account, 0);
+                    spenders.add(a.rank);
+                    a.seq = op.seq;
+                    accounts.put(op.account, a);
+                }
+            }
+            case BankJournal.Op.DEPOSIT -> {
+                if ((a = behind(op.account, op.seq)) != null) {
+                    a.balance += op.amount;
+                    a.balanceLog.record(op.timestamp, a.balance);
+                    a.seq = op.seq;
+                }
+            }
+            case BankJournal.Op.TRANSFER -> {
+                if ((a = behind(op.account, op.seq)) != null) {
+                    a.balance -= op.amount;
+                    addOutgoing(a, op.amount);
+                    a.balanceLog.record(op.timestamp, a.balance);
+                    a.seq = op.seq;
+                }
+                if ((a = behind(op.other, op.seq)) != null) {
+                    a.balance += op.amount;
+                    a.balanceLog.record(op.timestamp, a.balance);
+                    a.seq = op.seq;
+                }
+            }
+            case BankJournal.Op.SCHEDULE -> {
+                if (paymentsSeq < op.seq) {
+                    addPayment(new ScheduledPayment("Payment " + op.payment, op.account, op.amount, op.executedAt, op.payment));
+                    paymentCounter = Math.max(paymentCounter, op.payment);
+                    paymentsSeq = op.seq;
+                }
+            }
+            case BankJournal.Op.CANCEL, BankJournal.Op.EXECUTE -> {
+                if (paymentsSeq < op.seq) {
+                    paymentsById.remove("Payment " + op.payment).skip = true;
+                    skippedInQueue++;
+                    paymentsSeq = op.seq;
+                }
+                if (op.type == BankJournal.Op.EXECUTE && (a = behind(op.account, op.seq)) != null) {
+                    a.balance -= op.amount;
+                    addOutgoing(a, op.amount);
+                    a.balanceLog.record(op.timestamp, a.balance);
+                    a.seq = op.seq;
+                }
+            }
+            case BankJournal.Op.MERGE -> {
+                if ((a = behind(op.account, op.seq)) != null) {
+                    a.balance += op.otherBalance;
+                    addOutgoing(a, op.otherOutgoing);
+                    a.balanceLog.record(op.timestamp, a.balance);
+                    a.seq = op.seq;
+                }
+                if ((a = behind(op.other, op.seq)) != null) {
+                    spenders.remove(a.rank);
+                    accounts.remove(op.other);
+                }
+                if (paymentsSeq < op.seq) {
+                    for (ScheduledPayment p : paymentsById.values()) {
+                        if (p.accountId.equals(op.other)) p.accountId = op.account;
+                    }
+                    paymentsSeq = op.seq;
+                }
+            }
+            default -> throw new IllegalStateException("unknown op " + op.type);
+        }
+    }
+
+    /** close - lets a running background checkpoint finish, flushes the journal, then throws a background
+     *  checkpoint failure no checkpoint() has reported yet */
+    @Override
+    public void close() {
+        if (checkpoints != null) {
+            checkpoints.shutdown();
+            try {
+                checkpoints.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (journal != null) {
+            checkpointLock.lock();
+            try {
+                journal.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                checkpointLock.unlock();
+            }
         }
+        IOException failed = checkpointFailure.getAndSet(null);
+        if (failed != null) throw new UncheckedIOException("background checkpoint failed", failed);
     }
 
 }
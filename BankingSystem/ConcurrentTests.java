@@ -0,0 +1,253 @@
+package banking;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.*;
+/**
+ * BankingService under several threads.
+ * Money only enters through deposits and leaves through scheduled payments, so with no payments due
+ * the sum of all balances must equal the sum of all deposits whatever the transfers and merges did.
+ */
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class ConcurrentTests {
+    private static final int THREADS = 8;
+    private static final int ACCOUNTS = 64;
+    private static final int START_BALANCE = 1000;
+    private static final int TIME = 1;
+    private BankingService bank;
+    @BeforeEach
+    public void setUp() {
+        bank = new BankingService();
+        for (int a = 0; a < ACCOUNTS; ++a) {
+            bank.createAccount(TIME, id(a));
+            bank.deposit(TIME, id(a), START_BALANCE);
+        }
+    }
+    /**
+     * Same contract as the demo on a single thread:
+     * A1 = 100, A2 = 200, transfer 50 A1 -> A2 leaves 50, a transfer above the balance fails
+     */
+    @Test
+    @Order(1)
+    public void test_01_singleThread() {
+        Assertions.assertTimeoutPreemptively(Duration.ofMillis(500), () -> {
+            BankingService b = new BankingService();
+            Assertions.assertTrue(b.createAccount(1, "A1"));
+            Assertions.assertTrue(b.createAccount(2, "A2"));
+            Assertions.assertFalse(b.createAccount(2, "A1"));
+            Assertions.assertEquals(100, b.deposit(3, "A1", 100));
+            Assertions.assertEquals(200, b.deposit(3, "A2", 200));
+            Assertions.assertEquals(50, b.transfer(4, "A1", "A2", 50));
+            Assertions.assertNull(b.transfer(4, "A1", "A2", 51));
+            Assertions.assertNull(b.transfer(4, "A1", "A1", 1));
+            Assertions.assertEquals(250, b.getBalance(5, "A2", 4));
+        });
+    }
+    /**
+     * THREADS threads move random amounts between random accounts.
+     * No transfer may overdraw its source and the total stays ACCOUNTS * START_BALANCE.
+     */
+    @Test
+    @Order(2)
+    public void test_02_randomTransfersConserveMoney() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            runThreads(t -> {
+                Random random = new Random(t);
+                for (int i = 0; i < 200_000; ++i) {
+                    int from = random.nextInt(ACCOUNTS), to = random.nextInt(ACCOUNTS);
+                    Integer left = bank.transfer(TIME, id(from), id(to), random.nextInt(300));
+                    if (left != null && left < 0) {
+                        throw new AssertionError("overdrawn " + id(from) + ": " + left);
+                    }
+                }
+            });
+            Assertions.assertEquals((long) ACCOUNTS * START_BALANCE, total(ACCOUNTS));
+        });
+    }
+    /**
+     * Every thread transfers around the same two accounts in both directions,
+     * the pattern that deadlocks when locks are taken in argument order.
+     */
+    @Test
+    @Order(3)
+    public void test_03_oppositeTransfersDoNotDeadlock() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            runThreads(t -> {
+                for (int i = 0; i < 200_000; ++i) {
+                    if ((i + t) % 2 == 0) {
+                        bank.transfer(TIME, id(0), id(1), 1);
+                    } else {
+                        bank.transfer(TIME, id(1), id(0), 1);
+                    }
+                }
+            });
+            Assertions.assertEquals(2L * START_BALANCE, (long) bank.deposit(TIME, id(0), 0) + bank.deposit(TIME, id(1), 0));
+        });
+    }
+    /**
+     * Thread 0 merges every odd account into the even one below it while the others keep transferring.
+     * A transfer that meets a merged account fails instead of losing money:
+     * afterwards only the even accounts are left and they hold everything.
+     */
+    @Test
+    @Order(4)
+    public void test_04_mergesDuringTransfers() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            runThreads(t -> {
+                if (t == 0) {
+                    for (int a = 1; a < ACCOUNTS; a += 2) {
+                        Assertions.assertTrue(bank.mergeAccounts(TIME, id(a - 1), id(a)));
+                    }
+                    return;
+                }
+                Random random = new Random(t);
+                for (int i = 0; i < 100_000; ++i) {
+                    bank.transfer(TIME, id(random.nextInt(ACCOUNTS)), id(random.nextInt(ACCOUNTS)), random.nextInt(300));
+                }
+            });
+            for (int a = 1; a < ACCOUNTS; a += 2) {
+                Assertions.assertNull(bank.deposit(TIME, id(a), 0));
+            }
+            long total = 0;
+            for (int a = 0; a < ACCOUNTS; a += 2) {
+                total += bank.deposit(TIME, id(a), 0);
+            }
+            Assertions.assertEquals((long) ACCOUNTS * START_BALANCE, total);
+        });
+    }
+
+    /**
+     * Every thread schedules payments from its own accounts at rising timestamps, cancels every other one
+     * and transfers in between, so payments come due while others are scheduled and cancelled.
+     * A cancel only succeeds before its payment ran; once everything is due, exactly the payments
+     * that were not cancelled have left the bank.
+     */
+    @Test
+    @Order(5)
+    public void test_05_scheduledPaymentsAndCancels() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            long[] paid = new long[THREADS];
+            runThreads(t -> {
+                Random random = new Random(t);
+                for (int i = 0; i < 20_000; ++i) {
+                    int now = TIME + i;
+                    String account = id(t + THREADS * random.nextInt(ACCOUNTS / THREADS));
+                    String payment = bank.schedulePayment(now, account, 1, random.nextInt(50));
+                    Assertions.assertNotNull(payment);
+                    if (i % 2 == 0 && bank.cancelPayment(now + random.nextInt(50), account, payment)) {
+                        continue;
+                    }
+                    paid[t]++;
+                    bank.transfer(now, id(random.nextInt(ACCOUNTS)), id(random.nextInt(ACCOUNTS)), random.nextInt(100));
+                }
+            });
+            bank.createAccount(1_000_000, "flush");   // every payment is due by now
+            long total = (long) ACCOUNTS * START_BALANCE;
+            for (long p : paid) {
+                total -= p;
+            }
+            Assertions.assertEquals(total, total(ACCOUNTS));
+            Assertions.assertFalse(bank.cancelPayment(1_000_000, id(0), "Payment 1"));
+        });
+    }
+
+    /**
+     * Single thread: largest outgoing first, ties by id, executed payments count as outgoing.
+     * Then THREADS threads transfer at random and count what each source sent. Reads while they run must
+     * never miss an account that is moving up, and afterwards topSpenders over all accounts must list
+     * exactly those totals in order.
+     */
+    @Test
+    @Order(6)
+    public void test_06_topSpenders() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            BankingService b = new BankingService();
+            for (String a : List.of("A", "B", "C", "D")) {
+                b.createAccount(1, a);
+                b.deposit(1, a, 1000);
+            }
+            b.transfer(2, "B", "A", 300);
+            b.transfer(2, "C", "A", 100);
+            b.schedulePayment(2, "A", 300, 1);
+            Assertions.assertEquals(List.of("B(300)", "C(100)"), b.topSpenders(2, 2));
+            Assertions.assertEquals(List.of("A(300)", "B(300)", "C(100)", "D(0)"), b.topSpenders(3, 10));
+            Assertions.assertTrue(b.mergeAccounts(4, "D", "B"));
+            Assertions.assertEquals(List.of("A(300)", "D(300)", "C(100)"), b.topSpenders(4, 10));
+
+            long[][] sent = new long[THREADS][ACCOUNTS];
+            runThreads(t -> {
+                Random random = new Random(t);
+                for (int i = 0; i < 100_000; ++i) {
+                    int from = random.nextInt(ACCOUNTS), amount = random.nextInt(300);
+                    if (bank.transfer(TIME, id(from), id(random.nextInt(ACCOUNTS)), amount) != null) {
+                        sent[t][from] += amount;
+                    }
+                    List<String> top;
+                    if (i % 1000 == 0 && (top = bank.topSpenders(TIME, 5)).size() != 5) {
+                        throw new AssertionError("lost an account while it moved: " + top);
+                    }
+                }
+            });
+            List<Integer> order = new ArrayList<>();
+            long[] total = new long[ACCOUNTS];
+            for (int a = 0; a < ACCOUNTS; ++a) {
+                order.add(a);
+                for (long[] s : sent) {
+                    total[a] += s[a];
+                }
+            }
+            order.sort((x, y) -> total[x] != total[y] ? Long.compare(total[y], total[x]) : id(x).compareTo(id(y)));
+            List<String> expected = new ArrayList<>();
+            for (int a : order) {
+                expected.add(id(a) + "(" + total[a] + ")");
+            }
+            Assertions.assertEquals(expected, bank.topSpenders(TIME, ACCOUNTS));
+        });
+    }
+
+    private static String id(int account) {
+        return "acc" + account;
+    }
+
+    private long total(int accounts) {
+        long total = 0;
+        for (int a = 0; a < accounts; ++a) {
+            total += bank.deposit(TIME, id(a), 0);
+        }
+        return total;
+    }
+
+    private interface Worker {
+        void run(int thread);
+    }
+
+    private static void runThreads(Worker worker) throws Throwable {
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; ++t) {
+            int id = t;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    worker.run(id);
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package banking;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.*;
+/**
+ * Durable BankingService: what open() rebuilds from the snapshot and journal must be the bank that was closed,
+ * or, after a crash, the bank as of some earlier record.
+ * A bank is compared by its state: every account's balance history at the times used, and topSpenders.
+ */
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class JournalTests {
+    private static final int ACCOUNTS = 16;
+    private static final int THREADS = 8;
+    private Path dir;
+    @BeforeEach
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("bank-journal");
+    }
+    @AfterEach
+    public void tearDown() throws IOException {
+        delete(dir);
+    }
+    /**
+     * Random single-threaded operations (deposits, transfers, payments, cancels, merges, re-creates),
+     * checkpoints after 1/3 and 2/3 of them; close, reopen -> same state, then reopen again after more work
+     */
+    @Test
+    @Order(1)
+    public void test_01_reopen() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            Random random = new Random(1);
+            int time = 1;
+            String before;
+            try (BankingService bank = BankingService.open(dir, 0)) {
+                for (int i = 0; i < 3000; ++i) {
+                    randomOp(bank, random, time++, true);
+                    if (i == 1000 || i == 2000) {
+                        bank.checkpoint();
+                    }
+                }
+                before = state(bank, time);
+            }
+            try (BankingService bank = BankingService.open(dir, 0)) {
+                Assertions.assertEquals(before, state(bank, time));
+                for (int i = 0; i < 500; ++i) {
+                    randomOp(bank, random, time++, true);
+                }
+                before = state(bank, time);
+            }
+            try (BankingService bank = BankingService.open(dir, 0)) {
+                Assertions.assertEquals(before, state(bank, time));
+            }
+        });
+    }
+    /**
+     * THREADS threads run random operations while another thread checkpoints in a loop,
+     * so snapshots are taken in the middle of transfers and merges; the reopened bank must match exactly
+     */
+    @Test
+    @Order(2)
+    public void test_02_checkpointsDuringWrites() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(60), () -> {
+            String before;
+            int end = 10_000;
+            try (BankingService bank = BankingService.open(dir, 0)) {
+                for (int a = 0; a < ACCOUNTS; ++a) {
+                    bank.createAccount(0, id(a));
+                    bank.deposit(0, id(a), 1000);
+                }
+                AtomicBoolean done = new AtomicBoolean();
+                AtomicReference<Throwable> failure = new AtomicReference<>();
+                Thread checkpointer = new Thread(() -> {
+                    try {
+                        while (!done.get()) {
+                            bank.checkpoint();
+                        }
+                    } catch (Throwable e) {
+                        failure.set(e);
+                    }
+                });
+                checkpointer.start();
+                List<Thread> threads = new ArrayList<>();
+                CountDownLatch start = new CountDownLatch(1);
+                for (int t = 0; t < THREADS; ++t) {
+                    int seed = t;
+                    Thread thread = new Thread(() -> {
+                        try {
+                            start.await();
+                            Random random = new Random(seed);
+                            for (int i = 1; i < end; ++i) {
+                                randomOp(bank, random, i, true);
+                            }
+                        } catch (Throwable e) {
+                            failure.set(e);
+                        }
+                    });
+                    thread.start();
+                    threads.add(thread);
+                }
+                start.countDown();
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+                done.set(true);
+                checkpointer.join();
+                Assertions.assertNull(failure.get());
+                before = state(bank, end);
+            }
+            try (BankingService bank = BankingService.open(dir, 0)) {
+                Assertions.assertEquals(before, state(bank, end));
+            }
+        });
+    }
+    /**
+     * Crash injection: one thread runs operations, the state after every journal record is kept
+     * (a tick runs due payments one at a time first, so no operation writes more than one record).
+     * Then the newest segment is cut at random offsets, as a crash in the middle of a write would leave it.
+     * Each cut must reopen as the state after some record, never an earlier one for a longer file,
+     * and the uncut journal as the final state.
+     */
+    @Test
+    @Order(3)
+    public void test_03_crashAnywhere() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(60), () -> {
+            Random random = new Random(3);
+            List<String> states = new ArrayList<>();
+            Set<Integer> dueTimes = new HashSet<>();
+            int end = 1500;
+            try (BankingService bank = BankingService.open(dir, 0)) {
+                for (int a = 0; a < ACCOUNTS; ++a) {
+                    bank.createAccount(0, id(a));
+                    bank.deposit(0, id(a), 1000);
+                }
+                for (int time = 1; time < end; ++time) {
+                    if (time == 500) {
+                        bank.checkpoint();
+                    }
+                    if (time >= 500) {
+                        states.add(state(bank, end));
+                    }
+                    bank.getBalance(time, id(0), time);      // tick: the payment due now, if any
+                    if (time >= 500) {
+                        states.add(state(bank, end));
+                    }
+                    if (random.nextInt(5) == 0) {
+                        int delay = 1 + random.nextInt(30);
+                        while (!dueTimes.add(time + delay)) ++delay;
+                        bank.schedulePayment(time, id(random.nextInt(ACCOUNTS)), random.nextInt(50), delay);
+                    } else {
+                        randomOp(bank, random, time, false);
+                    }
+                }
+                states.add(state(bank, end));
+            }
+            List<Long> segments = BankJournal.segments(dir);
+            Path last = BankJournal.segmentPath(dir, segments.get(segments.size() - 1));   // written after the checkpoint
+            long size = Files.size(last);
+            List<Long> cuts = new ArrayList<>(List.of(0L, size));
+            for (int i = 0; i < 60; ++i) {
+                cuts.add((long) random.nextInt((int) size));
+            }
+            cuts.sort(null);
+            int lastMatch = 0;
+            for (long cut : cuts) {
+                Path copy = Files.createTempDirectory("bank-crash");
+                try {
+                    try (Stream<Path> files = Files.list(dir)) {
+                        for (Path f : (Iterable<Path>) files::iterator) {
+                            Files.copy(f, copy.resolve(f.getFileName()));
+                        }
+                    }
+                    try (FileChannel ch = FileChannel.open(copy.resolve(last.getFileName()), StandardOpenOption.WRITE)) {
+                        ch.truncate(cut);
+                    }
+                    try (BankingService bank = BankingService.open(copy, 0)) {
+                        String recovered = state(bank, end);
+                        int match = states.subList(lastMatch, states.size()).indexOf(recovered);
+                        Assertions.assertTrue(match >= 0, "cut at " + cut + " of " + size + " matches no state at or after the last cut");
+                        lastMatch += match;
+                    }
+                } finally {
+                    delete(copy);
+                }
+            }
+            Assertions.assertEquals(states.get(states.size() - 1), states.get(lastMatch));
+        });
+    }
+
+    /**
+     * Crash during checkpoints: THREADS * 8 threads transfer between accounts (one record changes two of them;
+     * with that many threads some are always between journaling a transfer and syncing it) while another thread
+     * checkpoints in a loop and, right after each checkpoint, copies what a crash would leave on disk: the
+     * snapshots, then the journal as written so far. Records still pending in memory are not in the copy, so a
+     * snapshot holding a transfer whose record is missing would reopen with money on one side only.
+     * Every copy must reopen with all the money there was
+     */
+    @Test
+    @Order(4)
+    public void test_04_crashDuringCheckpoint() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(120), () -> {
+            List<Path> images = new ArrayList<>();
+            try (BankingService bank = BankingService.open(dir, 0)) {
+                for (int a = 0; a < ACCOUNTS; ++a) {
+                    bank.createAccount(0, id(a));
+                    bank.deposit(0, id(a), 1000);
+                }
+                AtomicBoolean done = new AtomicBoolean();
+                AtomicReference<Throwable> failure = new AtomicReference<>();
+                Thread checkpointer = new Thread(() -> {
+                    try {
+                        while (!done.get() && images.size() < 100) {
+                            bank.checkpoint();
+                            images.add(crashImage(dir));
+                        }
+                    } catch (Throwable e) {
+                        failure.set(e);
+                    }
+                });
+                CountDownLatch start = new CountDownLatch(1);
+                List<Thread> threads = new ArrayList<>();
+                for (int t = 0; t < THREADS * 8; ++t) {
+                    int seed = t;
+                    Thread thread = new Thread(() -> {
+                        try {
+                            start.await();
+                            Random random = new Random(seed);
+                            for (int i = 0; i < 3000; ++i) {
+                                bank.transfer(1, id(random.nextInt(ACCOUNTS)), id(random.nextInt(ACCOUNTS)), random.nextInt(200));
+                            }
+                        } catch (Throwable e) {
+                            failure.set(e);
+                        }
+                    });
+                    thread.start();
+                    threads.add(thread);
+                }
+                start.countDown();
+                checkpointer.start();
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+                done.set(true);
+                checkpointer.join();
+                Assertions.assertNull(failure.get());
+            }
+            try {
+                Assertions.assertFalse(images.isEmpty());
+                for (Path image : images) {
+                    try (BankingService bank = BankingService.open(image, 0)) {
+                        long total = 0;
+                        for (int a = 0; a < ACCOUNTS; ++a) {
+                            total += bank.getBalance(Integer.MIN_VALUE, id(a), 1);
+                        }
+                        Assertions.assertEquals((long) ACCOUNTS * 1000, total, "money lost or made in " + image.getFileName());
+                    }
+                }
+            } finally {
+                for (Path image : images) {
+                    delete(image);
+                }
+            }
+        });
+    }
+    /**
+     * Nobody is waiting on a scheduled checkpoint, so when it cannot reach the moved directory the error
+     * surfaces from the caller's next checkpoint(), which then does not snapshot; calling again works.
+     * A deposit and another failed run later, close() throws, and the reopened bank still holds both deposits
+     */
+    @Test
+    @Order(5)
+    public void test_05_backgroundCheckpointFailure() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            Path moved = dir.resolveSibling(dir.getFileName() + "-moved");
+            BankingService bank = BankingService.open(dir, 0);
+            bank.createAccount(1, "A1");
+            bank.deposit(2, "A1", 100);
+            Files.move(dir, moved);
+            bank.backgroundCheckpoint();
+            Files.move(moved, dir);
+            IOException failed = Assertions.assertThrows(IOException.class, bank::checkpoint);
+            Assertions.assertNotNull(failed.getCause());
+            bank.checkpoint();
+
+            bank.deposit(3, "A1", 50);
+            Files.move(dir, moved);
+            bank.backgroundCheckpoint();
+            Files.move(moved, dir);
+            Assertions.assertThrows(UncheckedIOException.class, bank::close);
+
+            try (BankingService reopened = BankingService.open(dir, 0)) {
+                Assertions.assertEquals(150, reopened.getBalance(4, "A1", 3));
+            }
+        });
+    }
+
+    /** a copy of dir as a crash right now could leave it: snapshots first, then the journal written so far */
+    private static Path crashImage(Path dir) throws IOException {
+        Path copy = Files.createTempDirectory("bank-crash");
+        for (long n : BankJournal.snapshots(dir)) {
+            Files.copy(BankJournal.snapshotPath(dir, n), copy.resolve(BankJournal.snapshotPath(dir, n).getFileName()));
+        }
+        for (long n : BankJournal.segments(dir)) {
+            Files.copy(BankJournal.segmentPath(dir, n), copy.resolve(BankJournal.segmentPath(dir, n).getFileName()));
+        }
+        return copy;
+    }
+
+    private static String id(int account) {
+        return "acc" + account;
+    }
+
+    /** one random operation at time; amounts are small so most transfers succeed */
+    private static void randomOp(BankingService bank, Random random, int time, boolean schedule) {
+        String a = id(random.nextInt(ACCOUNTS)), b = id(random.nextInt(ACCOUNTS));
+        int op = random.nextInt(20);
+        if (op == 2 && !schedule) op = 4;                 // a deposit instead
+        switch (op) {
+            case 0 -> bank.createAccount(time, a);
+            case 1 -> bank.mergeAccounts(time, a, b);
+            case 2 -> bank.schedulePayment(time, a, random.nextInt(50), random.nextInt(30));
+            case 3 -> bank.cancelPayment(time, a, "Payment " + random.nextInt(100));
+            case 4, 5, 6 -> bank.deposit(time, a, random.nextInt(500));
+            default -> bank.transfer(time, a, b, random.nextInt(200));
+        }
+    }
+
+    /**
+     * The spenders ranking and every account's balances up to horizon. Read at Integer.MIN_VALUE,
+     * when no payment is due, so reading never changes the bank
+     */
+    private static String state(BankingService bank, int horizon) {
+        StringBuilder out = new StringBuilder(bank.topSpenders(Integer.MIN_VALUE, ACCOUNTS).toString());
+        for (int a = 0; a < ACCOUNTS; ++a) {
+            out.append('\n').append(id(a)).append(':');
+            for (int t = 0; t <= horizon; t += 7) {
+                out.append(bank.getBalance(Integer.MIN_VALUE, id(a), t)).append(',');
+            }
+            out.append(bank.getBalance(Integer.MIN_VALUE, id(a), horizon));
+        }
+        return out.toString();
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package containersofintegers;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Approximate RankedContainer in bounded memory, for streams too long to keep every value.
+ * Adds go to a KLL quantile sketch and deletes to a second, negative KLL sketch; the rank of a value is
+ * its rank in the first minus its rank in the second. Memory is O(1 / epsilon), about 3 / epsilon ints,
+ * whatever the number of values.
+ *
+ * Error bound: with high probability, the value returned for rank r has a true rank within
+ * epsilon * (adds + deletes) of r. Deletes widen the bound, so the container suits windows where deletes
+ * are a modest share of adds. Until the sketches first compact (about 2 / epsilon values), answers are exact.
+ *
+ * Queries read a sorted merge of the two sketches. Rebuilding it costs O(1 / epsilon log(1 / epsilon)),
+ * so it is only rebuilt once more than epsilon / 4 * (adds + deletes) changes have piled up since the last
+ * build; the changes a query may miss are part of the error budget above.
+ *
+ * delete returns whether the value may be present. While the sketches are exact that is exact, as in
+ * every other Container. After the first compaction only values outside the range ever added are known to
+ * be absent; inside it, delete follows the turnstile model and trusts the caller to delete only values it
+ * added.
+ */
+public class ApproximateContainer implements RankedContainer {
+    private final KllSketch added;
+    private final KllSketch deleted;
+    private final double epsilon;
+
+    //sorted merge of both sketches, rebuilt by the first query after a change
+    private long[] view;        // (value << 8) | level, +64 on the level for the deleted sketch
+    private long[] cumulative;  // highest net weight of any prefix of view[0..i], kept monotone for binary search
+    private long unseen;        // adds and deletes since the view was built
+    private int minAdded = Integer.MAX_VALUE, maxAdded = Integer.MIN_VALUE;
+
+    public ApproximateContainer(double epsilon) {
+        if (!(epsilon > 0 && epsilon < 1)) {
+            throw new IllegalArgumentException("epsilon must be in (0, 1): " + epsilon);
+        }
+        this.epsilon = epsilon;
+        //KLL keeps the normalized rank error near 1.7 / k; 2 / epsilon leaves room for the deleted sketch
+        //and for the changes a stale view misses
+        int k = (int) Math.min(1 << 24, Math.ceil(2 / epsilon));
+        this.added = new KllSketch(k, 1);
+        this.deleted = new KllSketch(k, 2);
+    }
+
+    public double epsilon() {
+        return epsilon;
+    }
+
+    //merge(other) - adds other's adds and deletes to this container, e.g. to combine per-thread containers;
+    //the error bound then applies to the combined adds and deletes
+    public void merge(ApproximateContainer other) {
+        added.merge(other.added);
+        deleted.merge(other.deleted);
+        minAdded = Math.min(minAdded, other.minAdded);
+        maxAdded = Math.max(maxAdded, other.maxAdded);
+        view = null;
+    }
+
+    @Override
+    public void add(int value) {
+        added.update(value);
+        minAdded = Math.min(minAdded, value);
+        maxAdded = Math.max(maxAdded, value);
+        unseen++;
+    }
+
+    @Override
+    public boolean delete(int value) {
+        if (!mayContain(value)) return false;
+        deleted.update(value);
+        unseen++;
+        return true;
+    }
+
+    //mayContain(value) - exact while neither sketch has compacted, a range check afterwards
+    private boolean mayContain(int value) {
+        if (size() == 0 || value < minAdded || value > maxAdded) return false;
+        if (added.isExact() && deleted.isExact()) return added.occurrences(value) > deleted.occurrences(value);
+        return true;
+    }
+
+    @Override
+    public int getMedian() {
+        long size = size();
+        if (size == 0) {
+            throw new RuntimeException("Container is empty");
+        }
+        //the leftmost of the two middle values when the size is even
+        return select((size - 1) / 2);
+    }
+
+    @Override
+    public int getKth(long k) {
+        long size = size();
+        if (k < 0 || k >= size) {
+            throw new IndexOutOfBoundsException("k = " + k + ", size = " + size);
+        }
+        return select(k);
+    }
+
+    @Override
+    public int getPercentile(double p) {
+        long size = size();
+        if (size == 0) {
+            throw new RuntimeException("Container is empty");
+        }
+        return select(ContainerImpl.nearestRank(p, size) - 1);
+    }
+
+    //exact: adds minus deletes
+    @Override
+    public long size() {
+        return added.count() - deleted.count();
+    }
+
+    //select(k) - the first value whose estimated net rank passes k. Net weight can dip with deletes,
+    //which is why cumulative holds running maxima: the first crossing is then a binary search.
+    private int select(long k) {
+        if (view == null || unseen > (long) (epsilon / 4 * (added.count() + deleted.count()))) buildView();
+        int lo = 0, hi = view.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (cumulative[mid] > k) hi = mid; else lo = mid + 1;
+        }
+        return (int) (view[lo] >> 8);
+    }
+
+    private void buildView() {
+        long[] items = new long[added.retained() + deleted.retained()];
+        int n = added.export(items, 0, 0);
+        n = deleted.export(items, n, 64);
+        Arrays.sort(items, 0, n);
+        long[] sums = new long[n];
+        long sum = 0, max = Long.MIN_VALUE;
+        for (int i = 0; i < n; i++) {
+            int level = (int) (items[i] & 0xFF);
+            sum += level >= 64 ? -(1L << (level - 64)) : 1L << level;
+            max = Math.max(max, sum);
+            sums[i] = max;
+        }
+        view = items;
+        cumulative = sums;
+        unseen = 0;
+    }
+}
+
+/* KLL sketch (Karnin, Lang, Liberty) over ints. Level h holds items standing for 2^h values each; when the
+ * sketch is over capacity, the lowest full level is sorted and every other item, from a random offset,
+ * is promoted one level up. Capacities shrink by 2/3 per level going down from the top, which keeps the
+ * total size about 3k. */
+class KllSketch {
+    private static final int MIN_CAPACITY = 8;
+
+    private final int k;
+    private final SplittableRandom random;
+    private int[][] levels = new int[1][MIN_CAPACITY];
+    private int[] sizes = new int[1];
+    private int[] capacities;
+    private int totalCapacity;
+    private int retained;
+    private long count;
+
+    KllSketch(int k, long seed) {
+        this.k = k;
+        this.random = new SplittableRandom(seed);
+        computeCapacities();
+    }
+
+    long count() {
+        return count;
+    }
+
+    int retained() {
+        return retained;
+    }
+
+    //no compaction yet: every value ever updated is still held at level 0
+    boolean isExact() {
+        return levels.length == 1;
+    }
+
+    //occurrences(value) - how many times value is held at level 0, O(retained)
+    int occurrences(int value) {
+        int n = 0;
+        for (int i = 0; i < sizes[0]; i++) {
+            if (levels[0][i] == value) n++;
+        }
+        return n;
+    }
+
+    void update(int value) {
+        append(0, value);
+        count++;
+        while (retained > totalCapacity) compact();
+    }
+
+    //merge(other) - afterwards this sketch summarizes both streams; other is left as it was
+    void merge(KllSketch other) {
+        while (levels.length < other.levels.length) addLevel();
+        for (int h = 0; h < other.levels.length; h++) {
+            for (int i = 0; i < other.sizes[h]; i++) append(h, other.levels[h][i]);
+        }
+        count += other.count;
+        while (retained > totalCapacity) compact();
+    }
+
+    //export(out, from, tag) - writes (value << 8) | (level + tag) for every retained item, returns the new end
+    int export(long[] out, int from, int tag) {
+        for (int h = 0; h < levels.length; h++) {
+            for (int i = 0; i < sizes[h]; i++) {
+                out[from++] = ((long) levels[h][i] << 8) | (h + tag);
+            }
+        }
+        return from;
+    }
+
+    //capacities depend on the number of levels, so they are recomputed whenever a level is added
+    private void computeCapacities() {
+        capacities = new int[levels.length];
+        totalCapacity = 0;
+        for (int h = 0; h < levels.length; h++) {
+            int depth = levels.length - 1 - h;
+            capacities[h] = Math.max(MIN_CAPACITY, (int) Math.ceil(k * Math.pow(2.0 / 3.0, depth)));
+            totalCapacity += capacities[h];
+        }
+    }
+
+    private void addLevel() {
+        levels = Arrays.copyOf(levels, levels.length + 1);
+        levels[levels.length - 1] = new int[MIN_CAPACITY];
+        sizes = Arrays.copyOf(sizes, sizes.length + 1);
+        computeCapacities();
+    }
+
+    private void append(int level, int value) {
+        if (sizes[level] == levels[level].length) {
+            levels[level] = Arrays.copyOf(levels[level], levels[level].length * 2);
+        }
+        levels[level][sizes[level]++] = value;
+        retained++;
+    }
+
+    //halves the lowest level that is at capacity; an odd item out stays behind
+    private void compact() {
+        int h = 0;
+        while (sizes[h] < capacities[h]) h++;
+        if (h == levels.length - 1) addLevel();
+        int[] level = levels[h];
+        int n = sizes[h];
+        Arrays.sort(level, 0, n);
+        int odd = n & 1;
+        int start = odd + random.nextInt(2);   // the smallest item is the one left behind when n is odd
+        for (int i = start; i < n; i += 2) append(h + 1, level[i]);
+        retained -= n - odd;
+        sizes[h] = odd;
+    }
+}
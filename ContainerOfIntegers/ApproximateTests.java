@@ -0,0 +1,159 @@
+package containersofintegers;
+
+import java.time.Duration;
+import org.junit.jupiter.api.*;
+/**
+ * ApproximateContainer against its documented bound: the value returned for rank r
+ * has a true rank within epsilon * (adds + deletes) of r.
+ * The large tests add a permutation of [0, N), so the true rank of a value is the value itself
+ * and no exact structure is needed to check the answers.
+ */
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class ApproximateTests {
+    private static final int N = 100_000_000;
+    private static final double EPSILON = 0.001;
+    /**
+     * Below the first compaction the sketch is exact, same answers as ContainerTests:
+     * Add 3, 30, 30, 15 -> median 15, delete 30 -> 15, delete 30 -> 3, delete 30 and delete 20 fail
+     * Add 30, 30, 30 -> median 30, add 15 -> 15, delete 3 -> 30
+     */
+    @Test
+    @Order(1)
+    public void test_01_exactWhileSmall() {
+        Assertions.assertTimeoutPreemptively(Duration.ofMillis(100), () -> {
+            RankedContainer container = Containers.approximate(0.01);
+            Assertions.assertThrows(
+                    RuntimeException.class,
+                    () -> container.getMedian()
+            );
+            Assertions.assertFalse(container.delete(1));
+            container.add(3);
+            container.add(30);
+            container.add(30);
+            container.add(15);
+            Assertions.assertEquals(15, container.getMedian());
+            Assertions.assertTrue(container.delete(30));
+            Assertions.assertEquals(15, container.getMedian());
+            Assertions.assertTrue(container.delete(30));
+            Assertions.assertEquals(3, container.getMedian());
+            Assertions.assertFalse(container.delete(30));
+            Assertions.assertFalse(container.delete(20));
+            Assertions.assertEquals(2, container.size());
+            container.add(30);
+            container.add(30);
+            container.add(30);
+            Assertions.assertEquals(30, container.getMedian());
+            container.add(15);
+            Assertions.assertEquals(15, container.getMedian());
+            Assertions.assertTrue(container.delete(3));
+            Assertions.assertEquals(30, container.getMedian());
+            Assertions.assertThrows(
+                    IllegalArgumentException.class,
+                    () -> Containers.approximate(0)
+            );
+        });
+    }
+    /**
+     * Add a permutation of [0, 10^8)
+     * p1, p2, ..., p99 and the median are within EPSILON * 10^8 of their true rank
+     */
+    @Test
+    @Order(2)
+    public void test_02_addsOnly() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(60), () -> {
+            RankedContainer container = Containers.approximate(EPSILON);
+            for (int i = 0; i < N; ++i) {
+                container.add(permuted(i));
+            }
+            Assertions.assertEquals(N, container.size());
+            long bound = (long) (EPSILON * N);
+            assertWithin(bound, (N - 1) / 2, container.getMedian());
+            for (int p = 1; p <= 99; ++p) {
+                assertWithin(bound, ContainerImpl.nearestRank(p, N) - 1, container.getPercentile(p));
+            }
+        });
+    }
+    /**
+     * Add a permutation of [0, 10^8), delete every value below 2.5 * 10^7 in the same order
+     * The rest is [D, N) with D = 2.5 * 10^7, so the k-th value is D + k
+     * Answers are within EPSILON * (N + D) of their true rank
+     */
+    @Test
+    @Order(3)
+    public void test_03_addsAndDeletes() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(60), () -> {
+            RankedContainer container = Containers.approximate(EPSILON);
+            int deleted = N / 4;
+            for (int i = 0; i < N; ++i) {
+                container.add(permuted(i));
+            }
+            for (int i = 0; i < N; ++i) {
+                int v = permuted(i);
+                if (v < deleted) {
+                    Assertions.assertTrue(container.delete(v));
+                }
+            }
+            long size = N - deleted;
+            Assertions.assertEquals(size, container.size());
+            long bound = (long) (EPSILON * (N + deleted));
+            assertWithin(bound, deleted + (size - 1) / 2, container.getMedian());
+            for (int p = 10; p <= 90; p += 10) {
+                assertWithin(bound, deleted + ContainerImpl.nearestRank(p, size) - 1, container.getPercentile(p));
+            }
+        });
+    }
+    /**
+     * Four containers each take every fourth value of the permutation of [0, 10^7), then merge into one
+     * The merged median is within EPSILON * 10^7 of (10^7 - 1) / 2,
+     * deleting a value outside [0, 10^7) fails and leaves the size alone
+     */
+    @Test
+    @Order(4)
+    public void test_04_merge() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            int n = N / 10;
+            ApproximateContainer[] parts = new ApproximateContainer[4];
+            for (int t = 0; t < parts.length; ++t) {
+                parts[t] = new ApproximateContainer(EPSILON);
+                for (int i = t; i < n; i += parts.length) {
+                    parts[t].add((int) ((long) i * 1_000_000_007L % n));
+                }
+            }
+            for (int t = 1; t < parts.length; ++t) {
+                parts[0].merge(parts[t]);
+            }
+            Assertions.assertEquals(n, parts[0].size());
+            assertWithin((long) (EPSILON * n), (n - 1) / 2, parts[0].getMedian());
+            Assertions.assertFalse(parts[0].delete(-1));
+            Assertions.assertFalse(parts[0].delete(n));
+            Assertions.assertEquals(n, parts[0].size());
+        });
+    }
+    /**
+     * Add 0, 1, 2, ..., 10^7 - 1 with a median after every add, the pattern that makes a query
+     * rebuild the merged view. The median of [0, ..., i] is i / 2, and every answer stays within
+     * EPSILON * (i + 1) of it, including the changes a reused view has not seen yet
+     */
+    @Test
+    @Order(5)
+    public void test_05_queriesBetweenAdds() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(60), () -> {
+            RankedContainer container = Containers.approximate(EPSILON);
+            for (int i = 0; i < N / 10; ++i) {
+                container.add(i);
+                assertWithin((long) (EPSILON * (i + 1)), i / 2, container.getMedian());
+            }
+        });
+    }
+
+    //value = true rank, since the values are a permutation of [0, N) (or [D, N) after the deletes)
+    private static void assertWithin(long bound, long expected, int actual) {
+        Assertions.assertTrue(Math.abs(actual - expected) <= bound,
+                "rank error " + Math.abs(actual - expected) + " > " + bound + " at rank " + expected);
+    }
+
+    //a permutation of [0, N): 1,000,000,007 is prime, so it is coprime with N
+    private static int permuted(int i) {
+        return (int) ((long) i * 1_000_000_007L % N);
+    }
+}
@@ -0,0 +1,120 @@
+package containersofintegers;
+
+/**
+ * RankedContainer for values known to lie in [min, max], e.g. latencies in microseconds or prices in cents.
+ * Memory depends only on the width of the range, never on how many values are added:
+ * an int count per possible value, plus a Fenwick tree of running totals over blocks of 64 values.
+ *
+ * add and delete change one count and walk the Fenwick tree, O(log(range / 64)) with no allocation.
+ * getMedian/getKth descend the Fenwick tree to the block holding the k-th value, then scan at most
+ * 64 counts of that block: O(log(range / 64) + 64).
+ */
+public class BoundedRangeContainer implements RankedContainer {
+    private static final int BLOCK_SHIFT = 6;   // 64 values per block
+
+    private final int min;
+    private final int[] counts;     // counts[v - min] = copies of v
+    private final long[] blocks;    // Fenwick tree over block totals, 1-based
+    private final int topBit;       // highest power of two <= blocks.length - 1, where the descent starts
+    private long size;
+
+    public BoundedRangeContainer(int min, int max) {
+        if (min > max) {
+            throw new IllegalArgumentException("min > max: " + min + " > " + max);
+        }
+        long width = (long) max - min + 1;
+        if (width > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("range too wide for a count array: " + width);
+        }
+        this.min = min;
+        this.counts = new int[(int) width];
+        int blockCount = (int) ((width + 63) >> BLOCK_SHIFT);
+        this.blocks = new long[blockCount + 1];
+        this.topBit = Integer.highestOneBit(blockCount);
+    }
+
+    @Override
+    public void add(int value) {
+        int i = index(value);
+        if (i < 0) {
+            throw new IllegalArgumentException(value + " is outside [" + min + ", " + (min + counts.length - 1) + "]");
+        }
+        if (counts[i] == Integer.MAX_VALUE) {
+            throw new IllegalStateException("too many copies of " + value);
+        }
+        counts[i]++;
+        size++;
+        update(i >> BLOCK_SHIFT, 1);
+    }
+
+    @Override
+    public boolean delete(int value) {
+        int i = index(value);
+        if (i < 0 || counts[i] == 0) return false;
+        counts[i]--;
+        size--;
+        update(i >> BLOCK_SHIFT, -1);
+        return true;
+    }
+
+    @Override
+    public int getMedian() {
+        if (size == 0) {
+            throw new RuntimeException("Container is empty");
+        }
+        //the leftmost of the two middle values when the size is even
+        return select((size - 1) / 2);
+    }
+
+    @Override
+    public int getKth(long k) {
+        if (k < 0 || k >= size) {
+            throw new IndexOutOfBoundsException("k = " + k + ", size = " + size);
+        }
+        return select(k);
+    }
+
+    @Override
+    public int getPercentile(double p) {
+        if (size == 0) {
+            throw new RuntimeException("Container is empty");
+        }
+        return select(ContainerImpl.nearestRank(p, size) - 1);
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    //offset of value in counts, -1 when out of range
+    private int index(int value) {
+        long i = (long) value - min;
+        return i >= 0 && i < counts.length ? (int) i : -1;
+    }
+
+    private void update(int block, int delta) {
+        for (int i = block + 1; i < blocks.length; i += i & -i) {
+            blocks[i] += delta;
+        }
+    }
+
+    //select(k) - the value with k smaller values before it, 0 <= k < size
+    private int select(long k) {
+        //Fenwick descent: the last block whose running total is still <= k, so the k-th value is in the next one
+        int block = 0;
+        for (int step = topBit; step > 0; step >>= 1) {
+            int next = block + step;
+            if (next < blocks.length && blocks[next] <= k) {
+                block = next;
+                k -= blocks[next];
+            }
+        }
+        int i = block << BLOCK_SHIFT;
+        while (k >= counts[i]) {
+            k -= counts[i];
+            i++;
+        }
+        return min + i;
+    }
+}
@@ -0,0 +1,115 @@
+package containersofintegers;
+
+import java.time.Duration;
+import java.util.Random;
+import org.junit.jupiter.api.*;
+/**
+ * BoundedRangeContainer through the Containers factory.
+ */
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class BoundedRangeTests {
+    private RankedContainer container;
+    @BeforeEach
+    public void setUp() {
+        container = Containers.bounded(0, 1000);
+    }
+    /**
+     * Add 5, 3, 5, 7, 8, 9 -> [3, 5, 5, 7, 8, 9], median 5
+     * Delete 5, 8 -> [3, 5, 7, 9], median 5
+     * Delete 5, 5 -> [3, 7, 9], median 7 (the second delete fails)
+     * Delete -1 and 1001, outside the range, fail
+     * Add -1 is rejected
+     */
+    @Test
+    @Order(1)
+    public void test_01_basics() {
+        Assertions.assertTimeoutPreemptively(Duration.ofMillis(100), () -> {
+            Assertions.assertThrows(
+                    RuntimeException.class,
+                    () -> container.getMedian()
+            );
+            for (int v : new int[]{5, 3, 5, 7, 8, 9}) {
+                container.add(v);
+            }
+            Assertions.assertEquals(5, container.getMedian());
+            Assertions.assertTrue(container.delete(5));
+            Assertions.assertTrue(container.delete(8));
+            Assertions.assertEquals(5, container.getMedian());
+            Assertions.assertTrue(container.delete(5));
+            Assertions.assertFalse(container.delete(5));
+            Assertions.assertEquals(7, container.getMedian());
+            Assertions.assertFalse(container.delete(-1));
+            Assertions.assertFalse(container.delete(1001));
+            Assertions.assertThrows(
+                    IllegalArgumentException.class,
+                    () -> container.add(-1)
+            );
+            Assertions.assertEquals(3, container.size());
+        });
+    }
+    /**
+     * Ranges at the ends of int: [MIN_VALUE, MIN_VALUE + 99] and [MAX_VALUE - 99, MAX_VALUE]
+     * Add every value of the range twice, median is the 99th of 200, i.e. the 50th value of the range
+     */
+    @Test
+    @Order(2)
+    public void test_02_extremeRanges() {
+        Assertions.assertTimeoutPreemptively(Duration.ofMillis(100), () -> {
+            for (int lo : new int[]{Integer.MIN_VALUE, Integer.MAX_VALUE - 99}) {
+                RankedContainer c = Containers.bounded(lo, lo + 99);
+                for (int i = 0; i < 100; ++i) {
+                    c.add(lo + i);
+                    c.add(lo + i);
+                }
+                Assertions.assertEquals(lo + 49, c.getMedian());
+                Assertions.assertEquals(lo, c.getPercentile(0));
+                Assertions.assertEquals(lo + 99, c.getPercentile(100));
+            }
+        });
+    }
+    /**
+     * 1M random operations on [-5000, 5000] (a range that is not a whole number of blocks),
+     * checked against ContainerImpl after every operation
+     */
+    @Test
+    @Order(3)
+    public void test_03_randomAgainstGeneral() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            RankedContainer bounded = Containers.bounded(-5000, 5000);
+            RankedContainer general = Containers.general();
+            Random random = new Random(7);
+            for (int op = 0; op < 1_000_000; ++op) {
+                int value = (int) (random.nextGaussian() * 1500);
+                value = Math.max(-5000, Math.min(5000, value));
+                if (random.nextInt(3) > 0) {
+                    bounded.add(value);
+                    general.add(value);
+                } else {
+                    Assertions.assertEquals(general.delete(value), bounded.delete(value));
+                }
+                Assertions.assertEquals(general.size(), bounded.size());
+                if (general.size() > 0) {
+                    Assertions.assertEquals(general.getMedian(), bounded.getMedian());
+                    Assertions.assertEquals(general.getPercentile(99), bounded.getPercentile(99));
+                }
+            }
+        });
+    }
+    /**
+     * 50M latencies in [0, 1000) microseconds, memory stays one count per possible value
+     * Every value 50,000 times: median is the 24,999,999th value, 24,999,999 / 50,000 = 499
+     * p99 is the 49,500,000th value, 49,499,999 / 50,000 = 989
+     */
+    @Test
+    @Order(4)
+    public void test_04_manyValuesSmallRange() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            for (int i = 0; i < 50_000_000; ++i) {
+                container.add(i % 1000);
+            }
+            Assertions.assertEquals(50_000_000, container.size());
+            Assertions.assertEquals(499, container.getMedian());
+            Assertions.assertEquals(989, container.getPercentile(99));
+        });
+    }
+}
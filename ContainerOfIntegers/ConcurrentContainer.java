@@ -0,0 +1,147 @@
+package containersofintegers;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Thread-safe RankedContainer. Values are hash-partitioned over a power-of-two number of stripes,
+ * each an order-statistic ContainerImpl behind its own lock, so add and delete from different threads
+ * only contend when their values land on the same stripe. All copies of a value share a stripe, which
+ * keeps delete exact.
+ *
+ * Reads are linearizable, i.e. the staleness bound is zero: getMedian, getKth, getPercentile and size
+ * lock every stripe in index order, so they see exactly the writes that completed before them and none
+ * of the ones that started after. The k-th value across stripes is found by binary search over the int
+ * range on the summed countAtMost of the stripes, O(32 * stripes * log n). Writers wait only while a
+ * read holds their stripe.
+ */
+public class ConcurrentContainer implements RankedContainer {
+    private final ContainerImpl[] stripes;
+    private final ReentrantLock[] locks;
+
+    //four stripes per core keeps the chance of two writers colliding low
+    public ConcurrentContainer() {
+        this(4 * Runtime.getRuntime().availableProcessors());
+    }
+
+    public ConcurrentContainer(int stripeCount) {
+        if (stripeCount < 1) {
+            throw new IllegalArgumentException("stripeCount must be >= 1");
+        }
+        int n = 1;
+        while (n < stripeCount) n <<= 1;
+        stripes = new ContainerImpl[n];
+        locks = new ReentrantLock[n];
+        for (int i = 0; i < n; ++i) {
+            stripes[i] = new ContainerImpl();
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    private int stripe(int value) {
+        int h = value * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (stripes.length - 1);
+    }
+
+    @Override
+    public void add(int value) {
+        int i = stripe(value);
+        locks[i].lock();
+        try {
+            stripes[i].add(value);
+        } finally {
+            locks[i].unlock();
+        }
+    }
+
+    @Override
+    public boolean delete(int value) {
+        int i = stripe(value);
+        locks[i].lock();
+        try {
+            return stripes[i].delete(value);
+        } finally {
+            locks[i].unlock();
+        }
+    }
+
+    @Override
+    public int getMedian() {
+        lockAll();
+        try {
+            long size = totalSize();
+            if (size == 0) {
+                throw new RuntimeException("Container is empty");
+            }
+            return select((size - 1) / 2);
+        } finally {
+            unlockAll();
+        }
+    }
+
+    @Override
+    public int getKth(long k) {
+        lockAll();
+        try {
+            long size = totalSize();
+            if (k < 0 || k >= size) {
+                throw new IndexOutOfBoundsException("k = " + k + ", size = " + size);
+            }
+            return select(k);
+        } finally {
+            unlockAll();
+        }
+    }
+
+    @Override
+    public int getPercentile(double p) {
+        lockAll();
+        try {
+            long size = totalSize();
+            if (size == 0) {
+                throw new RuntimeException("Container is empty");
+            }
+            return select(ContainerImpl.nearestRank(p, size) - 1);
+        } finally {
+            unlockAll();
+        }
+    }
+
+    @Override
+    public long size() {
+        lockAll();
+        try {
+            return totalSize();
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /* ---------- under all locks ---------- */
+
+    //in index order, so two readers can never deadlock
+    private void lockAll() {
+        for (ReentrantLock lock : locks) lock.lock();
+    }
+
+    private void unlockAll() {
+        for (int i = locks.length - 1; i >= 0; --i) locks[i].unlock();
+    }
+
+    private long totalSize() {
+        long size = 0;
+        for (ContainerImpl s : stripes) size += s.size();
+        return size;
+    }
+
+    //select(k) - the smallest value with more than k values at or below it
+    private int select(long k) {
+        long lo = Integer.MIN_VALUE, hi = Integer.MAX_VALUE;
+        while (lo < hi) {
+            long mid = (lo + hi) >> 1;
+            long count = 0;
+            for (ContainerImpl s : stripes) count += s.countAtMost((int) mid);
+            if (count > k) hi = mid; else lo = mid + 1;
+        }
+        return (int) lo;
+    }
+}
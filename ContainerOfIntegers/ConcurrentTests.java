@@ -0,0 +1,151 @@
+package containersofintegers;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.*;
+/**
+ * ConcurrentContainer under several writer threads.
+ * Reads are documented as linearizable (staleness 0), so every median seen
+ * while writers run must be the median of some state the writers actually passed through.
+ */
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class ConcurrentTests {
+    private static final int THREADS = 8;
+    private ConcurrentContainer container;
+    @BeforeEach
+    public void setUp() {
+        container = new ConcurrentContainer(16);
+    }
+    /**
+     * Same contract as ContainerTests on a single thread:
+     * Add 3, 30, 30, 15 -> median 15, delete 30 -> 15, delete 30 -> 3, delete 20 fails
+     */
+    @Test
+    @Order(1)
+    public void test_01_singleThread() {
+        Assertions.assertTimeoutPreemptively(Duration.ofMillis(100), () -> {
+            Assertions.assertThrows(
+                    RuntimeException.class,
+                    () -> container.getMedian()
+            );
+            container.add(3);
+            container.add(30);
+            container.add(30);
+            container.add(15);
+            Assertions.assertEquals(15, container.getMedian());
+            Assertions.assertTrue(container.delete(30));
+            Assertions.assertEquals(15, container.getMedian());
+            Assertions.assertTrue(container.delete(30));
+            Assertions.assertEquals(3, container.getMedian());
+            Assertions.assertFalse(container.delete(20));
+            Assertions.assertEquals(2, container.size());
+            Assertions.assertEquals(15, container.getPercentile(100));
+        });
+    }
+    /**
+     * THREADS writers add disjoint slices of [0, 1,000,000), then delete the odd values
+     * Median of [0, ..., 999,999] is 499,999
+     * Median of the even values [0, 2, ..., 999,998] is 499,998
+     */
+    @Test
+    @Order(2)
+    public void test_02_parallelWriters() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            int n = 1_000_000;
+            runWriters(t -> {
+                for (int v = t; v < n; v += THREADS) {
+                    container.add(v);
+                }
+            });
+            Assertions.assertEquals(n, container.size());
+            Assertions.assertEquals(499_999, container.getMedian());
+            runWriters(t -> {
+                for (int v = t; v < n; v += THREADS) {
+                    if (v % 2 == 1 && !container.delete(v)) {
+                        throw new AssertionError("lost " + v);
+                    }
+                }
+            });
+            Assertions.assertEquals(n / 2, container.size());
+            Assertions.assertEquals(499_998, container.getMedian());
+        });
+    }
+    /**
+     * Base of [0, ..., 999], every writer repeatedly adds and deletes its own value above the base.
+     * At any moment the container is the base plus j of those values, 0 <= j <= THREADS,
+     * so a consistent read sees a size in [1000, 1000 + THREADS], a median in [499, 499 + THREADS / 2]
+     * and 999 as the 999th value. A reader checks all three while the writers run.
+     */
+    @Test
+    @Order(3)
+    public void test_03_readsDuringWrites() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            for (int v = 0; v < 1000; ++v) {
+                container.add(v);
+            }
+            AtomicBoolean done = new AtomicBoolean();
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            Thread reader = new Thread(() -> {
+                try {
+                    while (!done.get()) {
+                        int median = container.getMedian();
+                        Assertions.assertTrue(median >= 499 && median <= 499 + THREADS / 2, "median " + median);
+                        long size = container.size();
+                        Assertions.assertTrue(size >= 1000 && size <= 1000 + THREADS, "size " + size);
+                        Assertions.assertEquals(999, container.getKth(999));
+                    }
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            });
+            reader.start();
+            runWriters(t -> {
+                for (int i = 0; i < 100_000; ++i) {
+                    container.add(1_000_000 + t);
+                    if (!container.delete(1_000_000 + t)) {
+                        throw new AssertionError("lost " + (1_000_000 + t));
+                    }
+                }
+            });
+            done.set(true);
+            reader.join();
+            Assertions.assertNull(failure.get());
+            Assertions.assertEquals(1000, container.size());
+            Assertions.assertEquals(499, container.getMedian());
+        });
+    }
+
+    private interface Writer {
+        void run(int thread);
+    }
+
+    private static void runWriters(Writer writer) throws Throwable {
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; ++t) {
+            int id = t;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    writer.run(id);
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package containersofintegers;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * JMH suite comparing Container implementations on the same workloads.
+ *
+ * Every invocation runs one precomputed script of SCRIPT operations against a container freshly
+ * preloaded with `size` values, so implementations see identical inputs and the state does not drift
+ * between iterations. Single-shot mode times the whole script; divide by SCRIPT for the cost per
+ * operation at that size. The script is the same length at every size, so the preload, not the
+ * measurement, is what grows with `size`; values are a function of their index, so nothing of size
+ * `size` is kept besides the container itself.
+ *
+ * One fork, 2 warmup and 5 measured iterations. The preload dominates a cell: at 10^7 values it is
+ * about 20 s per iteration for general and concurrent, 1-2 s for bounded and approximate.
+ *
+ * main() runs the plan below with the GC profiler (allocation rate and bytes per operation):
+ *   - general, bounded and approximate: every mix and distribution at 10^6 and 10^7 values;
+ *   - concurrent: ADD_HEAVY and DELETE_HEAVY only. Its median locks and searches every stripe, 4 per
+ *     core, so MEDIAN_HEAVY costs 10-20 us per operation on one core and grows with the core count:
+ *     tens of minutes per iteration on a large box. Run it by hand with -p if needed;
+ *   - 10^8 random values for general, bounded and approximate (1 warmup, 3 measured), the largest
+ *     size the exact structures fit in a 6 GB fork;
+ *   - 10^9 values only where memory does not grow with the count: approximate over random values and
+ *     bounded over the duplicate-heavy domain. general and concurrent would need ~20 GB of nodes (and
+ *     the general node array tops out near 4 * 10^8 distinct values), and bounded over 2 * 10^9
+ *     distinct values an 8 GB count array.
+ * From the command line the annotated parameters are the full 10^6 / 10^7 cross product; narrow it
+ * with e.g. -p implementation=general,bounded -p mix=ADD_HEAVY -prof gc.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, batchSize = 1)
+@Measurement(iterations = 5, batchSize = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms6g", "-Xmx6g"})
+@State(Scope.Thread)
+public class ContainerBenchmark {
+    /**
+     * The share of each operation in a script. Deletes always target values that are present:
+     * distinct preloaded values, picked by a stride through the preload.
+     */
+    public enum Mix {
+        ADD_HEAVY(80, 10), DELETE_HEAVY(10, 80), MEDIAN_HEAVY(10, 10);
+
+        final int addPercent, deletePercent;
+
+        Mix(int addPercent, int deletePercent) {
+            this.addPercent = addPercent;
+            this.deletePercent = deletePercent;
+        }
+    }
+
+    /**
+     * The order and spread of the values fed to the container, preload and adds alike.
+     */
+    public enum Distribution {
+        RANDOM, SORTED, REVERSE, DUPLICATES;
+
+        //value(i, n) - the i-th value of a stream of n, all in [0, bound(n))
+        int value(long i, int n) {
+            switch (this) {
+                case SORTED: return (int) i;
+                case REVERSE: return (int) (n - 1 - i);
+                case DUPLICATES: return (int) Long.remainderUnsigned(mix(i), DISTINCT_DUPLICATES);
+                default: return (int) Long.remainderUnsigned(mix(i), n);
+            }
+        }
+
+        int bound(int n) {
+            return this == DUPLICATES ? DISTINCT_DUPLICATES : n;
+        }
+    }
+
+    static final int SCRIPT = 1_000_000;
+    private static final int DISTINCT_DUPLICATES = 1000;
+    private static final byte ADD = 0, DELETE = 1, MEDIAN = 2;
+
+    @Param({"general", "bounded", "concurrent", "approximate"})
+    public String implementation;
+
+    @Param({"ADD_HEAVY", "DELETE_HEAVY", "MEDIAN_HEAVY"})
+    public Mix mix;
+
+    @Param({"RANDOM", "SORTED", "REVERSE", "DUPLICATES"})
+    public Distribution distribution;
+
+    @Param({"1000000", "10000000"})
+    public int size;
+
+    private byte[] ops;
+    private int[] args;
+    private Container container;
+
+    @Setup(Level.Trial)
+    public void buildScript() {
+        if (size < SCRIPT || size > 1_000_000_000) {
+            throw new IllegalArgumentException("size must be in [" + SCRIPT + ", 10^9]: " + size);
+        }
+        //preload and adds together form one stream of 2 * size values, so SORTED keeps ascending through the adds
+        int stream = 2 * size;
+        long stride = coprimeStride(size);
+        SplittableRandom random = new SplittableRandom(42);
+        ops = new byte[SCRIPT];
+        args = new int[SCRIPT];
+        long added = size, deleted = 0;
+        for (int i = 0; i < SCRIPT; ++i) {
+            int roll = random.nextInt(100);
+            if (roll < mix.addPercent) {
+                ops[i] = ADD;
+                args[i] = distribution.value(added++, stream);
+            } else if (roll < mix.addPercent + mix.deletePercent) {
+                ops[i] = DELETE;
+                args[i] = distribution.value(deleted++ * stride % size, stream);
+            } else {
+                ops[i] = MEDIAN;
+            }
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void preload() {
+        int stream = 2 * size;
+        container = create(implementation, distribution.bound(stream));
+        for (long i = 0; i < size; ++i) {
+            container.add(distribution.value(i, stream));
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void release() {
+        container = null;
+    }
+
+    static Container create(String implementation, int bound) {
+        switch (implementation) {
+            case "general": return Containers.general();
+            case "bounded": return Containers.bounded(0, bound - 1);
+            case "concurrent": return Containers.concurrent();
+            case "approximate": return Containers.approximate(0.001);
+            default: throw new IllegalArgumentException("unknown implementation " + implementation);
+        }
+    }
+
+    //splitmix64 finalizer: a fixed pseudo-random value per index, so any element of the stream can be recomputed
+    private static long mix(long i) {
+        long z = (i + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    //a stride near size / golden ratio sharing no factor with size: d * stride % size for d < size visits
+    //distinct, well spread preload indices
+    private static long coprimeStride(long size) {
+        long stride = (long) (size * 0.6180339887) | 1;
+        while (gcd(stride, size) != 1) stride += 2;
+        return stride;
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    @Benchmark
+    public long script() {
+        Container c = container;
+        long sink = 0;
+        for (int i = 0; i < ops.length; ++i) {
+            switch (ops[i]) {
+                case ADD:
+                    c.add(args[i]);
+                    break;
+                case DELETE:
+                    sink += c.delete(args[i]) ? 1 : 0;
+                    break;
+                default:
+                    sink += c.getMedian();
+            }
+        }
+        return sink;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        String mixes = "ADD_HEAVY,DELETE_HEAVY,MEDIAN_HEAVY", distributions = "RANDOM,SORTED,REVERSE,DUPLICATES";
+        run("general,bounded,approximate", mixes, distributions, "1000000,10000000", 2, 5);
+        run("concurrent", "ADD_HEAVY,DELETE_HEAVY", distributions, "1000000,10000000", 2, 5);
+        run("general,bounded,approximate", mixes, "RANDOM", "100000000", 1, 3);
+        run("approximate", mixes, "RANDOM", "1000000000", 1, 3);
+        run("bounded", mixes, "DUPLICATES", "1000000000", 1, 3);
+    }
+
+    private static void run(String implementations, String mixes, String distributions, String sizes,
+                            int warmups, int measurements) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ContainerBenchmark.class.getSimpleName())
+                .param("implementation", implementations.split(","))
+                .param("mix", mixes.split(","))
+                .param("distribution", distributions.split(","))
+                .param("size", sizes.split(","))
+                .warmupIterations(warmups)
+                .measurementIterations(measurements)
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,245 @@
+package containersofintegers;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Arrays;
+
+/**
+ * Order-statistic treap keyed on value, one node per distinct value with a multiplicity count.
+ * Every node also keeps the number of values in its subtree, so the k-th smallest value is found
+ * in one walk from the root. add, delete, getMedian, getKth and getPercentile are O(log n) expected.
+ *
+ * Nodes are packed into one int array, five ints (20 bytes) per distinct value and no object per node,
+ * so a step down the tree usually costs one cache miss. A node is addressed by the offset of its first
+ * slot; offset 0 is the empty tree, whose size slot stays 0. Freed nodes are chained through their
+ * left slot and reused. The heap priority of a node is a hash of its offset, so it does not need a slot.
+ */
+public class ContainerImpl implements RankedContainer {
+    private static final int NIL = 0;
+    //slots of a node
+    private static final int KEY = 0, COUNT = 1, SIZE = 2, LEFT = 3, RIGHT = 4, WIDTH = 5;
+
+    private int[] tree = new int[16 * WIDTH];
+    private int end = WIDTH;    // first never-used offset, the NIL node sits before it
+    private int free = NIL;     // head of the freed node list
+    private int root = NIL;
+
+    @Override
+    public void add(int value) {
+        if (tree[root + SIZE] == Integer.MAX_VALUE) {
+            throw new IllegalStateException("Container is full");
+        }
+        root = insert(root, value);
+    }
+
+    @Override
+    public boolean delete(int value) {
+        if (!contains(value)) return false;
+        root = erase(root, value);
+        return true;
+    }
+
+    @Override
+    public int getMedian() {
+        if (root == NIL) {
+            throw new RuntimeException("Container is empty");
+        }
+        //the leftmost of the two middle values when the size is even
+        return kth((tree[root + SIZE] - 1) / 2);
+    }
+
+    @Override
+    public int getKth(long k) {
+        if (k < 0 || k >= size()) {
+            throw new IndexOutOfBoundsException("k = " + k + ", size = " + size());
+        }
+        return kth((int) k);
+    }
+
+    @Override
+    public int getPercentile(double p) {
+        if (root == NIL) {
+            throw new RuntimeException("Container is empty");
+        }
+        return kth((int) (nearestRank(p, size()) - 1));
+    }
+
+    @Override
+    public long size() {
+        return tree[root + SIZE];
+    }
+
+    //nearestRank - ceil(p / 100 * n), at least 1. Computed on the decimal value of p, so 99.9 of 1000 is 999
+    //and not 1000 because 99.9 has no exact double.
+    static long nearestRank(double p, long n) {
+        if (!(p >= 0 && p <= 100)) {
+            throw new IllegalArgumentException("percentile must be in [0, 100]: " + p);
+        }
+        long rank = BigDecimal.valueOf(p).multiply(BigDecimal.valueOf(n))
+                .divide(BigDecimal.valueOf(100), 0, RoundingMode.CEILING).longValueExact();
+        return Math.max(rank, 1);
+    }
+
+    //kth - the k-th smallest value, 0-based, duplicates counted
+    private int kth(int k) {
+        int[] tree = this.tree;
+        int t = root;
+        while (true) {
+            int l = tree[tree[t + LEFT] + SIZE];
+            if (k < l) {
+                t = tree[t + LEFT];
+            } else if (k < l + tree[t + COUNT]) {
+                return tree[t + KEY];
+            } else {
+                k -= l + tree[t + COUNT];
+                t = tree[t + RIGHT];
+            }
+        }
+    }
+
+    //countAtMost - how many values are <= value
+    long countAtMost(int value) {
+        int[] tree = this.tree;
+        long count = 0;
+        int t = root;
+        while (t != NIL) {
+            if (value < tree[t + KEY]) {
+                t = tree[t + LEFT];
+            } else {
+                count += tree[tree[t + LEFT] + SIZE] + tree[t + COUNT];
+                t = tree[t + RIGHT];
+            }
+        }
+        return count;
+    }
+
+    private boolean contains(int value) {
+        int[] tree = this.tree;
+        int t = root;
+        while (t != NIL && tree[t + KEY] != value) {
+            t = value < tree[t + KEY] ? tree[t + LEFT] : tree[t + RIGHT];
+        }
+        return t != NIL;
+    }
+
+    /* ---------- treap ---------- */
+
+    //murmur3 finalizer: offsets are handed out in insertion order, which is often correlated with the keys,
+    //so a weak mix here would give sorted input a deep tree
+    private static int priority(int node) {
+        int h = node;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        return h ^ (h >>> 16);
+    }
+
+    //children are assigned through locals: newNode may replace the array, and tree[...] = insert(...)
+    //would store into the one that was current before the call.
+    //Sizes are counted on the way back up, once the value has a place: newNode can throw (the array cannot
+    //grow), and the path must then be left as it was.
+    private int insert(int t, int value) {
+        if (t == NIL) return newNode(value);
+        int key = tree[t + KEY];
+        if (value == key) {
+            tree[t + COUNT]++;
+            tree[t + SIZE]++;
+        } else if (value < key) {
+            int l = insert(tree[t + LEFT], value);
+            tree[t + LEFT] = l;
+            tree[t + SIZE]++;
+            if (priority(l) > priority(t)) t = rotateRight(t);
+        } else {
+            int r = insert(tree[t + RIGHT], value);
+            tree[t + RIGHT] = r;
+            tree[t + SIZE]++;
+            if (priority(r) > priority(t)) t = rotateLeft(t);
+        }
+        return t;
+    }
+
+    //value must be present
+    private int erase(int t, int value) {
+        tree[t + SIZE]--;
+        int key = tree[t + KEY];
+        if (value < key) {
+            tree[t + LEFT] = erase(tree[t + LEFT], value);
+        } else if (value > key) {
+            tree[t + RIGHT] = erase(tree[t + RIGHT], value);
+        } else if (--tree[t + COUNT] == 0) {
+            int merged = merge(tree[t + LEFT], tree[t + RIGHT]);
+            release(t);
+            return merged;
+        }
+        return t;
+    }
+
+    //joins two treaps where every key of a is below every key of b
+    private int merge(int a, int b) {
+        if (a == NIL) return b;
+        if (b == NIL) return a;
+        if (priority(a) > priority(b)) {
+            tree[a + RIGHT] = merge(tree[a + RIGHT], b);
+            update(a);
+            return a;
+        }
+        tree[b + LEFT] = merge(a, tree[b + LEFT]);
+        update(b);
+        return b;
+    }
+
+    private int rotateRight(int t) {
+        int l = tree[t + LEFT];
+        tree[t + LEFT] = tree[l + RIGHT];
+        tree[l + RIGHT] = t;
+        update(t);
+        update(l);
+        return l;
+    }
+
+    private int rotateLeft(int t) {
+        int r = tree[t + RIGHT];
+        tree[t + RIGHT] = tree[r + LEFT];
+        tree[r + LEFT] = t;
+        update(t);
+        update(r);
+        return r;
+    }
+
+    private void update(int t) {
+        tree[t + SIZE] = tree[tree[t + LEFT] + SIZE] + tree[t + COUNT] + tree[tree[t + RIGHT] + SIZE];
+    }
+
+    /* ---------- node storage ---------- */
+
+    private int newNode(int value) {
+        int t;
+        if (free != NIL) {
+            t = free;
+            free = tree[t + LEFT];
+        } else {
+            if (end == tree.length) grow();
+            t = end;
+            end += WIDTH;
+        }
+        tree[t + KEY] = value;
+        tree[t + COUNT] = 1;
+        tree[t + SIZE] = 1;
+        tree[t + LEFT] = NIL;
+        tree[t + RIGHT] = NIL;
+        return t;
+    }
+
+    private void release(int t) {
+        tree[t + LEFT] = free;
+        free = t;
+    }
+
+    private void grow() {
+        long capacity = (long) tree.length + (tree.length >> 1) / WIDTH * WIDTH;
+        if (capacity > Integer.MAX_VALUE - 8) capacity = (Integer.MAX_VALUE - 8) / WIDTH * WIDTH;
+        if (capacity == tree.length) throw new IllegalStateException("Container is full");
+        tree = Arrays.copyOf(tree, (int) capacity);
+    }
+}
@@ -0,0 +1,41 @@
+package containersofintegers;
+
+/**
+ * Picks a Container implementation for a workload.
+ */
+public final class Containers {
+    private Containers() {
+    }
+
+    /**
+     * Exact, any int values, memory proportional to the number of distinct values.
+     */
+    public static RankedContainer general() {
+        return new ContainerImpl();
+    }
+
+    /**
+     * Exact, values restricted to [min, max], memory proportional to the width of the range
+     * and independent of the number of values. The better choice when the range is at most
+     * a few times larger than the number of distinct values expected.
+     */
+    public static RankedContainer bounded(int min, int max) {
+        return new BoundedRangeContainer(min, max);
+    }
+
+    /**
+     * Exact and safe for many threads, see ConcurrentContainer for the locking and read guarantees.
+     */
+    public static RankedContainer concurrent() {
+        return new ConcurrentContainer();
+    }
+
+    /**
+     * Approximate, memory about 3 / epsilon ints whatever the number of values.
+     * Ranks are off by at most epsilon * (adds + deletes) with high probability,
+     * see ApproximateContainer for how deletes are handled.
+     */
+    public static RankedContainer approximate(double epsilon) {
+        return new ApproximateContainer(epsilon);
+    }
+}
@@ -0,0 +1,34 @@
+package containersofintegers;
+
+/**
+ * A container of integers that can also answer rank and
+ * percentile queries, e.g. p90/p99/p99.9 over a set of values
+ * that still supports deletion
+ */
+public interface RankedContainer extends Container {
+    /**
+     * Finds the k-th smallest integer, counting from 0 and
+     * counting every copy of a repeated integer.
+     * getKth((size - 1) / 2) is the median.
+     *
+     * @param k
+     * @return the k-th smallest integer, or
+     * @throws IndexOutOfBoundsException if k is negative or not below the size.
+     */
+    int getKth(long k);
+    /**
+     * Finds the p-th percentile by the nearest-rank method: the smallest
+     * integer such that at least p percent of all integers are less or equal to it.
+     * getPercentile(50) is the median, getPercentile(100) the maximum and
+     * getPercentile(0) the minimum.
+     *
+     * @param p a percentage in [0, 100], fractions such as 99.9 allowed
+     * @return the percentile if the container is not empty, or
+     * @throws a runtime exception, otherwise.
+     */
+    int getPercentile(double p);
+    /**
+     * @return the number of integers in the container, repeats included
+     */
+    long size();
+}
@@ -0,0 +1,138 @@
+package containersofintegers;
+
+import java.time.Duration;
+import java.util.Arrays;
+import org.junit.jupiter.api.*;
+/**
+ * getKth and getPercentile of RankedContainer.
+ * Percentiles use the nearest rank: the ceil(p / 100 * size)-th smallest value.
+ */
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class RankedTests {
+    private RankedContainer container;
+    @BeforeEach
+    public void setUp() {
+        container = new ContainerImpl();
+    }
+    /**
+     * Add 50, 10, 40, 20, 30, 30 -> [10, 20, 30, 30, 40, 50]
+     * getKth 0..5 is 10, 20, 30, 30, 40, 50
+     * getKth -1 and 6 are out of bounds
+     * Delete 30 -> [10, 20, 30, 40, 50]
+     * getKth 2 is 30, getKth 3 is 40
+     */
+    @Test
+    @Order(1)
+    public void test_01_kth() {
+        Assertions.assertTimeoutPreemptively(Duration.ofMillis(100), () -> {
+            Assertions.assertThrows(
+                    IndexOutOfBoundsException.class,
+                    () -> container.getKth(0)
+            );
+            for (int v : new int[]{50, 10, 40, 20, 30, 30}) {
+                container.add(v);
+            }
+            int[] sorted = {10, 20, 30, 30, 40, 50};
+            for (int k = 0; k < sorted.length; ++k) {
+                Assertions.assertEquals(sorted[k], container.getKth(k));
+            }
+            Assertions.assertThrows(
+                    IndexOutOfBoundsException.class,
+                    () -> container.getKth(-1)
+            );
+            Assertions.assertThrows(
+                    IndexOutOfBoundsException.class,
+                    () -> container.getKth(6)
+            );
+            Assertions.assertTrue(container.delete(30));
+            Assertions.assertEquals(5, container.size());
+            Assertions.assertEquals(30, container.getKth(2));
+            Assertions.assertEquals(40, container.getKth(3));
+        });
+    }
+    /**
+     * Add 1, 2, ..., 1000
+     * p0 is 1, p50 is 500, p90 is 900, p99 is 990, p99.9 is 999, p100 is 1000
+     * p0.05 is 1: ceil(0.5) = 1
+     * Percentiles outside [0, 100] are rejected
+     */
+    @Test
+    @Order(2)
+    public void test_02_percentiles() {
+        Assertions.assertTimeoutPreemptively(Duration.ofMillis(100), () -> {
+            Assertions.assertThrows(
+                    RuntimeException.class,
+                    () -> container.getPercentile(50)
+            );
+            for (int i = 1000; i >= 1; --i) {
+                container.add(i);
+            }
+            Assertions.assertEquals(1, container.getPercentile(0));
+            Assertions.assertEquals(1, container.getPercentile(0.05));
+            Assertions.assertEquals(500, container.getPercentile(50));
+            Assertions.assertEquals(900, container.getPercentile(90));
+            Assertions.assertEquals(990, container.getPercentile(99));
+            Assertions.assertEquals(999, container.getPercentile(99.9));
+            Assertions.assertEquals(1000, container.getPercentile(100));
+            Assertions.assertThrows(
+                    IllegalArgumentException.class,
+                    () -> container.getPercentile(100.5)
+            );
+            Assertions.assertThrows(
+                    IllegalArgumentException.class,
+                    () -> container.getPercentile(-1)
+            );
+            Assertions.assertThrows(
+                    IllegalArgumentException.class,
+                    () -> container.getPercentile(Double.NaN)
+            );
+        });
+    }
+    /**
+     * p50 is the median for every size from 1 to 200
+     * Add 200 values with repeats, then delete them one by one,
+     * checking p50 against getMedian after every step
+     */
+    @Test
+    @Order(3)
+    public void test_03_p50IsMedian() {
+        Assertions.assertTimeoutPreemptively(Duration.ofMillis(100), () -> {
+            for (int i = 0; i < 200; ++i) {
+                container.add(i * 37 % 101);
+                Assertions.assertEquals(container.getMedian(), container.getPercentile(50));
+            }
+            for (int i = 0; i < 199; ++i) {
+                Assertions.assertTrue(container.delete(i * 37 % 101));
+                Assertions.assertEquals(container.getMedian(), container.getPercentile(50));
+            }
+        });
+    }
+    /**
+     * A sliding window of 10,000 latencies over 200,000 samples:
+     * add the newest, delete the one that fell out, check p99
+     * against the window sorted by hand every 10,000 samples
+     */
+    @Test
+    @Order(4)
+    public void test_04_slidingWindow() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            int window = 10_000;
+            int[] samples = new int[200_000];
+            for (int i = 0; i < samples.length; ++i) {
+                samples[i] = (int) ((i * 2654435761L) % 50_000);
+            }
+            for (int i = 0; i < samples.length; ++i) {
+                container.add(samples[i]);
+                if (i >= window) {
+                    Assertions.assertTrue(container.delete(samples[i - window]));
+                }
+                if (i >= window && i % window == 0) {
+                    int[] sorted = Arrays.copyOfRange(samples, i - window + 1, i + 1);
+                    Arrays.sort(sorted);
+                    Assertions.assertEquals(sorted[9899], container.getPercentile(99));
+                    Assertions.assertEquals(sorted[9989], container.getPercentile(99.9));
+                }
+            }
+        });
+    }
+}
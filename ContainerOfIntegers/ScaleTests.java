@@ -0,0 +1,127 @@
+package containersofintegers;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.*;
+/**
+ * Millions of operations, well past what ContainerTests exercise.
+ * The inputs are built so the expected median is known in closed form,
+ * except for the last test, which checks random operations against a sorted array.
+ * The timeouts are loose: they catch an O(n) median, not small slowdowns.
+ */
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class ScaleTests {
+    private static final int N = 5_000_000;
+    private Container container;
+    @BeforeEach
+    public void setUp() {
+        container = new ContainerImpl();
+    }
+    /**
+     * Add 0, 1, ..., N - 1 in ascending order, the worst case for an unbalanced tree
+     * Median of [0, ..., N - 1] is (N - 1) / 2
+     * Delete 0, 1, 2, ... -> [i + 1, ..., N - 1], median is i + 1 + (N - i - 2) / 2
+     */
+    @Test
+    @Order(1)
+    public void test_01_ascendingAddsAndDeletes() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(60), () -> {
+            for (int i = 0; i < N; ++i) {
+                container.add(i);
+            }
+            Assertions.assertEquals((N - 1) / 2, container.getMedian());
+            for (int i = 0; i < N - 1; ++i) {
+                Assertions.assertTrue(container.delete(i));
+                if (i % 1000 == 0) {
+                    Assertions.assertEquals(i + 1 + (N - i - 2) / 2, container.getMedian());
+                }
+            }
+            Assertions.assertEquals(N - 1, container.getMedian());
+        });
+    }
+    /**
+     * Add a permutation of [0, ..., N - 1]
+     * Median of [0, ..., N - 1] is (N - 1) / 2
+     * Delete every even value -> [1, 3, ..., N - 1]
+     * Median of the N / 2 odd values is 2 * ((N / 2 - 1) / 2) + 1
+     */
+    @Test
+    @Order(2)
+    public void test_02_permutation() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(60), () -> {
+            for (int i = 0; i < N; ++i) {
+                container.add(permuted(i));
+            }
+            Assertions.assertEquals((N - 1) / 2, container.getMedian());
+            for (int i = 0; i < N; i += 2) {
+                Assertions.assertTrue(container.delete(i));
+                Assertions.assertFalse(container.delete(i));
+            }
+            Assertions.assertEquals(2 * ((N / 2 - 1) / 2) + 1, container.getMedian());
+        });
+    }
+    /**
+     * Add 0, 1, ..., 999 twenty thousand times each -> 20M values, 1000 distinct
+     * Median is the 9,999,999-th value, 9,999,999 / 20,000 = 499
+     * Delete every copy of 0, ..., 249 -> 15M values
+     * Median is the 7,499,999-th value, 250 + 7,499,999 / 20,000 = 624
+     */
+    @Test
+    @Order(3)
+    public void test_03_heavyDuplicates() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(60), () -> {
+            for (int i = 0; i < 20_000_000; ++i) {
+                container.add(i % 1000);
+            }
+            Assertions.assertEquals(499, container.getMedian());
+            for (int v = 0; v < 250; ++v) {
+                for (int c = 0; c < 20_000; ++c) {
+                    Assertions.assertTrue(container.delete(v));
+                }
+                Assertions.assertFalse(container.delete(v));
+            }
+            Assertions.assertEquals(624, container.getMedian());
+        });
+    }
+    /**
+     * 2M random adds, deletes and medians over a small value range, so deletes often hit,
+     * checked against a sorted array of up to 4096 values
+     */
+    @Test
+    @Order(4)
+    public void test_04_randomAgainstSortedArray() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(60), () -> {
+            Random random = new Random(42);
+            int[] sorted = new int[4096];
+            int size = 0;
+            for (int op = 0; op < 2_000_000; ++op) {
+                int value = random.nextInt(2000) - 1000;
+                int at = Arrays.binarySearch(sorted, 0, size, value);
+                if (random.nextBoolean() && size < sorted.length) {
+                    int pos = at >= 0 ? at : -at - 1;
+                    System.arraycopy(sorted, pos, sorted, pos + 1, size - pos);
+                    sorted[pos] = value;
+                    size++;
+                    container.add(value);
+                } else {
+                    Assertions.assertEquals(at >= 0, container.delete(value));
+                    if (at >= 0) {
+                        System.arraycopy(sorted, at + 1, sorted, at, size - at - 1);
+                        size--;
+                    }
+                }
+                if (size == 0) {
+                    Assertions.assertThrows(RuntimeException.class, () -> container.getMedian());
+                } else {
+                    Assertions.assertEquals(sorted[(size - 1) / 2], container.getMedian());
+                }
+            }
+        });
+    }
+
+    //a permutation of [0, N): 7919 is prime and does not divide N
+    private static int permuted(int i) {
+        return (int) ((long) i * 7919 % N);
+    }
+}
@@ -0,0 +1,255 @@
+package inmemorydb;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.*;
+/**
+ * Durable InMemoryDB: what open() rebuilds from the snapshot and log must be the db that was closed,
+ * or, after a crash, the db as of some earlier log record.
+ * A db is compared by its state: scanAllByPrefixAt("", ts) at a spread of timestamps.
+ */
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class DurabilityTests {
+    private static final int KEYS = 20;
+    private static final int THREADS = 8;
+    private Path dir;
+    @BeforeEach
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("inmemorydb-durability");
+    }
+    @AfterEach
+    public void tearDown() throws IOException {
+        delete(dir);
+    }
+    /**
+     * Random sets, TTL sets, deletes, tombstones and transactions with a checkpoint halfway;
+     * close, reopen -> same state, in either storage mode, and again after more writes
+     */
+    @Test
+    @Order(1)
+    public void test_01_reopen() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            Random random = new Random(1);
+            String before;
+            try (InMemoryDB db = InMemoryDB.open(dir, Integer.MAX_VALUE, 0, 0)) {
+                for (int ts = 1; ts <= 2000; ++ts) {
+                    randomOp(db, random, ts);
+                    if (ts == 1000) db.checkpoint();
+                }
+                before = state(db);
+            }
+            try (InMemoryDB db = InMemoryDB.open(dir, Integer.MAX_VALUE, 0, 0, InMemoryDB.Storage.COMPACT)) {
+                Assertions.assertEquals(before, state(db));
+                for (int ts = 2001; ts <= 2500; ++ts) {
+                    randomOp(db, random, ts);
+                }
+                before = state(db);
+            }
+            try (InMemoryDB db = InMemoryDB.open(dir, Integer.MAX_VALUE, 0, 0)) {
+                Assertions.assertEquals(before, state(db));
+            }
+        });
+    }
+    /**
+     * THREADS threads write while another thread checkpoints in a loop,
+     * so snapshots are taken in the middle of writes; the reopened db must match exactly
+     */
+    @Test
+    @Order(2)
+    public void test_02_checkpointsDuringWrites() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(60), () -> {
+            String before;
+            try (InMemoryDB db = InMemoryDB.open(dir, Integer.MAX_VALUE, 0, 0)) {
+                AtomicBoolean done = new AtomicBoolean();
+                AtomicReference<Throwable> failure = new AtomicReference<>();
+                Thread checkpointer = new Thread(() -> {
+                    try {
+                        while (!done.get()) {
+                            db.checkpoint();
+                        }
+                    } catch (Throwable e) {
+                        failure.set(e);
+                    }
+                });
+                checkpointer.start();
+                CountDownLatch start = new CountDownLatch(1);
+                List<Thread> threads = new ArrayList<>();
+                for (int t = 0; t < THREADS; ++t) {
+                    int seed = t;
+                    Thread thread = new Thread(() -> {
+                        try {
+                            start.await();
+                            Random random = new Random(seed);
+                            for (int ts = 1; ts <= 2000; ++ts) {
+                                randomOp(db, random, ts);
+                            }
+                        } catch (Throwable e) {
+                            failure.set(e);
+                        }
+                    });
+                    thread.start();
+                    threads.add(thread);
+                }
+                start.countDown();
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+                done.set(true);
+                checkpointer.join();
+                Assertions.assertNull(failure.get());
+                before = state(db);
+            }
+            try (InMemoryDB db = InMemoryDB.open(dir, Integer.MAX_VALUE, 0, 0)) {
+                Assertions.assertEquals(before, state(db));
+            }
+        });
+    }
+    /**
+     * Crash injection: one thread writes after a checkpoint and the state after every write is kept
+     * (every write is one log record). The newest segment is then cut at random offsets, as a crash in the
+     * middle of a write would leave it. Each cut must reopen as the state after some write, never an
+     * earlier one for a longer file, and the uncut log as the final state.
+     */
+    @Test
+    @Order(3)
+    public void test_03_tornTail() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(60), () -> {
+            Random random = new Random(3);
+            List<String> states = new ArrayList<>();
+            try (InMemoryDB db = InMemoryDB.open(dir, Integer.MAX_VALUE, 0, 0)) {
+                for (int ts = 1; ts <= 1000; ++ts) {
+                    if (ts == 300) db.checkpoint();
+                    if (ts >= 300) states.add(state(db));
+                    randomOp(db, random, ts);
+                }
+                states.add(state(db));
+            }
+            List<Long> segments = WriteAheadLog.segments(dir);
+            Path last = WriteAheadLog.segmentPath(dir, segments.get(segments.size() - 1));
+            long size = Files.size(last);
+            List<Long> cuts = new ArrayList<>(List.of(0L, size));
+            for (int i = 0; i < 40; ++i) {
+                cuts.add((long) random.nextInt((int) size));
+            }
+            cuts.sort(null);
+            int lastMatch = 0;
+            for (long cut : cuts) {
+                Path copy = Files.createTempDirectory("inmemorydb-crash");
+                try {
+                    try (Stream<Path> files = Files.list(dir)) {
+                        for (Path f : (Iterable<Path>) files::iterator) {
+                            Files.copy(f, copy.resolve(f.getFileName()));
+                        }
+                    }
+                    try (FileChannel ch = FileChannel.open(copy.resolve(last.getFileName()), StandardOpenOption.WRITE)) {
+                        ch.truncate(cut);
+                    }
+                    try (InMemoryDB db = InMemoryDB.open(copy, Integer.MAX_VALUE, 0, 0)) {
+                        int match = states.subList(lastMatch, states.size()).indexOf(state(db));
+                        Assertions.assertTrue(match >= 0, "cut at " + cut + " of " + size + " matches no state at or after the last cut");
+                        lastMatch += match;
+                    }
+                } finally {
+                    delete(copy);
+                }
+            }
+            Assertions.assertEquals(states.get(states.size() - 1), states.get(lastMatch));
+        });
+    }
+    /**
+     * TTL'd fields that came back from a snapshot are still purged once time moves past them:
+     * no retention, token expires at 105, snapshot, reopen, a write at 110 -> token is gone even at 103.
+     * Once per storage mode
+     */
+    @Test
+    @Order(4)
+    public void test_04_expiryAfterSnapshotRecovery() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            for (InMemoryDB.Storage storage : InMemoryDB.Storage.values()) {
+                Path d = dir.resolve(storage.name());
+                try (InMemoryDB db = InMemoryDB.open(d, 0, 0, 0, storage)) {
+                    db.setWithTTL("s", "token", "abc", 100, 5);
+                    db.setAt("s", "user", "bob", 104);
+                    db.checkpoint();
+                }
+                try (InMemoryDB db = InMemoryDB.open(d, 0, 0, 0, storage)) {
+                    Assertions.assertEquals("abc", db.getAt("s", "token", 103));
+                    db.setAt("s", "user", "eve", 110);
+                    Assertions.assertNull(db.getAt("s", "token", 103), storage.name());
+                    Assertions.assertEquals(List.of("user(eve)"), db.scanAt("s", 110));
+                }
+            }
+        });
+    }
+    /**
+     * The scheduled checkpoint runs twice while the directory is moved away; only the first failure is kept.
+     * checkpoint() throws it as the cause once the directory is back, and the retry after that succeeds
+     */
+    @Test
+    @Order(5)
+    public void test_05_backgroundCheckpointFailure() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            Path moved = dir.resolveSibling(dir.getFileName() + "-moved");
+            try (InMemoryDB db = InMemoryDB.open(dir, Integer.MAX_VALUE, 0, 0)) {
+                db.setAt("k", "f", "v", 1);
+                Files.move(dir, moved);
+                db.backgroundCheckpoint();
+                db.setAt("k", "f", "w", 2);
+                db.backgroundCheckpoint();
+                Files.move(moved, dir);
+                IOException failed = Assertions.assertThrows(IOException.class, db::checkpoint);
+                Assertions.assertNotNull(failed.getCause());
+                db.checkpoint();
+            }
+            try (InMemoryDB db = InMemoryDB.open(dir, Integer.MAX_VALUE, 0, 0)) {
+                Assertions.assertEquals("w", db.get("k", "f"));
+            }
+        });
+    }
+
+    /** one random write at ts; each call is one log record, or none when it changes nothing */
+    private static void randomOp(InMemoryDB db, Random random, int ts) {
+        String key = "key:" + random.nextInt(KEYS), field = "f" + random.nextInt(4);
+        switch (random.nextInt(10)) {
+            case 0 -> db.delete(key, field);
+            case 1 -> db.deleteAt(key, field, ts);
+            case 2 -> db.setWithTTL(key, field, "t" + ts, ts, 1 + random.nextInt(50));
+            case 3 -> db.set(key, field, "s" + ts);
+            case 4 -> {
+                try (InMemoryDB.Transaction tx = db.beginTransaction()) {
+                    tx.setAt(key, field, "x" + ts, ts);
+                    tx.setAt("key:" + random.nextInt(KEYS), "f" + random.nextInt(4), "y" + ts, ts);
+                    tx.commit();
+                }
+            }
+            default -> db.setAt(key, field, "v" + ts, ts);
+        }
+    }
+
+    /** every live field of every key at a spread of timestamps */
+    private static String state(InMemoryDB db) {
+        StringBuilder out = new StringBuilder();
+        for (int ts = 0; ts <= 2600; ts += 13) {
+            out.append(ts).append(db.scanAllByPrefixAt("", ts)).append('\n');
+        }
+        return out.toString();
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package inmemorydb;
+
+/* Heap retained per field by the two storage modes.
+ *   java -Xmx2g inmemorydb.FootprintBenchmark [fields=2000000] [fieldsPerKey=10]
+ * Field names and values are built per record, as they would be when parsed off the wire, so the
+ * OBJECTS layout keeps a copy of every name while COMPACT keeps one per distinct name.
+ * The heap is measured after a few System.gc() calls, so treat the numbers as estimates. */
+class FootprintBenchmark {
+    public static void main(String[] args) {
+        int fields = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int fieldsPerKey = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        long objects = measure(InMemoryDB.Storage.OBJECTS, fields, fieldsPerKey);
+        long compact = measure(InMemoryDB.Storage.COMPACT, fields, fieldsPerKey);
+        System.out.printf("OBJECTS: %d bytes/field%n", objects / fields);
+        System.out.printf("COMPACT: %d bytes/field (%.1fx smaller)%n", compact / fields, (double) objects / compact);
+    }
+
+    private static long measure(InMemoryDB.Storage storage, int fields, int fieldsPerKey) {
+        long before = usedHeap();
+        InMemoryDB db = new InMemoryDB(Integer.MAX_VALUE, 0, storage);
+        for (int i = 0; i < fields; i++) {
+            String key = "key:" + i / fieldsPerKey;
+            String field = new String("field" + i % fieldsPerKey);
+            db.setAt(key, field, "value-" + i, 1 + i % 1000);
+        }
+        long used = usedHeap() - before;
+        if (db.get("key:0", "field0") == null) throw new AssertionError(); // keep db reachable until here
+        db.close();
+        return used;
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
@@ -0,0 +1,220 @@
+package inmemorydb;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.*;
+/**
+ * InMemoryDB version history: getAt reads the version that was current at ts, deleteAt ends a field with a
+ * tombstone, readers pin a timestamp, and the collector only drops what no reader or retention window can see.
+ * Every test runs once per storage mode.
+ */
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class HistoryTests {
+    private InMemoryDB db;
+    /**
+     * Versions at 10, 30 and then 20 (out of order) -> each getAt sees the one current at ts, nothing before 10.
+     * setAt at an existing ts replaces it, set() overwrites only the newest, a TTL version is readable
+     * up to ts + ttl inclusive
+     */
+    @Test
+    @Order(1)
+    public void test_01_getAtOlderVersions() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(5), () -> forEachStorage(storage -> {
+            db.setAt("user:1", "city", "Pune", 10);
+            db.setAt("user:1", "city", "Lima", 30);
+            db.setAt("user:1", "city", "Oslo", 20);
+            Assertions.assertNull(db.getAt("user:1", "city", 9));
+            Assertions.assertEquals("Pune", db.getAt("user:1", "city", 10));
+            Assertions.assertEquals("Pune", db.getAt("user:1", "city", 19));
+            Assertions.assertEquals("Oslo", db.getAt("user:1", "city", 29));
+            Assertions.assertEquals("Lima", db.getAt("user:1", "city", 1000));
+
+            db.setAt("user:1", "city", "Rome", 20);
+            Assertions.assertEquals("Rome", db.getAt("user:1", "city", 25));
+            db.set("user:1", "city", "Kyiv");
+            Assertions.assertEquals("Kyiv", db.get("user:1", "city"));
+            Assertions.assertEquals("Kyiv", db.getAt("user:1", "city", 30));
+            Assertions.assertEquals("Rome", db.getAt("user:1", "city", 29));
+
+            db.setWithTTL("user:1", "session", "xyz", 100, 10);
+            Assertions.assertEquals("xyz", db.getAt("user:1", "session", 110));
+            Assertions.assertNull(db.getAt("user:1", "session", 111));
+            Assertions.assertNull(db.getAt("user:1", "session", 99));
+        }));
+    }
+    /**
+     * deleteAt(30) writes a tombstone: reads before 30 still see the value, reads from 30 on do not.
+     * deleteAt where nothing is visible returns false; a later setAt brings the field back;
+     * delete() drops the whole history
+     */
+    @Test
+    @Order(2)
+    public void test_02_deleteAtTombstones() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(5), () -> forEachStorage(storage -> {
+            db.setAt("user:2", "city", "Pune", 10);
+            db.setAt("user:2", "city", "Oslo", 20);
+            Assertions.assertTrue(db.deleteAt("user:2", "city", 30));
+            Assertions.assertEquals("Oslo", db.getAt("user:2", "city", 29));
+            Assertions.assertNull(db.getAt("user:2", "city", 30));
+            Assertions.assertNull(db.getAt("user:2", "city", 35));
+            Assertions.assertEquals(List.of(), db.scanAt("user:2", 35));
+
+            Assertions.assertFalse(db.deleteAt("user:2", "city", 35));
+            Assertions.assertFalse(db.deleteAt("user:2", "city", 5));
+            Assertions.assertFalse(db.deleteAt("user:2", "missing", 35));
+            Assertions.assertFalse(db.deleteAt("nobody", "city", 35));
+            db.setWithTTL("user:2", "token", "t", 10, 5);
+            Assertions.assertFalse(db.deleteAt("user:2", "token", 16));
+
+            db.setAt("user:2", "city", "Lima", 40);
+            Assertions.assertNull(db.getAt("user:2", "city", 39));
+            Assertions.assertEquals("Lima", db.getAt("user:2", "city", 40));
+            Assertions.assertEquals("Pune", db.getAt("user:2", "city", 15));
+
+            db.delete("user:2", "city");
+            Assertions.assertNull(db.getAt("user:2", "city", 15));
+            Assertions.assertNull(db.get("user:2", "city"));
+        }));
+    }
+    /**
+     * A reader opened at 12 keeps answering as of 12 while newer versions and a tombstone are written,
+     * for get, scan and scanByPrefix; closing it twice is harmless
+     */
+    @Test
+    @Order(3)
+    public void test_03_readerPinning() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(5), () -> forEachStorage(storage -> {
+            db.setAt("k", "f", "v1", 10);
+            db.setAt("k", "g", "w1", 11);
+            InMemoryDB.Reader reader = db.openReader(12);
+            Assertions.assertEquals(12, reader.timestamp());
+            db.setAt("k", "f", "v2", 20);
+            db.deleteAt("k", "g", 21);
+            db.setAt("k", "h", "x", 22);
+            Assertions.assertEquals("v1", reader.get("k", "f"));
+            Assertions.assertEquals(List.of("f(v1)", "g(w1)"), reader.scan("k"));
+            Assertions.assertEquals(List.of("g(w1)"), reader.scanByPrefix("k", "g"));
+            Assertions.assertEquals(List.of("f(v2)", "h(x)"), db.scanAt("k", 30));
+            reader.close();
+            reader.close();
+            Assertions.assertEquals("v1", reader.get("k", "f"));
+        }));
+    }
+    /**
+     * Retention 5, versions at 10, 20 and 30: the horizon is 25, so collectGarbage drops only the version at 10
+     * (the one at 20 is still current at 25), unless a reader at 12 is open. A field whose last version is a
+     * tombstone behind the horizon goes entirely. With unbounded retention nothing is ever collected
+     */
+    @Test
+    @Order(4)
+    public void test_04_collectGarbageHorizon() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(5), () -> forEachStorage(storage -> {
+            try (InMemoryDB hist = new InMemoryDB(5, 0, storage)) {
+                hist.setAt("k", "f", "v1", 10);
+                InMemoryDB.Reader reader = hist.openReader(12);
+                hist.setAt("k", "f", "v2", 20);
+                hist.setAt("k", "f", "v3", 30);
+                Assertions.assertEquals(0, hist.collectGarbage());
+                Assertions.assertEquals("v1", reader.get("k", "f"));
+                InMemoryDB.Reader second = hist.openReader(12);
+                reader.close();
+                Assertions.assertEquals(0, hist.collectGarbage());
+                second.close();
+                Assertions.assertEquals(1, hist.collectGarbage());
+                Assertions.assertNull(hist.getAt("k", "f", 15));
+                Assertions.assertEquals("v2", hist.getAt("k", "f", 25));
+                Assertions.assertEquals(0, hist.collectGarbage());
+
+                hist.setAt("k", "gone", "x", 26);
+                hist.deleteAt("k", "gone", 28);
+                Assertions.assertEquals(0, hist.collectGarbage());
+                hist.setAt("k", "f", "v4", 40);
+                Assertions.assertEquals(3, hist.collectGarbage());   // v2, and both versions of gone
+                Assertions.assertEquals(List.of("f(v3)"), hist.scanAt("k", 35));
+            }
+            try (InMemoryDB all = new InMemoryDB(Integer.MAX_VALUE, 0, storage)) {
+                for (int ts = 1; ts <= 100; ++ts) {
+                    all.setAt("k", "f", "v" + ts, ts);
+                }
+                Assertions.assertEquals(0, all.collectGarbage());
+                Assertions.assertEquals("v1", all.getAt("k", "f", 1));
+            }
+        }));
+    }
+    /**
+     * Keys, fields and prefixes are matched case-sensitively: "Name" and "name" are two fields,
+     * prefix "Na" only matches the first, "User:1" is not "user:1"
+     */
+    @Test
+    @Order(5)
+    public void test_05_caseSensitive() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(5), () -> forEachStorage(storage -> {
+            db.setAt("user:1", "Name", "Upper", 10);
+            db.setAt("user:1", "name", "lower", 10);
+            Assertions.assertEquals("Upper", db.getAt("user:1", "Name", 10));
+            Assertions.assertEquals("lower", db.getAt("user:1", "name", 10));
+            Assertions.assertNull(db.getAt("user:1", "NAME", 10));
+            Assertions.assertNull(db.getAt("User:1", "name", 10));
+            Assertions.assertEquals(List.of("Name(Upper)"), db.scanByPrefixAt("user:1", "Na", 10));
+            Assertions.assertEquals(List.of("name(lower)"), db.scanByPrefixAt("user:1", "na", 10));
+            Assertions.assertEquals(List.of(), db.scanByPrefixAt("user:1", "NA", 10));
+            Assertions.assertEquals(List.of("Name(Upper)", "name(lower)"), db.scanAt("user:1", 10));
+            Assertions.assertFalse(db.deleteAt("user:1", "NAME", 20));
+            Assertions.assertEquals("Upper", db.getAt("user:1", "Name", 20));
+        }));
+    }
+    /**
+     * 200 fields written at different timestamps, some expiring, some tombstoned: scanAt returns every field
+     * visible at ts in name order, and scanAllByPrefixAt every key holding one, in key order
+     */
+    @Test
+    @Order(6)
+    public void test_06_scanReturnsAllFields() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(5), () -> forEachStorage(storage -> {
+            List<String> at150 = new ArrayList<>();
+            for (int i = 0; i < 200; ++i) {
+                String field = String.format("f%03d", i);
+                if (i % 5 == 0) {
+                    db.setWithTTL("k", field, "v" + i, i, 100);   // expired at 150 for i < 50
+                    if (i >= 50 && i <= 150) at150.add(field + "(v" + i + ")");
+                } else if (i % 7 == 0) {
+                    db.setAt("k", field, "v" + i, i);
+                    db.deleteAt("k", field, i + 1);
+                } else {
+                    db.setAt("k", field, "v" + i, i);
+                    if (i <= 150) at150.add(field + "(v" + i + ")");
+                }
+            }
+            Assertions.assertEquals(at150, db.scanAt("k", 150));
+            Assertions.assertEquals(at150.stream().filter(f -> f.startsWith("f0")).toList(), db.scanByPrefixAt("k", "f0", 150));
+            Assertions.assertEquals(at150.stream().filter(f -> f.startsWith("f15")).toList(), db.scanByPrefixAt("k", "f15", 150));
+
+            db.setAt("b", "f000", "x", 1);
+            db.setAt("a", "g", "y", 1);
+            List<Map.Entry<String, List<String>>> all = db.scanAllByPrefixAt("f", 150);
+            Assertions.assertEquals(List.of("b", "k"), all.stream().map(Map.Entry::getKey).toList());
+            Assertions.assertEquals(List.of("f000(x)"), all.get(0).getValue());
+            Assertions.assertEquals(at150, all.get(1).getValue());
+        }));
+    }
+
+    private interface Check {
+        void run(InMemoryDB.Storage storage) throws Throwable;
+    }
+
+    //runs check against a fresh db (all history kept, no background GC) in each storage mode
+    private void forEachStorage(Check check) throws Throwable {
+        for (InMemoryDB.Storage storage : InMemoryDB.Storage.values()) {
+            db = new InMemoryDB(Integer.MAX_VALUE, 0, storage);
+            try {
+                check.run(storage);
+            } catch (AssertionError e) {
+                throw new AssertionError(storage + ": " + e.getMessage(), e);
+            } finally {
+                db.close();
+            }
+        }
+    }
+}
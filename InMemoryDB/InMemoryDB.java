@@ -1,15 +1,42 @@
 package inmemorydb;
 
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
 
 class Item {
     String field;
-    String fieldValue;
+    String fieldValue;   // null marks a tombstone written by deleteAt
     int timestamp;
     int ttl;
 
@@ -35,51 +62,870 @@ class Item {
         return fieldValue;
     }
 
+    public boolean isTombstone() {
+        return fieldValue == null;
+    }
+
     //isAlive method to find out the live/expired items
     public boolean isAlive(int ts) {
         return ttl == 0 || ts <= timestamp+ttl; //currentTime <= timestamp when item is created+ttl delay.
 
     }
+
+    //visible at ts -> the version is neither expired nor a tombstone
+    public boolean isVisible(int ts) {
+        return !isTombstone() && isAlive(ts);
+    }
+}
+
+/* Every version of one field, oldest first.
+ * timestamps[] mirrors versions[i].timestamp so point-in-time lookups binary search a primitive array. */
+class VersionChain {
+    int[] timestamps = new int[2];
+    Item[] versions = new Item[2];
+    int size;
+    long version;   // write sequence of the last change, checked by transactions at commit
+
+    //put(version) - same timestamp replaces, newer appends, older is inserted in timestamp order.
+    void put(Item version) {
+        int ts = version.timestamp;
+        if (size > 0 && timestamps[size - 1] == ts) {
+            versions[size - 1] = version;
+            return;
+        }
+        int at = size;
+        if (size > 0 && timestamps[size - 1] > ts) {
+            int i = Arrays.binarySearch(timestamps, 0, size, ts);
+            if (i >= 0) {
+                versions[i] = version;
+                return;
+            }
+            at = -i - 1;
+        }
+        if (size == timestamps.length) {
+            timestamps = Arrays.copyOf(timestamps, size * 2);
+            versions = Arrays.copyOf(versions, size * 2);
+        }
+        System.arraycopy(timestamps, at, timestamps, at + 1, size - at);
+        System.arraycopy(versions, at, versions, at + 1, size - at);
+        timestamps[at] = ts;
+        versions[at] = version;
+        size++;
+    }
+
+    //index of the newest version written at or before ts, -1 if the field did not exist yet.
+    int floorIndex(int ts) {
+        int i = Arrays.binarySearch(timestamps, 0, size, ts);
+        return i >= 0 ? i : -i - 2;
+    }
+
+    //the version that was current at ts
+    Item floor(int ts) {
+        int i = floorIndex(ts);
+        return i < 0 ? null : versions[i];
+    }
+
+    Item latest() {
+        return size == 0 ? null : versions[size - 1];
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    //private copy used as a transaction's snapshot of the field
+    VersionChain copy() {
+        VersionChain c = new VersionChain();
+        c.timestamps = Arrays.copyOf(timestamps, Math.max(size, 2));
+        c.versions = Arrays.copyOf(versions, Math.max(size, 2));
+        c.size = size;
+        c.version = version;
+        return c;
+    }
+
+    //the version set() writes: it overwrites the newest version in place, history before it is untouched
+    static Item overwriteLatest(Item latest, String field, String value) {
+        return new Item(field, value, latest == null ? 0 : latest.timestamp, 0);
+    }
+
+    //the tombstone deleteAt writes, null if the field is not visible at ts
+    Item tombstoneAt(String field, int ts) {
+        Item item = floor(ts);
+        return item == null || !item.isVisible(ts) ? null : new Item(field, null, ts, 0);
+    }
+
+    //prune(horizon) - drop versions no read at ts >= horizon can observe.
+    //The version current at the horizon is kept, unless it is the last one and already dead there.
+    int prune(int horizon) {
+        int keep = floorIndex(horizon);
+        if (keep == size - 1 && keep >= 0 && !versions[keep].isVisible(horizon)) {
+            keep = size;
+        }
+        if (keep <= 0) return 0;
+        System.arraycopy(timestamps, keep, timestamps, 0, size - keep);
+        System.arraycopy(versions, keep, versions, 0, size - keep);
+        Arrays.fill(versions, size - keep, size, null);
+        size -= keep;
+        return keep;
+    }
+}
+
+/* Expiry index entry: the version of key/field written with a ttl stops being visible after expiresAt. */
+class Expiry {
+    final long expiresAt;
+    final String key;
+    final String field;
+
+    Expiry(long expiresAt, String key, String field) {
+        this.expiresAt = expiresAt;
+        this.key = key;
+        this.field = field;
+    }
+}
+
+/* Before-image of one field, kept while a transaction that began before the change is open.
+ * A transaction reads the field through the image of the first change stamped after its begin. */
+class Undo {
+    final long stamp;            // stamp of the change that replaced the image
+    final String field;
+    final VersionChain before;   // null when the field did not exist
+
+    Undo(long stamp, String field, VersionChain before) {
+        this.stamp = stamp;
+        this.field = field;
+        this.before = before;
+    }
+}
+
+/* Storage of one key's fields, always used under the key's lock.
+ * Every change is tagged with a stamp from the db's write sequence; version(field) returns the latest one
+ * so transactions can tell whether the field changed under them. */
+abstract class FieldStore {
+    abstract Item latest(String field);
+
+    //the version that was current at ts
+    abstract Item floor(String field, int ts);
+
+    abstract boolean contains(String field);
+
+    //stamp of the field's last change, 0 when the field does not exist
+    abstract long version(String field);
+
+    abstract void put(String field, Item version, long stamp);
+
+    abstract void remove(String field);
+
+    //prune(field, horizon) - VersionChain.prune for one field, dropping it when nothing is left
+    abstract int prune(String field, int horizon, LongSupplier stamps);
+
+    //pruneAll(horizon, stamps, dropped) - prune for every field, adds the fields left with nothing to dropped
+    abstract int pruneAll(int horizon, LongSupplier stamps, List<String> dropped);
+
+    abstract boolean isEmpty();
+
+    //a private copy of the field's versions for a transaction, null when the field does not exist
+    abstract VersionChain copy(String field);
+
+    //scan(prefix, ts, out) - adds fieldName(fieldValue) for every field with prefix visible at ts, in field order
+    abstract void scan(String prefix, int ts, List<String> out);
+
+    //snapshot body of one key: [field count], per field [field][version count], per version [ts][ttl][value]
+    abstract void write(DataOutputStream out) throws IOException;
+}
+
+/* Object layout: a sorted map of field name -> VersionChain of Items. */
+class ChainFieldStore extends FieldStore {
+    private final TreeMap<String, VersionChain> fields = new TreeMap<>(); // sorted so scans come back in field order
+
+    @Override
+    Item latest(String field) {
+        VersionChain chain = fields.get(field);
+        return chain == null ? null : chain.latest();
+    }
+
+    @Override
+    Item floor(String field, int ts) {
+        VersionChain chain = fields.get(field);
+        return chain == null ? null : chain.floor(ts);
+    }
+
+    @Override
+    boolean contains(String field) {
+        return fields.containsKey(field);
+    }
+
+    @Override
+    long version(String field) {
+        VersionChain chain = fields.get(field);
+        return chain == null ? 0 : chain.version;
+    }
+
+    @Override
+    void put(String field, Item version, long stamp) {
+        VersionChain chain = fields.computeIfAbsent(field, f -> new VersionChain());
+        chain.put(version);
+        chain.version = stamp;
+    }
+
+    @Override
+    void remove(String field) {
+        fields.remove(field);
+    }
+
+    @Override
+    int prune(String field, int horizon, LongSupplier stamps) {
+        VersionChain chain = fields.get(field);
+        if (chain == null) return 0;
+        int pruned = chain.prune(horizon);
+        if (pruned == 0) return 0;
+        chain.version = stamps.getAsLong();
+        if (chain.isEmpty()) fields.remove(field);
+        return pruned;
+    }
+
+    @Override
+    int pruneAll(int horizon, LongSupplier stamps, List<String> dropped) {
+        int removed = 0;
+        Iterator<Map.Entry<String, VersionChain>> it = fields.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, VersionChain> e = it.next();
+            VersionChain chain = e.getValue();
+            int pruned = chain.prune(horizon);
+            if (pruned == 0) continue;
+            removed += pruned;
+            chain.version = stamps.getAsLong();
+            if (chain.isEmpty()) {
+                dropped.add(e.getKey());
+                it.remove();
+            }
+        }
+        return removed;
+    }
+
+    @Override
+    boolean isEmpty() {
+        return fields.isEmpty();
+    }
+
+    @Override
+    VersionChain copy(String field) {
+        VersionChain chain = fields.get(field);
+        return chain == null ? null : chain.copy();
+    }
+
+    //Fields are sorted, so start at the prefix and stop at the first field without it.
+    @Override
+    void scan(String prefix, int ts, List<String> out) {
+        for (Map.Entry<String, VersionChain> e : fields.tailMap(prefix, true).entrySet()) {
+            if (!e.getKey().startsWith(prefix)) break;
+            Item item = e.getValue().floor(ts);
+            if (item != null && item.isVisible(ts)) {
+                out.add(item.getField() + "(" + item.getFieldValue() + ")");
+            }
+        }
+    }
+
+    @Override
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(fields.size());
+        for (Map.Entry<String, VersionChain> e : fields.entrySet()) {
+            VersionChain chain = e.getValue();
+            WriteAheadLog.writeString(out, e.getKey());
+            out.writeInt(chain.size);
+            for (int i = 0; i < chain.size; i++) {
+                Item item = chain.versions[i];
+                out.writeInt(item.timestamp);
+                out.writeInt(item.ttl);
+                WriteAheadLog.writeString(out, item.fieldValue);
+            }
+        }
+    }
+}
+
+/* Field names interned to small ints, shared by every key of a compact InMemoryDB. Ids are never reused.
+ * The dictionary also keeps its ids in name order, so a key's fields can be put in name order by comparing
+ * ints, and the fields starting with a prefix are one range of that order. */
+class FieldDictionary {
+    /* ids sorted by name, and each id's position in that order; replaced as a whole when a name is interned */
+    static final class NameOrder {
+        final int[] byName;
+        final int[] rank;
+
+        NameOrder(int[] byName, int[] rank) {
+            this.byName = byName;
+            this.rank = rank;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] names = new String[64];
+    private volatile NameOrder order = new NameOrder(new int[0], new int[0]);
+    private int size;   // guarded by this
+
+    //id of field, -1 if no key ever had it
+    int idOf(String field) {
+        Integer id = ids.get(field);
+        return id == null ? -1 : id;
+    }
+
+    int intern(String field) {
+        Integer id = ids.get(field);
+        if (id != null) return id;
+        synchronized (this) {
+            id = ids.get(field);
+            if (id != null) return id;
+            if (size == names.length) names = Arrays.copyOf(names, size * 2);
+            names[size] = field;
+            order = insert(order, size, firstAtOrAfter(order, field));
+            ids.put(field, size);   // published after the name and its rank, so idOf never hands out an id without them
+            return size++;
+        }
+    }
+
+    //insert(order, id, at) - a copy of order with id at position at; interning is rare, so O(ids) is fine
+    private static NameOrder insert(NameOrder order, int id, int at) {
+        int n = order.byName.length;
+        int[] byName = new int[n + 1];
+        System.arraycopy(order.byName, 0, byName, 0, at);
+        byName[at] = id;
+        System.arraycopy(order.byName, at, byName, at + 1, n - at);
+        int[] rank = Arrays.copyOf(order.rank, n + 1);
+        for (int r = at; r <= n; r++) rank[byName[r]] = r;
+        return new NameOrder(byName, rank);
+    }
+
+    String name(int id) {
+        return names[id];
+    }
+
+    //the current name order; covers every id handed out before the call
+    NameOrder order() {
+        return order;
+    }
+
+    //first position in order whose name is >= prefix
+    int firstAtOrAfter(NameOrder order, String prefix) {
+        int lo = 0, hi = order.byName.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (names[order.byName[mid]].compareTo(prefix) < 0) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+
+    //one past the last position in order whose name starts with prefix; those names follow firstAtOrAfter
+    int endOfPrefix(NameOrder order, String prefix) {
+        int lo = firstAtOrAfter(order, prefix), hi = order.byName.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (names[order.byName[mid]].startsWith(prefix)) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
 }
-public class InMemoryDB {
-    private final Map<String, List<Item>> store = new ConcurrentHashMap<>();
-    ReentrantLock lock = new ReentrantLock();
 
-    //set(key, Item)
+/* Compact layout: every version of every field of the key is one row in parallel arrays, sorted by
+ * (field id, timestamp), so a field is a contiguous run of rows found by binary search.
+ * A row costs 4+4+4 bytes of ids/timestamp/ttl, an 8 byte stamp, and a utf-8 byte[] for the value;
+ * there is no Item, String, map entry or chain object per field. Items are built on the way out. */
+class CompactFieldStore extends FieldStore {
+    private final FieldDictionary dictionary;
+    private int size;
+    private int[] fieldIds = new int[1];
+    private int[] timestamps = new int[1];
+    private int[] ttls = new int[1];
+    private byte[][] values = new byte[1][];   // null marks a tombstone
+    private long[] stamps = new long[1];        // only the newest row of each field carries its stamp
+
+    CompactFieldStore(FieldDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    //first row of field id (or where it would start)
+    private int lowerBound(int id) {
+        return lowerBound(0, id);
+    }
+
+    //lowerBound(from, id) - first row at or after from with a field id >= id
+    private int lowerBound(int from, int id) {
+        int lo = from, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (fieldIds[mid] < id) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+
+    //one past the last row of field id, given its first row
+    private int end(int from, int id) {
+        return lowerBound(from, id + 1);
+    }
+
+    //row of the newest version at or before ts within [from, to), from - 1 if none
+    private int floorRow(int from, int to, int ts) {
+        int i = Arrays.binarySearch(timestamps, from, to, ts);
+        return i >= 0 ? i : -i - 2;
+    }
+
+    private Item item(int row, String field) {
+        byte[] v = values[row];
+        return new Item(field, v == null ? null : new String(v, StandardCharsets.UTF_8), timestamps[row], ttls[row]);
+    }
+
+    //same rule as Item.isVisible, without building the Item
+    private boolean visible(int row, int ts) {
+        return values[row] != null && (ttls[row] == 0 || ts <= timestamps[row] + ttls[row]);
+    }
+
+    @Override
+    Item latest(String field) {
+        int id = dictionary.idOf(field);
+        if (id < 0) return null;
+        int from = lowerBound(id), to = end(from, id);
+        return from == to ? null : item(to - 1, field);
+    }
+
+    @Override
+    Item floor(String field, int ts) {
+        int id = dictionary.idOf(field);
+        if (id < 0) return null;
+        int from = lowerBound(id), to = end(from, id);
+        int row = floorRow(from, to, ts);
+        return row < from ? null : item(row, field);
+    }
+
+    @Override
+    boolean contains(String field) {
+        int id = dictionary.idOf(field);
+        if (id < 0) return false;
+        int from = lowerBound(id);
+        return from < size && fieldIds[from] == id;
+    }
+
+    @Override
+    long version(String field) {
+        int id = dictionary.idOf(field);
+        if (id < 0) return 0;
+        int from = lowerBound(id), to = end(from, id);
+        return from == to ? 0 : stamps[to - 1];
+    }
+
+    @Override
+    void put(String field, Item version, long stamp) {
+        int id = dictionary.intern(field);
+        int from = lowerBound(id), to = end(from, id);
+        int i = Arrays.binarySearch(timestamps, from, to, version.timestamp);
+        int row = i;
+        if (i < 0) {
+            row = -i - 1;
+            insertRow(row);
+            to++;
+        }
+        fieldIds[row] = id;
+        timestamps[row] = version.timestamp;
+        ttls[row] = version.ttl;
+        values[row] = version.fieldValue == null ? null : version.fieldValue.getBytes(StandardCharsets.UTF_8);
+        stamps[to - 1] = stamp;
+    }
+
+    private void insertRow(int at) {
+        if (size == fieldIds.length) {
+            int capacity = size + (size >> 1) + 1;
+            fieldIds = Arrays.copyOf(fieldIds, capacity);
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            ttls = Arrays.copyOf(ttls, capacity);
+            values = Arrays.copyOf(values, capacity);
+            stamps = Arrays.copyOf(stamps, capacity);
+        }
+        int tail = size - at;
+        System.arraycopy(fieldIds, at, fieldIds, at + 1, tail);
+        System.arraycopy(timestamps, at, timestamps, at + 1, tail);
+        System.arraycopy(ttls, at, ttls, at + 1, tail);
+        System.arraycopy(values, at, values, at + 1, tail);
+        System.arraycopy(stamps, at, stamps, at + 1, tail);
+        size++;
+    }
+
+    private void removeRows(int from, int to) {
+        int tail = size - to;
+        System.arraycopy(fieldIds, to, fieldIds, from, tail);
+        System.arraycopy(timestamps, to, timestamps, from, tail);
+        System.arraycopy(ttls, to, ttls, from, tail);
+        System.arraycopy(values, to, values, from, tail);
+        System.arraycopy(stamps, to, stamps, from, tail);
+        size -= to - from;
+        Arrays.fill(values, size, size + (to - from), null);
+    }
+
+    @Override
+    void remove(String field) {
+        int id = dictionary.idOf(field);
+        if (id < 0) return;
+        int from = lowerBound(id);
+        removeRows(from, end(from, id));
+    }
+
+    //same rule as VersionChain.prune over the rows [from, to) of one field
+    private int pruneRows(int from, int to, int horizon, LongSupplier stamps) {
+        int keep = floorRow(from, to, horizon);
+        if (keep == to - 1 && keep >= from && !visible(keep, horizon)) keep = to;
+        if (keep <= from) return 0;
+        removeRows(from, keep);
+        if (keep < to) this.stamps[from + (to - keep) - 1] = stamps.getAsLong();
+        return keep - from;
+    }
+
+    @Override
+    int prune(String field, int horizon, LongSupplier stamps) {
+        int id = dictionary.idOf(field);
+        if (id < 0) return 0;
+        int from = lowerBound(id);
+        return pruneRows(from, end(from, id), horizon, stamps);
+    }
+
+    @Override
+    int pruneAll(int horizon, LongSupplier stamps, List<String> dropped) {
+        int removed = 0;
+        int row = 0;
+        while (row < size) {
+            int to = end(row, fieldIds[row]);
+            String field = dictionary.name(fieldIds[row]);
+            int pruned = pruneRows(row, to, horizon, stamps);
+            if (pruned == to - row) dropped.add(field);
+            removed += pruned;
+            row = to - pruned;
+        }
+        return removed;
+    }
+
+    @Override
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    VersionChain copy(String field) {
+        int id = dictionary.idOf(field);
+        if (id < 0) return null;
+        int from = lowerBound(id), to = end(from, id);
+        if (from == to) return null;
+        VersionChain chain = new VersionChain();
+        for (int row = from; row < to; row++) chain.put(item(row, field));
+        chain.version = stamps[to - 1];
+        return chain;
+    }
+
+    //fieldsByName(order, lo, hi) - first row of every field whose name is at a position in [lo, hi) of the
+    //dictionary's name order, sorted by that position. Packed as rank << 32 | row so the sort is on longs.
+    private long[] fieldsByName(FieldDictionary.NameOrder order, int lo, int hi) {
+        long[] fields = new long[8];
+        int n = 0;
+        for (int row = 0; row < size; row = end(row, fieldIds[row])) {
+            int rank = order.rank[fieldIds[row]];
+            if (rank < lo || rank >= hi) continue;
+            if (n == fields.length) fields = Arrays.copyOf(fields, n * 2);
+            fields[n++] = (long) rank << 32 | row;
+        }
+        fields = Arrays.copyOf(fields, n);
+        Arrays.sort(fields);
+        return fields;
+    }
+
+    @Override
+    void scan(String prefix, int ts, List<String> out) {
+        FieldDictionary.NameOrder order = dictionary.order();
+        int lo = dictionary.firstAtOrAfter(order, prefix), hi = dictionary.endOfPrefix(order, prefix);
+        if (lo == hi) return;
+        for (long f : fieldsByName(order, lo, hi)) {
+            int from = (int) f;
+            int row = floorRow(from, end(from, fieldIds[from]), ts);
+            if (row >= from && visible(row, ts)) {
+                out.add(dictionary.name(fieldIds[from]) + "(" + new String(values[row], StandardCharsets.UTF_8) + ")");
+            }
+        }
+    }
+
+    @Override
+    void write(DataOutputStream out) throws IOException {
+        FieldDictionary.NameOrder order = dictionary.order();
+        long[] fields = fieldsByName(order, 0, order.byName.length);
+        out.writeInt(fields.length);
+        for (long f : fields) {
+            int from = (int) f;
+            int to = end(from, fieldIds[from]);
+            WriteAheadLog.writeString(out, dictionary.name(fieldIds[from]));
+            out.writeInt(to - from);
+            for (int row = from; row < to; row++) {
+                out.writeInt(timestamps[row]);
+                out.writeInt(ttls[row]);
+                out.writeInt(values[row] == null ? -1 : values[row].length);
+                if (values[row] != null) out.write(values[row]);
+            }
+        }
+    }
+}
+
+/* All fields of one key. Each key has its own lock, so operations on different keys run in parallel. */
+class Record {
+    final ReentrantLock lock = new ReentrantLock();
+    final FieldStore fields;
+    boolean removed;   // unlinked from the store once empty; whoever locked it must look the key up again
+
+    Record(FieldStore fields) {
+        this.fields = fields;
+    }
+}
+
+public class InMemoryDB implements AutoCloseable {
+    //OBJECTS keeps an Item per version in per-field chains; COMPACT interns field names and packs each
+    //key's versions into primitive arrays with utf-8 values, trading some read allocation for memory
+    public enum Storage { OBJECTS, COMPACT }
+
+    private final Map<String, Record> store = new ConcurrentHashMap<>();
+    private final AtomicLong writeSeq = new AtomicLong();
+    private final FieldDictionary dictionary;   // null unless COMPACT
+
+    //how far behind the newest write timestamp history stays readable (Integer.MAX_VALUE = keep everything)
+    private final int retention;
+    private final AtomicInteger latestTimestamp = new AtomicInteger();
+    //reader timestamp -> number of open readers pinned at it; guarded by readersLock
+    private final TreeMap<Integer, Integer> activeReaders = new TreeMap<>();
+    private final ReentrantLock readersLock = new ReentrantLock();
+    private volatile long oldestReader = Long.MAX_VALUE;   // activeReaders.firstKey(), read without the lock
+    //runs the version collector and checkpoints; null when neither runs in the background
+    private ScheduledExecutorService maintenance;
+
+    //expiry index: one entry per TTL'd version, soonest expiry first; guarded by expiryLock
+    private final PriorityQueue<Expiry> expiries = new PriorityQueue<>(Comparator.comparingLong((Expiry e) -> e.expiresAt));
+    private final ReentrantLock expiryLock = new ReentrantLock();
+    private volatile long nextExpiry = Long.MAX_VALUE;    // expiries.peek().expiresAt, read without the lock
+    private final AtomicBoolean purging = new AtomicBoolean();
+    private static final int INCREMENTAL_PURGE = 8;
+
+    //open transactions: begin stamp -> how many began there; guarded by transactionsLock.
+    //openTransactionCount lets writers skip the before-images without taking the lock.
+    private final TreeMap<Long, Integer> openTransactions = new TreeMap<>();
+    private final ReentrantLock transactionsLock = new ReentrantLock();
+    private final AtomicInteger openTransactionCount = new AtomicInteger();
+    //key -> before-images in stamp order, only recorded while a transaction is open; see Transaction
+    private final ConcurrentHashMap<String, List<Undo>> undo = new ConcurrentHashMap<>();
+
+    //null when the db is purely in memory
+    private final WriteAheadLog wal;
+    private final ReentrantLock checkpointLock = new ReentrantLock();
+    //first failure of a background checkpoint, thrown by the next checkpoint() or close()
+    private final AtomicReference<IOException> checkpointFailure = new AtomicReference<>();
+    long recoveredMutations;   // replayed from the log by the last open(), for the recovery benchmark
+
+    public InMemoryDB() {
+        this(Integer.MAX_VALUE, 0);
+    }
+
+    //retention - logical time units of history kept behind the newest write
+    //gcIntervalMillis - period of the background version collector, 0 to only collect on demand
+    public InMemoryDB(int retention, long gcIntervalMillis) {
+        this(retention, gcIntervalMillis, Storage.OBJECTS);
+    }
+
+    public InMemoryDB(int retention, long gcIntervalMillis, Storage storage) {
+        this(retention, null, storage);
+        startMaintenance(gcIntervalMillis, 0);
+    }
+
+    private InMemoryDB(int retention, WriteAheadLog wal, Storage storage) {
+        if (retention < 0) throw new IllegalArgumentException("retention must be >= 0");
+        this.retention = retention;
+        this.wal = wal;
+        this.dictionary = storage == Storage.COMPACT ? new FieldDictionary() : null;
+    }
+
+    //open(dir, ...) - a durable db: loads the newest snapshot in dir, replays the log written after it,
+    //then logs every write; set/delete calls return once their log record is on disk.
+    //checkpointIntervalMillis - period of background snapshots, 0 to only checkpoint on demand
+    public static InMemoryDB open(Path dir, int retention, long gcIntervalMillis, long checkpointIntervalMillis) throws IOException {
+        return open(dir, retention, gcIntervalMillis, checkpointIntervalMillis, Storage.OBJECTS);
+    }
+
+    //snapshots and logs are the same for both storage modes, so a directory can be reopened in either
+    public static InMemoryDB open(Path dir, int retention, long gcIntervalMillis, long checkpointIntervalMillis,
+                                  Storage storage) throws IOException {
+        WriteAheadLog wal = new WriteAheadLog(dir);
+        InMemoryDB db = new InMemoryDB(retention, wal, storage);
+        try {
+            db.recover(dir, wal.segment());
+        } catch (IOException | RuntimeException e) {
+            db.close();
+            throw e;
+        }
+        db.startMaintenance(gcIntervalMillis, checkpointIntervalMillis);
+        return db;
+    }
+
+    //the maintenance thread is only started when something is scheduled on it
+    private void startMaintenance(long gcIntervalMillis, long checkpointIntervalMillis) {
+        if (gcIntervalMillis <= 0 && checkpointIntervalMillis <= 0) return;
+        maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "inmemorydb-maintenance");
+            t.setDaemon(true);
+            return t;
+        });
+        if (gcIntervalMillis > 0) {
+            maintenance.scheduleWithFixedDelay(this::collectGarbage, gcIntervalMillis, gcIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+        if (checkpointIntervalMillis > 0) {
+            maintenance.scheduleWithFixedDelay(this::backgroundCheckpoint, checkpointIntervalMillis, checkpointIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    //the scheduled checkpoint: nobody waits on it, so a failure is kept for the next checkpoint() or close()
+    void backgroundCheckpoint() {
+        try {
+            checkpoint();
+        } catch (IOException e) {
+            checkpointFailure.compareAndSet(null, e);
+        } catch (UncheckedIOException e) {
+            checkpointFailure.compareAndSet(null, e.getCause());
+        }
+    }
+
+    /* ---------- record locking ---------- */
+
+    //lockRecord(key, create) - the key's record with its lock held, null if absent and create is false
+    private Record lockRecord(String key, boolean create) {
+        while (true) {
+            Record r = create ? store.computeIfAbsent(key, k -> newRecord()) : store.get(key);
+            if (r == null) return null;
+            r.lock.lock();
+            if (!r.removed) return r;
+            r.lock.unlock();
+        }
+    }
+
+    //unlockRecord - unlinks the record if the operation left it empty, then releases it
+    private void unlockRecord(String key, Record r) {
+        if (r.fields.isEmpty() && !r.removed) {
+            r.removed = true;
+            store.remove(key, r);
+        }
+        r.lock.unlock();
+    }
+
+    private Record newRecord() {
+        return new Record(dictionary == null ? new ChainFieldStore() : new CompactFieldStore(dictionary));
+    }
+
+    //every change to a field is stamped with the next write sequence so transactions can detect it
+    private long nextStamp() {
+        return writeSeq.incrementAndGet();
+    }
+
+    //apply - the one place a record's fields change; stamp is taken before the call, so an open
+    //transaction that began before it is already counted and gets the field's before-image
+    private void apply(Record r, Mutation m, long stamp) {
+        if (openTransactionCount.get() > 0) keepBeforeImage(m.key, new Undo(stamp, m.field, r.fields.copy(m.field)));
+        if (m.remove) {
+            r.fields.remove(m.field);
+            return;
+        }
+        r.fields.put(m.field, new Item(m.field, m.value, m.ts, m.ttl), stamp);
+        advanceTime(m.ts);
+        if (m.ttl > 0) {
+            expiryLock.lock();
+            try {
+                expiries.add(new Expiry((long) m.ts + m.ttl, m.key, m.field));
+                nextExpiry = expiries.peek().expiresAt;
+            } finally {
+                expiryLock.unlock();
+            }
+        }
+    }
+
+    //log - called under the record locks, so the log order of a key matches the order its writes were applied
+    private long log(List<Mutation> mutations) {
+        return wal == null ? 0 : wal.append(mutations);
+    }
+
+    //write - logs then applies one mutation, returns the log sequence number to wait for
+    private long write(Record r, Mutation m) {
+        long lsn = log(List.of(m));
+        apply(r, m, nextStamp());
+        return lsn;
+    }
+
+    //a field dropped by expiry or GC is logged as removed, otherwise replay would bring its old versions back
+    //under whatever gets written to it next. Not synced: the next write's group commit carries it.
+    private static List<Mutation> forget(String key, List<String> fields) {
+        List<Mutation> out = new ArrayList<>(fields.size());
+        for (String field : fields) out.add(Mutation.remove(key, field));
+        return out;
+    }
+
+    private static Mutation put(String key, Item item) {
+        return Mutation.put(key, item.field, item.fieldValue, item.timestamp, item.ttl);
+    }
+
+    //waits for the group commit that covers lsn; called after the record locks are released
+    private void sync(long lsn) {
+        if (lsn > 0) wal.sync(lsn);
+    }
+
+    //a write that finds expired fields due pays for a few of them, so dead data does not pile up between
+    //collector runs. The check reads two volatiles; the expiry and reader locks are only taken when the
+    //index head is due, and by one writer at a time.
+    private void finishWrite(long lsn) {
+        if (nextExpiry < Math.min((long) latestTimestamp.get() - retention, oldestReader)
+                && purging.compareAndSet(false, true)) {
+            try {
+                purgeExpired(INCREMENTAL_PURGE);
+            } finally {
+                purging.set(false);
+            }
+        }
+        sync(lsn);
+    }
+
+    private void advanceTime(int ts) {
+        latestTimestamp.accumulateAndGet(ts, Math::max);
+    }
+
+    /* ---------- API ---------- */
+
+    //set(key, Item) - overwrites the newest version in place, history before it is untouched
     public void set(String key, String field, String value) {
-        lock.lock();
+        Record r = lockRecord(key, true);
+        long lsn;
         try {
-            store.computeIfAbsent(key, s -> new ArrayList<>()).add(new Item(field, value));
+            lsn = write(r, put(key, VersionChain.overwriteLatest(r.fields.latest(field), field, value)));
         } finally {
-            lock.unlock();
+            unlockRecord(key, r);
         }
+        finishWrite(lsn);
     }
 
     public String get(String key, String field){
-        lock.lock();
+        Record r = lockRecord(key, false);
+        if(r == null) return null;
         try {
-            List<Item> items  = store.get(key);
-            if(items == null) return null;
-
-            for(Item item : items) {
-                if(item.getField().equals(field))
-                    return item.fieldValue;
-            }
-            return null;
+            Item latest = r.fields.latest(field);
+            return latest == null ? null : latest.fieldValue;
         }finally {
-            lock.unlock();
+            unlockRecord(key, r);
         }
     }
 
 
+    //delete(key, field) - removes the field together with its whole history
     public void delete(String key, String field) {
-        lock.lock();
+        Record r = lockRecord(key, false);
+        if(r == null) return;
+        long lsn;
         try {
-          List<Item> items = store.get(key);
-          items.removeIf(item -> item.getField().equals(field));
+          if(!r.fields.contains(field)) return;
+          lsn = write(r, Mutation.remove(key, field));
         }finally {
-            lock.unlock();
+            unlockRecord(key, r);
         }
+        finishWrite(lsn);
     }
 
     //SetAt(key, item, ts, ttl=null)
@@ -89,102 +935,573 @@ public class InMemoryDB {
     }
 
     //SetAtWithTTL(key, item, ts, ttl)
-    // items with key, item, ts, ttl
+    // adds a new version at ts; a version already written at ts is replaced
     public void setWithTTL(String key, String field, String value, int ts, int ttl){
-        lock.lock();
+        Record r = lockRecord(key, true);
+        long lsn;
         try {
-          List<Item> items = store.computeIfAbsent(key,s -> new ArrayList<>());
-          for(Item item: items){
-              if(item.getField().equals(field)) {
-                  item.fieldValue = value;
-                  item.timestamp = ts;
-                  item.ttl = ttl;
-              }
-          }
-          items.add(new Item(field, value, ts, ttl));
+          lsn = write(r, put(key, new Item(field, value, ts, ttl)));
         }finally {
-            lock.unlock();
+            unlockRecord(key, r);
         }
+        finishWrite(lsn);
     }
 
 
-    //getAt(key, ts) - Always get the live item
-        //If item is alive at this ts, then Get those items only
+    //getAt(key, ts) - value of the version that was current at ts
+        //binary search the field's chain, then check that version is still alive at ts
     public String getAt(String key, String field, int ts) {
-        lock.lock();
+        Record r = lockRecord(key, false);
+        if(r == null) return null;
         try {
-            List<Item> items = store.get(key);
-            if(items == null) return null;
-            for(Item item : items) {
-                if(item.getField().equalsIgnoreCase(field) && item.isAlive(ts)){
-                    return item.getFieldValue();
-                }
-            }
-            return null;
+            Item item = r.fields.floor(field, ts);
+            return item != null && item.isVisible(ts) ? item.getFieldValue() : null;
         }
         finally {
-            lock.unlock();
+            unlockRecord(key, r);
         }
     }
 
     //deleteAt(key, ts) - Always delete the live item
-    //If item is alive at this ts, then delete those items only
+    //If item is alive at this ts, a tombstone version is written at ts so reads before ts still see the value
     public boolean deleteAt (String key, String field, int ts) {
-        lock.lock();
+        Record r = lockRecord(key, false);
+        if(r == null) return false;
+        long lsn;
         try {
-            List<Item> items = store.get(key);
-            if(items == null) return false;
-           return  items.removeIf(item -> item.getField().equalsIgnoreCase(field) && item.isAlive(ts));
+            Item item = r.fields.floor(field, ts);
+            if(item == null || !item.isVisible(ts)) return false;
+            lsn = write(r, put(key, new Item(field, null, ts, 0)));
         }finally {
-            lock.unlock();
+            unlockRecord(key, r);
         }
+        finishWrite(lsn);
+        return true;
     }
 
     //ScanAt - scan for the live items at a specific timestamp
-    //Get all the items from Store
-    //Filter out the live items.
-    //Create a list to hold live items with fieldName, fieldValue
+    //For every field pick the version current at ts.
+    //Keep the live ones as fieldName(fieldValue), in field order.
     public List<String> scanAt(String key, int ts){
-        lock.lock();
-        try {
+        return scanByPrefixAt(key, "", ts);
+    }
+
+    //ScanByPrefixAt - scan for the prefixed items at a specific timestamp
+        //Walk the key's fields in name order, only those starting with prefix.
+        //For every field pick the version current at ts, keep it if it is live.
+
+        public List<String> scanByPrefixAt(String key, String prefix, int ts){
             List<String> out = new ArrayList<>();
-            List<Item> items = store.getOrDefault(key, new ArrayList<>());
-            //List<Item> items = store.getOrDefault(key,List.of());
-            for(Item item : items){
-                if(item.isAlive(ts)){
-                    out.add(item.getField()+ "(" + item.getFieldValue()+ ")");
-                    return out;
+            Record r = lockRecord(key, false);
+            if(r == null) return out;
+            try {
+                r.fields.scan(prefix, ts, out);
+                return out;
+            }finally {
+                unlockRecord(key, r);
+            }
+        }
+
+    //ScanAllByPrefixAt - every key that has live fields starting with prefix at ts, in key order,
+    //each with its fields as fieldName(fieldValue). Keys are visited one at a time, not as one snapshot.
+    public List<Map.Entry<String, List<String>>> scanAllByPrefixAt(String prefix, int ts) {
+        List<String> keys = new ArrayList<>(store.keySet());
+        keys.sort(null);
+        List<Map.Entry<String, List<String>>> out = new ArrayList<>();
+        for (String key : keys) {
+            List<String> fields = scanByPrefixAt(key, prefix, ts);
+            if (!fields.isEmpty()) out.add(Map.entry(key, fields));
+        }
+        return out;
+    }
+
+    /* ---------- point-in-time readers & version GC ---------- */
+
+    //openReader(ts) - pins ts so the collector keeps every version a read at ts needs, until close()
+    public Reader openReader(int ts) {
+        readersLock.lock();
+        try {
+            activeReaders.merge(ts, 1, Integer::sum);
+            oldestReader = activeReaders.firstKey();
+            return new Reader(ts);
+        } finally {
+            readersLock.unlock();
+        }
+    }
+
+    //oldest timestamp that must stay readable: the retention window or the oldest open reader, whichever is older
+    private int horizon() {
+        readersLock.lock();
+        try {
+            long h = (long) latestTimestamp.get() - retention;
+            if (!activeReaders.isEmpty()) h = Math.min(h, activeReaders.firstKey());
+            return (int) Math.max(h, Integer.MIN_VALUE);
+        } finally {
+            readersLock.unlock();
+        }
+    }
+
+    //purgeExpired() - removes every field that expired before the horizon
+    public int purgeExpired() {
+        return purgeExpired(Integer.MAX_VALUE);
+    }
+
+    //purgeExpired(limit) - pops at most limit due entries off the expiry index and prunes their fields.
+    //An entry is due once its expiry is older than the horizon: no read the db still has to answer can see
+    //the version. The entry may be stale (the field was rewritten since); pruning the field then just
+    //drops whatever history fell behind the horizon.
+    private int purgeExpired(int limit) {
+        int removed = 0;
+        for (int i = 0; i < limit; i++) {
+            Expiry due;
+            int horizon = horizon();
+            expiryLock.lock();
+            try {
+                due = expiries.peek();
+                if (due == null || due.expiresAt >= horizon) return removed;
+                expiries.poll();
+                nextExpiry = expiries.isEmpty() ? Long.MAX_VALUE : expiries.peek().expiresAt;
+            } finally {
+                expiryLock.unlock();
+            }
+            Record r = lockRecord(due.key, false);
+            if (r == null) continue;
+            try {
+                int pruned = r.fields.prune(due.field, horizon, this::nextStamp);
+                if (pruned > 0 && !r.fields.contains(due.field)) log(forget(due.key, List.of(due.field)));
+                removed += pruned;
+            } finally {
+                unlockRecord(due.key, r);
+            }
+        }
+        return removed;
+    }
+
+    //collectGarbage - drains the expiry index, then drops versions older than the horizon everywhere;
+    //returns how many were removed. Locks one key at a time so writers are not held up for a whole sweep.
+    public int collectGarbage() {
+        int removed = purgeExpired();
+        for (String key : store.keySet()) {
+            int horizon = horizon();
+            if (horizon == Integer.MIN_VALUE) return removed;
+            Record r = lockRecord(key, false);
+            if (r == null) continue;
+            try {
+                List<String> dropped = new ArrayList<>();
+                removed += r.fields.pruneAll(horizon, this::nextStamp, dropped);
+                if (!dropped.isEmpty()) log(forget(key, dropped));
+            } finally {
+                unlockRecord(key, r);
+            }
+        }
+        return removed;
+    }
+
+    /* ---------- transactions ---------- */
+
+    //beginTransaction - reads see the db as of this call, writes are buffered until commit
+    public Transaction beginTransaction() {
+        return new Transaction();
+    }
+
+    //registers a transaction and returns its begin stamp. Counted before the stamp is read, so any write
+    //stamped after it sees the count and keeps a before-image.
+    private long openTransaction() {
+        transactionsLock.lock();
+        try {
+            openTransactionCount.incrementAndGet();
+            long begin = writeSeq.get();
+            openTransactions.merge(begin, 1, Integer::sum);
+            return begin;
+        } finally {
+            transactionsLock.unlock();
+        }
+    }
+
+    //closeTransaction - once the oldest open transaction is gone, drops the images nobody can read any more
+    private void closeTransaction(long begin) {
+        long oldest;
+        transactionsLock.lock();
+        try {
+            boolean wasOldest = openTransactions.firstKey() == begin;
+            openTransactions.computeIfPresent(begin, (k, n) -> n == 1 ? null : n - 1);
+            openTransactionCount.decrementAndGet();
+            if (!wasOldest || openTransactions.containsKey(begin)) return;
+            //no later transaction can begin before writeSeq, so images stamped up to it are dead too
+            oldest = openTransactions.isEmpty() ? writeSeq.get() : openTransactions.firstKey();
+        } finally {
+            transactionsLock.unlock();
+        }
+        for (String key : undo.keySet()) {
+            undo.computeIfPresent(key, (k, images) -> {
+                synchronized (images) {
+                    images.removeIf(u -> u.stamp <= oldest);
+                    return images.isEmpty() ? null : images;
                 }
+            });
+        }
+    }
+
+    private void keepBeforeImage(String key, Undo image) {
+        undo.compute(key, (k, images) -> {
+            if (images == null) images = new ArrayList<>();
+            synchronized (images) {
+                images.add(image);
+            }
+            return images;
+        });
+    }
+
+    //the first before-image of key/field stamped after begin: the field as it was at begin. null if the
+    //field has not changed since begin (GC prunes keep no image, they only drop history behind the horizon)
+    private Undo imageAt(String key, String field, long begin) {
+        List<Undo> images = undo.get(key);
+        if (images == null) return null;
+        synchronized (images) {
+            for (Undo u : images) {
+                if (u.stamp > begin && u.field.equals(field)) return u;
             }
-            return null;
-        }finally {
-            lock.unlock();
         }
+        return null;
     }
 
-    //ScanByPrefixAt - scan for the prefixed items at a specific timestamp
-        //Get all the items from store.
-        //Filter out the live items. (isAlive method to be in Item class)
-        //if items.fieldNames.startsWith(prefix) & liveItem
-            // --> then Create a list to hold live items with fieldName, fieldValue
+    /* ---------- persistence ---------- */
 
-        public List<String> scanByPrefixAt(String key, String prefix, int ts){
-            lock.lock();
+    //checkpoint - snapshots the store and drops the log segments the snapshot covers.
+    //The log is rolled first; writes keep going while the snapshot is written, and the ones that land in
+    //both the snapshot and the new segment are replayed harmlessly, since puts and removes are idempotent.
+    //Before the snapshot is renamed into place the log is synced up to the newest record: a write is logged
+    //before it is applied, so that covers everything the snapshot holds. Otherwise a crash could keep a
+    //write (or one key of a transaction) whose log record never reached disk.
+    public void checkpoint() throws IOException {
+        if (wal == null) throw new IllegalStateException("InMemoryDB was not opened with a directory");
+        IOException failed = checkpointFailure.getAndSet(null);
+        if (failed != null) throw new IOException("Background checkpoint failed", failed);
+        checkpointLock.lock();
+        try {
+            long segment = wal.roll();
+            SnapshotFile.write(wal.dir(), segment, out -> {
+                writeSnapshot(out);
+                wal.sync(wal.lastLsn());
+            });
+            wal.deleteBefore(segment);
+            for (long n : SnapshotFile.snapshots(wal.dir())) {
+                if (n < segment) Files.deleteIfExists(SnapshotFile.path(wal.dir(), n));
+            }
+        } finally {
+            checkpointLock.unlock();
+        }
+    }
+
+    private void writeSnapshot(DataOutputStream out) throws IOException {
+        for (String key : store.keySet()) {
+            Record r = lockRecord(key, false);
+            if (r == null) continue;
             try {
-                List<String> out = new ArrayList<>();
-                List<Item> items = store.getOrDefault(key, new ArrayList<>());
-                //List<Item> items = store.getOrDefault(key,List.of());
-                for(Item item : items){
-                    if(item.getField().startsWith(prefix) && item.isAlive(ts) ){
-                        out.add(item.getField()+ "(" + item.getFieldValue()+ ")");
-                        return out;
+                WriteAheadLog.writeString(out, key);
+                r.fields.write(out);
+            } finally {
+                unlockRecord(key, r);
+            }
+        }
+    }
+
+    //versions go through apply like replayed ones, so TTL'd versions are back in the expiry index
+    private void readSnapshot(String key, DataInputStream in) throws IOException {
+        Record r = newRecord();
+        int fields = in.readInt();
+        for (int f = 0; f < fields; f++) {
+            String field = WriteAheadLog.readString(in);
+            int versions = in.readInt();
+            for (int i = 0; i < versions; i++) {
+                int ts = in.readInt();
+                int ttl = in.readInt();
+                apply(r, Mutation.put(key, field, WriteAheadLog.readString(in), ts, ttl), nextStamp());
+            }
+        }
+        store.put(key, r);
+    }
+
+    //recover - newest snapshot, then every log segment from it up to (not including) the one just opened.
+    //Records are decoded on this thread and replayed by one worker per key partition, so each key still
+    //sees its writes in log order while different partitions replay in parallel.
+    private void recover(Path dir, long openSegment) throws IOException {
+        List<Long> snapshots = SnapshotFile.snapshots(dir);
+        long from = 1;
+        if (!snapshots.isEmpty()) {
+            from = snapshots.get(snapshots.size() - 1);
+            SnapshotFile.read(SnapshotFile.path(dir, from), this::readSnapshot);
+        }
+        int partitions = Runtime.getRuntime().availableProcessors();
+        List<BlockingQueue<List<Mutation>>> queues = new ArrayList<>();
+        List<List<Mutation>> buffers = new ArrayList<>();
+        ExecutorService workers = Executors.newFixedThreadPool(partitions);
+        List<Future<Long>> replayed = new ArrayList<>();
+        for (int p = 0; p < partitions; p++) {
+            BlockingQueue<List<Mutation>> queue = new ArrayBlockingQueue<>(64);
+            queues.add(queue);
+            buffers.add(new ArrayList<>(RECOVERY_BATCH));
+            replayed.add(workers.submit(() -> replayPartition(queue)));
+        }
+        try {
+            for (long segment : WriteAheadLog.segments(dir)) {
+                if (segment < from || segment >= openSegment) continue;
+                WriteAheadLog.replay(WriteAheadLog.segmentPath(dir, segment), batch -> {
+                    for (Mutation m : batch) {
+                        int p = (m.key.hashCode() & 0x7fffffff) % partitions;
+                        List<Mutation> buffer = buffers.get(p);
+                        buffer.add(m);
+                        if (buffer.size() == RECOVERY_BATCH) {
+                            hand(queues.get(p), buffer);
+                            buffers.set(p, new ArrayList<>(RECOVERY_BATCH));
+                        }
                     }
+                });
+            }
+            for (int p = 0; p < partitions; p++) {
+                hand(queues.get(p), buffers.get(p));
+                hand(queues.get(p), END_OF_LOG);
+            }
+            long total = 0;
+            for (Future<Long> f : replayed) total += f.get();
+            recoveredMutations = total;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Recovery interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Recovery failed", e.getCause());
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private static final int RECOVERY_BATCH = 1024;
+    private static final List<Mutation> END_OF_LOG = new ArrayList<>();
+
+    private static void hand(BlockingQueue<List<Mutation>> queue, List<Mutation> batch) {
+        try {
+            queue.put(batch);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Recovery interrupted", e);
+        }
+    }
+
+    private long replayPartition(BlockingQueue<List<Mutation>> queue) throws InterruptedException {
+        long count = 0;
+        while (true) {
+            List<Mutation> batch = queue.take();
+            if (batch == END_OF_LOG) return count;
+            for (Mutation m : batch) {
+                Record r = lockRecord(m.key, true);
+                try {
+                    apply(r, m, nextStamp());
+                } finally {
+                    unlockRecord(m.key, r);
                 }
-                return null;
-            }finally {
-                lock.unlock();
+            }
+            count += batch.size();
+        }
+    }
+
+    //close - lets a running collector or checkpoint finish, flushes the log, then throws a background
+    //checkpoint failure nobody has seen yet
+    @Override
+    public void close() {
+        if (maintenance != null) {
+            maintenance.shutdown();
+            try {
+                maintenance.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
         }
+        if (wal != null) {
+            checkpointLock.lock();
+            try {
+                wal.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                checkpointLock.unlock();
+            }
+        }
+        IOException failed = checkpointFailure.getAndSet(null);
+        if (failed != null) throw new UncheckedIOException("Background checkpoint failed", failed);
+    }
+
+    //Reader - all reads happen at the pinned timestamp
+    public final class Reader implements AutoCloseable {
+        private final int ts;
+        private boolean closed;
+
+        private Reader(int ts) {
+            this.ts = ts;
+        }
+
+        public int timestamp() {
+            return ts;
+        }
+
+        public String get(String key, String field) {
+            return getAt(key, field, ts);
+        }
+
+        public List<String> scan(String key) {
+            return scanAt(key, ts);
+        }
+
+        public List<String> scanByPrefix(String key, String prefix) {
+            return scanByPrefixAt(key, prefix, ts);
+        }
+
+        @Override
+        public void close() {
+            readersLock.lock();
+            try {
+                if (closed) return;
+                closed = true;
+                activeReaders.computeIfPresent(ts, (k, n) -> n == 1 ? null : n - 1);
+                oldestReader = activeReaders.isEmpty() ? Long.MAX_VALUE : activeReaders.firstKey();
+            } finally {
+                readersLock.unlock();
+            }
+        }
+    }
+
+    /* Optimistic transaction with snapshot reads.
+     * begin is the write stamp when the transaction started. The first touch of a field copies its chain as
+     * of begin: the live chain if nothing changed it since, otherwise the before-image the first later change
+     * left behind. Later reads and writes work on that copy, so every read sees the db as of begin.
+     * commit() locks only the touched keys (in key order, so two commits cannot deadlock), checks no touched
+     * field changed since begin, then applies the buffered writes under one stamp, so another transaction
+     * sees all of them or none. Transactions over disjoint keys never wait on each other.
+     * Before-images are kept while a transaction is open: finish every one with commit, rollback or close. */
+    public final class Transaction implements AutoCloseable {
+        private final long begin = openTransaction();
+        //key -> field -> snapshot; TreeMap so commit locks keys in a fixed order
+        private final TreeMap<String, Map<String, VersionChain>> snapshot = new TreeMap<>();
+        //key -> field -> chain version when first touched (0 = field did not exist)
+        private final Map<String, Map<String, Long>> seen = new HashMap<>();
+        private final List<Mutation> writes = new ArrayList<>();
+        private boolean done;
+
+        private Transaction() {
+        }
+
+        //view(key, field) - the transaction's copy of the field as of begin, taken on first touch
+        private VersionChain view(String key, String field) {
+            if (done) throw new IllegalStateException("Transaction already finished");
+            Map<String, VersionChain> fields = snapshot.computeIfAbsent(key, k -> new HashMap<>());
+            VersionChain chain = fields.get(field);
+            if (chain != null) return chain;
+            Record r = lockRecord(key, false);
+            VersionChain live = null;
+            try {
+                if (r != null) live = r.fields.copy(field);
+            } finally {
+                if (r != null) unlockRecord(key, r);
+            }
+            //a change stamped after begin has been applied (or the live copy would not show it), and its
+            //image was kept before that, so looking it up after the copy is enough
+            Undo image = imageAt(key, field, begin);
+            if (image != null) live = image.before == null ? null : image.before.copy();
+            chain = live == null ? new VersionChain() : live;
+            fields.put(field, chain);
+            seen.computeIfAbsent(key, k -> new HashMap<>()).put(field, live == null ? 0L : chain.version);
+            return chain;
+        }
+
+        public String get(String key, String field) {
+            Item latest = view(key, field).latest();
+            return latest == null ? null : latest.fieldValue;
+        }
+
+        public String getAt(String key, String field, int ts) {
+            Item item = view(key, field).floor(ts);
+            return item != null && item.isVisible(ts) ? item.getFieldValue() : null;
+        }
+
+        public void set(String key, String field, String value) {
+            VersionChain chain = view(key, field);
+            put(chain, key, VersionChain.overwriteLatest(chain.latest(), field, value));
+        }
+
+        private void put(VersionChain chain, String key, Item item) {
+            chain.put(item);
+            writes.add(InMemoryDB.put(key, item));
+        }
+
+        public void setAt(String key, String field, String value, int ts) {
+            setWithTTL(key, field, value, ts, 0);
+        }
+
+        public void setWithTTL(String key, String field, String value, int ts, int ttl) {
+            put(view(key, field), key, new Item(field, value, ts, ttl));
+        }
+
+        public void delete(String key, String field) {
+            VersionChain chain = view(key, field);
+            snapshot.get(key).put(field, new VersionChain());
+            if (!chain.isEmpty()) writes.add(Mutation.remove(key, field));
+        }
+
+        public boolean deleteAt(String key, String field, int ts) {
+            VersionChain chain = view(key, field);
+            Item tombstone = chain.tombstoneAt(field, ts);
+            if (tombstone == null) return false;
+            put(chain, key, tombstone);
+            return true;
+        }
+
+        //commit - true if the writes were applied, false if another writer got there first (the transaction is then rolled back).
+        //A read-only transaction always commits: its reads were one consistent snapshot.
+        public boolean commit() {
+            if (done) throw new IllegalStateException("Transaction already finished");
+            done = true;
+            closeTransaction(begin);   // nothing is read from here on, its own writes need no images
+            if (writes.isEmpty()) return true;
+            Map<String, Record> locked = new LinkedHashMap<>();
+            long lsn;
+            try {
+                for (String key : snapshot.keySet()) {
+                    locked.put(key, lockRecord(key, true));
+                }
+                for (Map.Entry<String, Record> e : locked.entrySet()) {
+                    if (!unchanged(e.getValue(), seen.get(e.getKey()))) return false;
+                }
+                lsn = log(writes);
+                long stamp = nextStamp();
+                for (Mutation m : writes) {
+                    apply(locked.get(m.key), m, stamp);
+                }
+            } finally {
+                locked.forEach((key, r) -> unlockRecord(key, r));
+            }
+            finishWrite(lsn);
+            return true;
+        }
+
+        private boolean unchanged(Record r, Map<String, Long> versions) {
+            for (Map.Entry<String, Long> v : versions.entrySet()) {
+                if (r.fields.version(v.getKey()) != v.getValue()) return false;
+            }
+            return true;
+        }
+
+        //rollback - discards the buffered writes
+        public void rollback() {
+            if (!done) closeTransaction(begin);
+            done = true;
+            writes.clear();
+        }
+
+        //close - rolls back unless already committed or rolled back
+        @Override
+        public void close() {
+            rollback();
+        }
+    }
 }
 
 class InMemoryDBDemo {
@@ -200,5 +1517,42 @@ class InMemoryDBDemo {
         // scan
         System.out.println("Scan@200 -> " + db.scanAt("user:1", 200)); // [name(Alice)]
         System.out.println("Prefix 'na' -> " + db.scanByPrefixAt("user:1", "na", 200)); // same list
+        // history
+        db.setAt("user:2", "city", "Pune", 10);
+        db.setAt("user:2", "city", "Oslo", 20);
+        db.deleteAt("user:2", "city", 30);
+        System.out.println("city@15 -> " + db.getAt("user:2", "city", 15)); // Pune
+        System.out.println("city@25 -> " + db.getAt("user:2", "city", 25)); // Oslo
+        System.out.println("city@35 -> " + db.getAt("user:2", "city", 35)); // null (deleted)
+        // retention + readers
+        try (InMemoryDB hist = new InMemoryDB(5, 0)) {
+            hist.setAt("k", "f", "v1", 10);
+            InMemoryDB.Reader reader = hist.openReader(12);
+            hist.setAt("k", "f", "v2", 20);
+            hist.setAt("k", "f", "v3", 30);
+            System.out.println("GC removed " + hist.collectGarbage() + " version(s)"); // 0, reader@12 pins v1
+            System.out.println("reader@12 -> " + reader.get("k", "f")); // v1
+            reader.close();
+            System.out.println("GC removed " + hist.collectGarbage() + " version(s)"); // 1, v1 is older than the version current at ts 25
+        }
+        // expiry - with no retention, fields are purged once they expire behind the newest write
+        try (InMemoryDB ttl = new InMemoryDB(0, 0)) {
+            ttl.setWithTTL("s", "token", "abc", 100, 5);  // expires at 105
+            ttl.setAt("s", "user", "bob", 104);
+            ttl.setAt("s", "user", "eve", 110);            // time moves past 105, this write purges token
+            System.out.println("scan@110 -> " + ttl.scanAt("s", 110)); // [user(eve)]
+            System.out.println("token@103 -> " + ttl.getAt("s", "token", 103)); // null, purged
+        }
+        // transactions
+        db.set("acct:1", "balance", "100");
+        db.set("acct:2", "balance", "0");
+        InMemoryDB.Transaction t1 = db.beginTransaction();
+        InMemoryDB.Transaction t2 = db.beginTransaction();
+        t1.set("acct:1", "balance", String.valueOf(Integer.parseInt(t1.get("acct:1", "balance")) - 40));
+        t1.set("acct:2", "balance", String.valueOf(Integer.parseInt(t1.get("acct:2", "balance")) + 40));
+        t2.set("acct:1", "balance", String.valueOf(Integer.parseInt(t2.get("acct:1", "balance")) - 70));
+        System.out.println("t1 commit -> " + t1.commit()); // true
+        System.out.println("t2 commit -> " + t2.commit()); // false, acct:1 changed after t2 read it
+        System.out.println("balances -> " + db.get("acct:1", "balance") + ", " + db.get("acct:2", "balance")); // 60, 40
     }
 }
@@ -0,0 +1,29 @@
+package inmemorydb;
+
+/* One physical change to a field: put a version (tombstones included) or remove the field with its history.
+ * set/deleteAt are resolved to these before they are applied, so replaying the log gives the same store. */
+class Mutation {
+    final String key;
+    final String field;
+    final String value;
+    final int ts;
+    final int ttl;
+    final boolean remove;
+
+    Mutation(String key, String field, String value, int ts, int ttl, boolean remove) {
+        this.key = key;
+        this.field = field;
+        this.value = value;
+        this.ts = ts;
+        this.ttl = ttl;
+        this.remove = remove;
+    }
+
+    static Mutation put(String key, String field, String value, int ts, int ttl) {
+        return new Mutation(key, field, value, ts, ttl, false);
+    }
+
+    static Mutation remove(String key, String field) {
+        return new Mutation(key, field, null, 0, 0, true);
+    }
+}
@@ -0,0 +1,192 @@
+package inmemorydb;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/* ───────────────────── Sharded front-end ─────────────────────
+ * Keys are hash-partitioned over N independent InMemoryDB shards, each with its own locks, expiry index
+ * and (when opened on a directory) its own log and snapshots under dir/shard-<i>.
+ * Point operations go straight to the owning shard. Cross-key scans fan out to every shard on a
+ * fork-join pool and the per-shard results, already in key order, are merged pairwise on the way back.
+ * Transactions stay per shard: use shard(key).beginTransaction() for keys that live together. */
+public class ShardedInMemoryDB implements AutoCloseable {
+    private final InMemoryDB[] shards;
+    private final ForkJoinPool pool;
+
+    //in-memory shards, all with the same retention
+    public ShardedInMemoryDB(int shardCount, int retention, long gcIntervalMillis) {
+        this(shardCount, retention, gcIntervalMillis, InMemoryDB.Storage.OBJECTS);
+    }
+
+    public ShardedInMemoryDB(int shardCount, int retention, long gcIntervalMillis, InMemoryDB.Storage storage) {
+        this(new InMemoryDB[checkCount(shardCount)]);
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new InMemoryDB(retention, gcIntervalMillis, storage);
+        }
+    }
+
+    private ShardedInMemoryDB(InMemoryDB[] shards) {
+        this.shards = shards;
+        this.pool = new ForkJoinPool(Math.min(shards.length, Runtime.getRuntime().availableProcessors()));
+    }
+
+    private static int checkCount(int shardCount) {
+        if (shardCount < 1) throw new IllegalArgumentException("shardCount must be >= 1");
+        return shardCount;
+    }
+
+    //open - durable shards under dir/shard-0 .. dir/shard-(n-1); the shard count must not change between runs
+    public static ShardedInMemoryDB open(Path dir, int shardCount, int retention, long gcIntervalMillis,
+                                         long checkpointIntervalMillis) throws IOException {
+        return open(dir, shardCount, retention, gcIntervalMillis, checkpointIntervalMillis, InMemoryDB.Storage.OBJECTS);
+    }
+
+    public static ShardedInMemoryDB open(Path dir, int shardCount, int retention, long gcIntervalMillis,
+                                         long checkpointIntervalMillis, InMemoryDB.Storage storage) throws IOException {
+        ShardedInMemoryDB db = new ShardedInMemoryDB(new InMemoryDB[checkCount(shardCount)]);
+        try {
+            for (int i = 0; i < shardCount; i++) {
+                db.shards[i] = InMemoryDB.open(dir.resolve("shard-" + i), retention, gcIntervalMillis,
+                        checkpointIntervalMillis, storage);
+            }
+        } catch (IOException | RuntimeException e) {
+            db.close();
+            throw e;
+        }
+        return db;
+    }
+
+    //the shard that owns key
+    public InMemoryDB shard(String key) {
+        int h = key.hashCode();
+        return shards[((h ^ (h >>> 16)) & 0x7fffffff) % shards.length];
+    }
+
+    public int shardCount() {
+        return shards.length;
+    }
+
+    /* ---------- point operations ---------- */
+
+    public void set(String key, String field, String value) {
+        shard(key).set(key, field, value);
+    }
+
+    public String get(String key, String field) {
+        return shard(key).get(key, field);
+    }
+
+    public void delete(String key, String field) {
+        shard(key).delete(key, field);
+    }
+
+    public void setAt(String key, String field, String value, int ts) {
+        shard(key).setAt(key, field, value, ts);
+    }
+
+    public void setWithTTL(String key, String field, String value, int ts, int ttl) {
+        shard(key).setWithTTL(key, field, value, ts, ttl);
+    }
+
+    public String getAt(String key, String field, int ts) {
+        return shard(key).getAt(key, field, ts);
+    }
+
+    public boolean deleteAt(String key, String field, int ts) {
+        return shard(key).deleteAt(key, field, ts);
+    }
+
+    public List<String> scanAt(String key, int ts) {
+        return shard(key).scanAt(key, ts);
+    }
+
+    public List<String> scanByPrefixAt(String key, String prefix, int ts) {
+        return shard(key).scanByPrefixAt(key, prefix, ts);
+    }
+
+    /* ---------- scatter-gather ---------- */
+
+    //scanAllByPrefixAt - every key with live fields starting with prefix at ts, across all shards, in key order
+    public List<Map.Entry<String, List<String>>> scanAllByPrefixAt(String prefix, int ts) {
+        return pool.invoke(new ScanTask(0, shards.length, prefix, ts));
+    }
+
+    //splits the shard range in halves until one shard is left, then merges the sorted halves.
+    //Shards own disjoint keys, so the merge never sees the same key twice.
+    private final class ScanTask extends RecursiveTask<List<Map.Entry<String, List<String>>>> {
+        private static final long serialVersionUID = 1L;
+        private final int from, to;
+        private final String prefix;
+        private final int ts;
+
+        ScanTask(int from, int to, String prefix, int ts) {
+            this.from = from;
+            this.to = to;
+            this.prefix = prefix;
+            this.ts = ts;
+        }
+
+        @Override
+        protected List<Map.Entry<String, List<String>>> compute() {
+            if (to - from == 1) return shards[from].scanAllByPrefixAt(prefix, ts);
+            int mid = (from + to) >>> 1;
+            ScanTask left = new ScanTask(from, mid, prefix, ts);
+            left.fork();
+            List<Map.Entry<String, List<String>>> right = new ScanTask(mid, to, prefix, ts).compute();
+            return merge(left.join(), right);
+        }
+    }
+
+    static List<Map.Entry<String, List<String>>> merge(List<Map.Entry<String, List<String>>> a,
+                                                       List<Map.Entry<String, List<String>>> b) {
+        List<Map.Entry<String, List<String>>> out = new ArrayList<>(a.size() + b.size());
+        int i = 0, j = 0;
+        while (i < a.size() && j < b.size()) {
+            out.add(a.get(i).getKey().compareTo(b.get(j).getKey()) <= 0 ? a.get(i++) : b.get(j++));
+        }
+        out.addAll(a.subList(i, a.size()));
+        out.addAll(b.subList(j, b.size()));
+        return out;
+    }
+
+    /* ---------- maintenance ---------- */
+
+    public int collectGarbage() {
+        int removed = 0;
+        for (InMemoryDB shard : shards) removed += shard.collectGarbage();
+        return removed;
+    }
+
+    public void checkpoint() throws IOException {
+        for (InMemoryDB shard : shards) shard.checkpoint();
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+        for (InMemoryDB shard : shards) {
+            if (shard != null) shard.close();
+        }
+    }
+}
+
+class ShardedInMemoryDBDemo {
+    public static void main(String[] args) {
+        try (ShardedInMemoryDB db = new ShardedInMemoryDB(4, Integer.MAX_VALUE, 0)) {
+            for (int i = 1; i <= 6; i++) {
+                db.setAt("user:" + i, "name", "u" + i, 10);
+                db.setAt("user:" + i, "nick", "n" + i, 10);
+                db.setAt("user:" + i, "age", String.valueOf(20 + i), 10);
+            }
+            db.deleteAt("user:3", "nick", 20);
+            System.out.println("user:2 name -> " + db.get("user:2", "name")); // u2
+            // user:1 .. user:6 in order, user:3 only has name(u3) at ts 25
+            db.scanAllByPrefixAt("n", 25).forEach(e -> System.out.println(e.getKey() + " -> " + e.getValue()));
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package inmemorydb;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.*;
+/**
+ * ShardedInMemoryDB: the scatter-gather scan must return what one InMemoryDB holding every key returns,
+ * in key order, also while writers run and after a durable reopen.
+ */
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class ShardedTests {
+    private static final int SHARDS = 5;
+    private static final int THREADS = 4;
+    private ShardedInMemoryDB sharded;
+    private InMemoryDB single;
+    @BeforeEach
+    public void setUp() {
+        sharded = new ShardedInMemoryDB(SHARDS, Integer.MAX_VALUE, 0);
+        single = new InMemoryDB(Integer.MAX_VALUE, 0);
+    }
+    @AfterEach
+    public void tearDown() {
+        sharded.close();
+        single.close();
+    }
+    /**
+     * 300 keys with name/nick/age fields, some tombstoned later -> every prefix and ts scans
+     * the same as the single db; point reads go to the owning shard
+     */
+    @Test
+    @Order(1)
+    public void test_01_scanMatchesSingleDb() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            Random random = new Random(1);
+            for (int i = 0; i < 300; ++i) {
+                String key = "user:" + i;
+                for (String field : List.of("name", "nick", "age")) {
+                    int ts = 1 + random.nextInt(100);
+                    sharded.setAt(key, field, field + i, ts);
+                    single.setAt(key, field, field + i, ts);
+                }
+                if (i % 7 == 0) {
+                    sharded.deleteAt(key, "nick", 150);
+                    single.deleteAt(key, "nick", 150);
+                }
+            }
+            for (String prefix : List.of("", "n", "na", "age", "zzz")) {
+                for (int ts : new int[] {0, 50, 120, 200}) {
+                    Assertions.assertEquals(single.scanAllByPrefixAt(prefix, ts), sharded.scanAllByPrefixAt(prefix, ts));
+                }
+            }
+            Assertions.assertEquals("name7", sharded.getAt("user:7", "name", 200));
+            Assertions.assertNull(sharded.getAt("user:7", "nick", 200));
+        });
+    }
+    /**
+     * THREADS writers fill disjoint keys while THREADS scanners scan all keys;
+     * every scan comes back in strictly increasing key order, the final scan matches the single db
+     */
+    @Test
+    @Order(2)
+    public void test_02_scansDuringWrites() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(60), () -> {
+            AtomicBoolean done = new AtomicBoolean();
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            CountDownLatch start = new CountDownLatch(1);
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < THREADS * 2; ++t) {
+                int id = t;
+                Thread thread = new Thread(() -> {
+                    try {
+                        start.await();
+                        if (id < THREADS) {
+                            for (int i = id; i < 2000; i += THREADS) {
+                                sharded.setAt("key:" + i, "f" + i % 3, "v" + i, i);
+                            }
+                            return;
+                        }
+                        while (!done.get()) {
+                            List<Map.Entry<String, List<String>>> scan = sharded.scanAllByPrefixAt("f", Integer.MAX_VALUE);
+                            for (int i = 1; i < scan.size(); ++i) {
+                                Assertions.assertTrue(scan.get(i - 1).getKey().compareTo(scan.get(i).getKey()) < 0);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.set(e);
+                    }
+                });
+                thread.start();
+                threads.add(thread);
+            }
+            start.countDown();
+            for (int t = 0; t < THREADS; ++t) {
+                threads.get(t).join();
+            }
+            done.set(true);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            Assertions.assertNull(failure.get());
+            for (int i = 0; i < 2000; ++i) {
+                single.setAt("key:" + i, "f" + i % 3, "v" + i, i);
+            }
+            Assertions.assertEquals(single.scanAllByPrefixAt("f", Integer.MAX_VALUE), sharded.scanAllByPrefixAt("f", Integer.MAX_VALUE));
+        });
+    }
+    /**
+     * Durable shards: write, checkpoint, write more, close -> reopening the directory scans the same
+     */
+    @Test
+    @Order(3)
+    public void test_03_durableReopen() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            Path dir = Files.createTempDirectory("sharded-inmemorydb");
+            try {
+                List<Map.Entry<String, List<String>>> before;
+                try (ShardedInMemoryDB db = ShardedInMemoryDB.open(dir, SHARDS, Integer.MAX_VALUE, 0, 0)) {
+                    for (int i = 0; i < 500; ++i) {
+                        db.setAt("key:" + i, "f", "v" + i, i);
+                        if (i == 250) db.checkpoint();
+                    }
+                    db.deleteAt("key:3", "f", 600);
+                    before = db.scanAllByPrefixAt("", 700);
+                }
+                Assertions.assertEquals(499, before.size());
+                try (ShardedInMemoryDB db = ShardedInMemoryDB.open(dir, SHARDS, Integer.MAX_VALUE, 0, 0)) {
+                    Assertions.assertEquals(before, db.scanAllByPrefixAt("", 700));
+                    Assertions.assertEquals("v3", db.getAt("key:3", "f", 599));
+                }
+            } finally {
+                try (Stream<Path> files = Files.walk(dir)) {
+                    files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+                }
+            }
+        });
+    }
+}
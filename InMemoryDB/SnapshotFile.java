@@ -0,0 +1,94 @@
+package inmemorydb;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/* ───────────────────── Snapshot files ─────────────────────
+ * snapshot-<n>.db holds the full store as of the moment segment n was started, so recovery loads it
+ * and replays segments >= n. Layout: per key [key][field count], per field [field][version count],
+ * per version [ts][ttl][value or null], then a null key and the crc32 of everything before it.
+ * Written to a .tmp file and renamed, so a crash mid-snapshot leaves the previous one in place; the
+ * directory is synced after the rename, before the caller deletes what the snapshot replaces. */
+class SnapshotFile {
+
+    static Path path(Path dir, long n) {
+        return dir.resolve("snapshot-" + n + ".db");
+    }
+
+    static List<Long> snapshots(Path dir) throws IOException {
+        return WriteAheadLog.numbered(dir, "snapshot-", ".db");
+    }
+
+    interface Writer {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    static void write(Path dir, long n, Writer body) throws IOException {
+        Path tmp = dir.resolve("snapshot-" + n + ".tmp");
+        FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        CRC32 crc = new CRC32();
+        try (OutputStream raw = Channels.newOutputStream(ch);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(raw, crc), 1 << 20))) {
+            body.write(out);
+            WriteAheadLog.writeString(out, null);
+            out.flush();
+            new DataOutputStream(raw).writeInt((int) crc.getValue());
+            ch.force(false);
+        }
+        Files.move(tmp, path(dir, n), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        WriteAheadLog.syncDirectory(dir);
+    }
+
+    interface Reader {
+        void read(String key, DataInputStream in) throws IOException;
+    }
+
+    //read(file, reader) - checks the trailing crc, then calls reader once per key
+    static void read(Path file, Reader reader) throws IOException {
+        verify(file);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 20))) {
+            String key;
+            while ((key = WriteAheadLog.readString(in)) != null) {
+                reader.read(key, in);
+            }
+        }
+    }
+
+    private static void verify(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long body = ch.size() - 4;
+            if (body < 4) throw new IOException("Corrupt snapshot " + file);
+            CRC32 crc = new CRC32();
+            ByteBuffer buf = ByteBuffer.allocate(1 << 20);
+            long pos = 0;
+            while (pos < body) {
+                buf.clear().limit((int) Math.min(buf.capacity(), body - pos));
+                int n = ch.read(buf, pos);
+                if (n < 0) throw new IOException("Corrupt snapshot " + file);
+                buf.flip();
+                crc.update(buf);
+                pos += n;
+            }
+            ByteBuffer trailer = ByteBuffer.allocate(4);
+            while (trailer.hasRemaining() && ch.read(trailer, body + trailer.position()) >= 0) { }
+            if (trailer.flip().getInt() != (int) crc.getValue()) {
+                throw new IOException("Corrupt snapshot " + file);
+            }
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package inmemorydb;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.*;
+/**
+ * InMemoryDB transactions: every read of a transaction sees the db as of beginTransaction(),
+ * commit fails when a touched field changed since then, and commits are all-or-nothing to other transactions.
+ * Every test runs once per storage mode.
+ */
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class TransactionTests {
+    private static final int THREADS = 8;
+    private static final int ACCOUNTS = 16;
+    private InMemoryDB db;
+    /**
+     * t begins, a later transaction moves 40 from acct:1 to acct:2 and commits,
+     * t then touches both fields for the first time -> still 100 and 0.
+     * A field deleted and one created after t began read as they were at the begin too
+     */
+    @Test
+    @Order(1)
+    public void test_01_snapshotReads() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(5), () -> forEachStorage(storage -> {
+            db.set("acct:1", "balance", "100");
+            db.set("acct:2", "balance", "0");
+            db.setAt("user:1", "city", "Pune", 10);
+            InMemoryDB.Transaction t = db.beginTransaction();
+            try (InMemoryDB.Transaction move = db.beginTransaction()) {
+                move.set("acct:1", "balance", "60");
+                move.set("acct:2", "balance", "40");
+                Assertions.assertTrue(move.commit());
+            }
+            db.delete("user:1", "city");
+            db.setAt("user:2", "city", "Oslo", 10);
+            Assertions.assertEquals("100", t.get("acct:1", "balance"));
+            Assertions.assertEquals("0", t.get("acct:2", "balance"));
+            Assertions.assertEquals("Pune", t.getAt("user:1", "city", 15));
+            Assertions.assertNull(t.getAt("user:2", "city", 15));
+            Assertions.assertTrue(t.commit());    // read-only
+            Assertions.assertEquals("60", db.get("acct:1", "balance"));
+            Assertions.assertNull(db.getAt("user:1", "city", 15));
+        }));
+    }
+    /**
+     * Two transactions write the same field -> the second commit fails and leaves nothing behind.
+     * A plain set() after a transaction began on a field it writes fails it too.
+     * Transactions over disjoint keys both commit
+     */
+    @Test
+    @Order(2)
+    public void test_02_writeWriteConflicts() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(5), () -> forEachStorage(storage -> {
+            db.set("k", "f", "0");
+            InMemoryDB.Transaction a = db.beginTransaction();
+            InMemoryDB.Transaction b = db.beginTransaction();
+            a.set("k", "f", "a");
+            b.set("k", "f", "b");
+            b.set("other", "f", "b");
+            Assertions.assertTrue(a.commit());
+            Assertions.assertFalse(b.commit());
+            Assertions.assertEquals("a", db.get("k", "f"));
+            Assertions.assertNull(db.get("other", "f"));
+
+            InMemoryDB.Transaction c = db.beginTransaction();
+            c.set("k", "f", "c");
+            db.set("k", "f", "plain");
+            Assertions.assertFalse(c.commit());
+            Assertions.assertEquals("plain", db.get("k", "f"));
+
+            InMemoryDB.Transaction d = db.beginTransaction();
+            InMemoryDB.Transaction e = db.beginTransaction();
+            d.set("x", "f", "d");
+            e.set("y", "f", "e");
+            Assertions.assertTrue(e.commit());
+            Assertions.assertTrue(d.commit());
+            Assertions.assertEquals("d", db.get("x", "f"));
+            Assertions.assertEquals("e", db.get("y", "f"));
+
+            InMemoryDB.Transaction rolledBack = db.beginTransaction();
+            rolledBack.set("x", "f", "never");
+            rolledBack.close();
+            Assertions.assertEquals("d", db.get("x", "f"));
+            Assertions.assertThrows(IllegalStateException.class, () -> rolledBack.get("x", "f"));
+        }));
+    }
+    /**
+     * THREADS threads add 1 to one counter 500 times each, retrying on conflict -> no increment is lost
+     */
+    @Test
+    @Order(3)
+    public void test_03_noLostUpdates() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(30), () -> forEachStorage(storage -> {
+            db.set("counter", "n", "0");
+            runThreads(t -> {
+                for (int i = 0; i < 500; ++i) {
+                    while (true) {
+                        InMemoryDB.Transaction tx = db.beginTransaction();
+                        tx.set("counter", "n", String.valueOf(Integer.parseInt(tx.get("counter", "n")) + 1));
+                        if (tx.commit()) break;
+                    }
+                }
+            });
+            Assertions.assertEquals(String.valueOf(THREADS * 500), db.get("counter", "n"));
+        }));
+    }
+    /**
+     * Half the threads move random amounts between ACCOUNTS accounts in transactions,
+     * the other half sum every balance inside one read-only transaction.
+     * A reader that saw part of a transfer would get a sum other than ACCOUNTS * 1000
+     */
+    @Test
+    @Order(4)
+    public void test_04_readersSeeWholeCommits() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(60), () -> forEachStorage(storage -> {
+            for (int a = 0; a < ACCOUNTS; ++a) {
+                db.set("acct:" + a, "balance", "1000");
+            }
+            AtomicInteger commits = new AtomicInteger();
+            runThreads(t -> {
+                Random random = new Random(t);
+                for (int i = 0; i < 2000; ++i) {
+                    if (t % 2 == 0) {
+                        String from = "acct:" + random.nextInt(ACCOUNTS), to = "acct:" + random.nextInt(ACCOUNTS);
+                        if (from.equals(to)) continue;
+                        InMemoryDB.Transaction tx = db.beginTransaction();
+                        int amount = random.nextInt(100);
+                        tx.set(from, "balance", String.valueOf(Integer.parseInt(tx.get(from, "balance")) - amount));
+                        tx.set(to, "balance", String.valueOf(Integer.parseInt(tx.get(to, "balance")) + amount));
+                        if (tx.commit()) commits.incrementAndGet();
+                    } else {
+                        try (InMemoryDB.Transaction tx = db.beginTransaction()) {
+                            int sum = 0;
+                            for (int a = 0; a < ACCOUNTS; ++a) {
+                                sum += Integer.parseInt(tx.get("acct:" + a, "balance"));
+                                if (a % 4 == 0) Thread.yield();   // let commits land between the reads
+                            }
+                            Assertions.assertEquals(ACCOUNTS * 1000, sum);
+                        }
+                    }
+                }
+            });
+            Assertions.assertTrue(commits.get() > 0);
+            int total = 0;
+            for (int a = 0; a < ACCOUNTS; ++a) {
+                total += Integer.parseInt(db.get("acct:" + a, "balance"));
+            }
+            Assertions.assertEquals(ACCOUNTS * 1000, total);
+        }));
+    }
+
+    private interface Check {
+        void run(InMemoryDB.Storage storage) throws Throwable;
+    }
+
+    //runs check against a fresh db (all history kept, no background GC) in each storage mode
+    private void forEachStorage(Check check) throws Throwable {
+        for (InMemoryDB.Storage storage : InMemoryDB.Storage.values()) {
+            db = new InMemoryDB(Integer.MAX_VALUE, 0, storage);
+            try {
+                check.run(storage);
+            } catch (AssertionError e) {
+                throw new AssertionError(storage + ": " + e.getMessage(), e);
+            } finally {
+                db.close();
+            }
+        }
+    }
+
+    private interface Worker {
+        void run(int thread);
+    }
+
+    private static void runThreads(Worker worker) throws Throwable {
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; ++t) {
+            int id = t;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    worker.run(id);
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package inmemorydb;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/* ───────────────────── Write-ahead log ─────────────────────
+ * Segment files wal-<n>.log, each a sequence of records:
+ *     [int length][int crc32][payload]
+ * payload = [int count] followed by count mutations, so a transaction is one record and lands atomically.
+ *
+ * Group commit: append() only copies the record into the pending buffer. The first writer to call
+ * sync() becomes the leader, writes everything pending with one write + force and wakes the others;
+ * writers that arrive while a flush is running wait for the next one.
+ *
+ * A failed flush may have written part of a batch, and nothing after it can be trusted to replay, so the
+ * log stops there for good: sync, roll and close all throw, and durableLsn never moves past the gap.
+ * FeedLog and BankJournal follow the same scheme with their own record formats; the projects in this
+ * repo share no code, so each carries its own copy. */
+class WriteAheadLog implements AutoCloseable {
+    static final int MAX_RECORD = 1 << 30;
+
+    private final Path dir;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition flushed = lock.newCondition();
+
+    private FileChannel channel;
+    private long segment;
+    private ByteBuffer pending = ByteBuffer.allocate(1 << 16);
+    private ByteBuffer spare = ByteBuffer.allocate(1 << 16);
+    private long appendedLsn;
+    private long durableLsn;
+    private boolean flushing;
+    private IOException failed;   // first failed flush; records after it never become durable
+
+    //opens a fresh segment after the newest one already in dir
+    WriteAheadLog(Path dir) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+        List<Long> existing = segments(dir);
+        segment = existing.isEmpty() ? 1 : existing.get(existing.size() - 1) + 1;
+        channel = open(segment);
+    }
+
+    //the new segment's directory entry is synced too, or a crash could lose the file with its synced records
+    private FileChannel open(long n) throws IOException {
+        FileChannel ch = FileChannel.open(segmentPath(dir, n),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        try {
+            syncDirectory(dir);
+        } catch (IOException e) {
+            ch.close();
+            throw e;
+        }
+        return ch;
+    }
+
+    //makes creates, renames and deletes in dir durable
+    static void syncDirectory(Path dir) throws IOException {
+        try (FileChannel ch = FileChannel.open(dir, StandardOpenOption.READ)) {
+            ch.force(true);
+        }
+    }
+
+    static Path segmentPath(Path dir, long n) {
+        return dir.resolve("wal-" + n + ".log");
+    }
+
+    //segment numbers in dir, oldest first
+    static List<Long> segments(Path dir) throws IOException {
+        return numbered(dir, "wal-", ".log");
+    }
+
+    static List<Long> numbered(Path dir, String prefix, String suffix) throws IOException {
+        List<Long> out = new ArrayList<>();
+        if (!Files.isDirectory(dir)) return out;
+        try (Stream<Path> files = Files.list(dir)) {
+            files.map(p -> p.getFileName().toString())
+                    .filter(n -> n.startsWith(prefix) && n.endsWith(suffix))
+                    .forEach(n -> out.add(Long.parseLong(n.substring(prefix.length(), n.length() - suffix.length()))));
+        }
+        out.sort(null);
+        return out;
+    }
+
+    Path dir() {
+        return dir;
+    }
+
+    //the segment new records go to
+    long segment() {
+        lock.lock();
+        try {
+            return segment;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //sequence number of the newest record appended, durable or not
+    long lastLsn() {
+        lock.lock();
+        try {
+            return appendedLsn;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //append(mutations) - buffers one record, returns its sequence number for sync()
+    long append(List<Mutation> mutations) {
+        byte[] payload = encode(mutations);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        lock.lock();
+        try {
+            pending = ensureRoom(pending, payload.length + 8);
+            pending.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+            return ++appendedLsn;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static ByteBuffer ensureRoom(ByteBuffer buf, int needed) {
+        if (buf.remaining() >= needed) return buf;
+        ByteBuffer bigger = ByteBuffer.allocate(Math.max(buf.capacity() * 2, buf.position() + needed));
+        buf.flip();
+        return bigger.put(buf);
+    }
+
+    //sync(lsn) - returns once the record with this sequence number is on disk
+    void sync(long lsn) {
+        lock.lock();
+        try {
+            while (durableLsn < lsn) {
+                if (failed != null) throw new UncheckedIOException(failed);
+                if (flushing) {
+                    flushed.awaitUninterruptibly();
+                    continue;
+                }
+                flushing = true;
+                ByteBuffer batch = pending;
+                long upTo = appendedLsn;
+                FileChannel ch = channel;
+                pending = spare;
+                lock.unlock();
+                try {
+                    writeFully(ch, batch);
+                } catch (IOException e) {
+                    failed = e;
+                } finally {
+                    lock.lock();
+                }
+                batch.clear();
+                spare = batch;
+                flushing = false;
+                if (failed == null) durableLsn = upTo;
+                flushed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer batch) throws IOException {
+        batch.flip();
+        while (batch.hasRemaining()) ch.write(batch);
+        ch.force(false);
+    }
+
+    //roll - flushes what is pending and starts a new segment; returns the new segment number
+    long roll() throws IOException {
+        lock.lock();
+        try {
+            flushPending();
+            FileChannel next = open(segment + 1);
+            channel.close();
+            channel = next;
+            return ++segment;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //flushPending - under the lock: writes what is pending once no flush is running, or throws if one failed
+    private void flushPending() throws IOException {
+        while (flushing) flushed.awaitUninterruptibly();
+        if (failed != null) throw new IOException("Log stopped at a failed flush", failed);
+        try {
+            writeFully(channel, pending);
+        } catch (IOException e) {
+            failed = e;
+            flushed.signalAll();
+            throw e;
+        }
+        pending.clear();
+        durableLsn = appendedLsn;
+    }
+
+    //drops segments older than n, they are covered by a snapshot
+    void deleteBefore(long n) throws IOException {
+        for (long s : segments(dir)) {
+            if (s < n) Files.deleteIfExists(segmentPath(dir, s));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            flushPending();
+        } finally {
+            try {
+                channel.close();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /* ---------- record format ---------- */
+
+    static byte[] encode(List<Mutation> mutations) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * mutations.size());
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(mutations.size());
+            for (Mutation m : mutations) writeMutation(out, m);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static void writeMutation(DataOutputStream out, Mutation m) throws IOException {
+        out.writeBoolean(m.remove);
+        writeString(out, m.key);
+        writeString(out, m.field);
+        if (m.remove) return;
+        writeString(out, m.value);
+        out.writeInt(m.ts);
+        out.writeInt(m.ttl);
+    }
+
+    static Mutation readMutation(DataInputStream in) throws IOException {
+        boolean remove = in.readBoolean();
+        String key = readString(in);
+        String field = readString(in);
+        if (remove) return Mutation.remove(key, field);
+        String value = readString(in);
+        int ts = in.readInt();
+        int ttl = in.readInt();
+        return Mutation.put(key, field, value, ts, ttl);
+    }
+
+    //strings as [int byteLength][utf-8], -1 for null (tombstones)
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        if (n < 0) return null;
+        byte[] b = new byte[n];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    //replay(segment, sink) - feeds every intact record to sink, stops at the first torn or corrupt one.
+    //Only the tail of a segment can be torn: after a crash, recovery always starts a new segment.
+    static long replay(Path file, Consumer<List<Mutation>> sink) throws IOException {
+        long records = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(FileChannel.open(file, StandardOpenOption.READ)), 1 << 20))) {
+            while (true) {
+                byte[] payload;
+                int crc;
+                try {
+                    int length = in.readInt();
+                    crc = in.readInt();
+                    if (length < 0 || length > MAX_RECORD) return records;
+                    payload = new byte[length];
+                    in.readFully(payload);
+                } catch (EOFException torn) {
+                    return records;
+                }
+                CRC32 check = new CRC32();
+                check.update(payload);
+                if ((int) check.getValue() != crc) return records;
+                DataInputStream rec = new DataInputStream(new ByteArrayInputStream(payload));
+                int count = rec.readInt();
+                List<Mutation> batch = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) batch.add(readMutation(rec));
+                sink.accept(batch);
+                records++;
+            }
+        }
+    }
+}
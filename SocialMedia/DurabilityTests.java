@@ -0,0 +1,374 @@
+package tweetservice;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.*;
+/**
+ * Durable FeedService: what open() rebuilds from the snapshot and log must be the service that was closed,
+ * or, after a crash, the service as of some earlier log record.
+ * A service is compared by its state: every user's whole feed, paged, and follower list.
+ */
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class DurabilityTests {
+    private static final int USERS = 12;
+    private static final int THREADS = 8;
+    private Path dir;
+    @BeforeEach
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("feed-durability");
+    }
+    @AfterEach
+    public void tearDown() throws IOException {
+        delete(dir);
+    }
+    /**
+     * Random posts, follows and unfollows with a checkpoint halfway; close, reopen -> same state,
+     * in pull mode and in fan-out mode (whose timelines are rebuilt), and again after more writes
+     */
+    @Test
+    @Order(1)
+    public void test_01_reopen() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            for (boolean fanOut : new boolean[] {false, true}) {
+                Path d = dir.resolve(fanOut ? "fan-out" : "pull");
+                Random random = new Random(1);
+                String before;
+                try (FeedService svc = open(d, fanOut)) {
+                    for (int i = 0; i < 2000; ++i) {
+                        randomOp(svc, random, i);
+                        if (i == 1000) svc.checkpoint();
+                    }
+                    before = state(svc, fanOut);
+                }
+                try (FeedService svc = open(d, fanOut)) {
+                    Assertions.assertEquals(before, state(svc, fanOut));
+                    for (int i = 2000; i < 2500; ++i) {
+                        randomOp(svc, random, i);
+                    }
+                    before = state(svc, fanOut);
+                }
+                try (FeedService svc = open(d, fanOut)) {
+                    Assertions.assertEquals(before, state(svc, fanOut));
+                }
+            }
+        });
+    }
+    /**
+     * THREADS threads post, follow and unfollow while another thread checkpoints in a loop,
+     * so snapshots are taken in the middle of writes; the reopened service must match exactly
+     */
+    @Test
+    @Order(2)
+    public void test_02_checkpointsDuringWrites() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(60), () -> {
+            String before;
+            try (FeedService svc = open(dir, false)) {
+                AtomicBoolean done = new AtomicBoolean();
+                AtomicReference<Throwable> failure = new AtomicReference<>();
+                Thread checkpointer = new Thread(() -> {
+                    try {
+                        while (!done.get()) {
+                            svc.checkpoint();
+                        }
+                    } catch (Throwable e) {
+                        failure.set(e);
+                    }
+                });
+                checkpointer.start();
+                CountDownLatch start = new CountDownLatch(1);
+                List<Thread> threads = new ArrayList<>();
+                for (int t = 0; t < THREADS; ++t) {
+                    int seed = t;
+                    Thread thread = new Thread(() -> {
+                        try {
+                            start.await();
+                            Random random = new Random(seed);
+                            for (int i = 0; i < 1000; ++i) {
+                                randomOp(svc, random, i);
+                            }
+                        } catch (Throwable e) {
+                            failure.set(e);
+                        }
+                    });
+                    thread.start();
+                    threads.add(thread);
+                }
+                start.countDown();
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+                done.set(true);
+                checkpointer.join();
+                Assertions.assertNull(failure.get());
+                before = state(svc, false);
+            }
+            try (FeedService svc = open(dir, false)) {
+                Assertions.assertEquals(before, state(svc, false));
+            }
+        });
+    }
+    /**
+     * Crash injection: one thread writes after a checkpoint and the state after every write is kept
+     * (every write is one log record). The newest segment is then cut at random offsets, as a crash in the
+     * middle of a write would leave it. Each cut must reopen as the state after some write, never an
+     * earlier one for a longer file, and the uncut log as the final state.
+     */
+    @Test
+    @Order(3)
+    public void test_03_tornTail() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(60), () -> {
+            Random random = new Random(3);
+            List<String> states = new ArrayList<>();
+            try (FeedService svc = open(dir, false)) {
+                for (int i = 0; i < 600; ++i) {
+                    if (i == 200) svc.checkpoint();
+                    if (i >= 200) states.add(state(svc, false));
+                    randomOp(svc, random, i);
+                }
+                states.add(state(svc, false));
+            }
+            List<Long> segments = FeedLog.segments(dir);
+            Path last = FeedLog.segmentPath(dir, segments.get(segments.size() - 1));
+            long size = Files.size(last);
+            List<Long> cuts = new ArrayList<>(List.of(0L, size));
+            for (int i = 0; i < 30; ++i) {
+                cuts.add((long) random.nextInt((int) size));
+            }
+            cuts.sort(null);
+            int lastMatch = 0;
+            for (long cut : cuts) {
+                Path copy = copyOf(dir);
+                try {
+                    try (FileChannel ch = FileChannel.open(copy.resolve(last.getFileName()), StandardOpenOption.WRITE)) {
+                        ch.truncate(cut);
+                    }
+                    try (FeedService svc = open(copy, false)) {
+                        int match = states.subList(lastMatch, states.size()).indexOf(state(svc, false));
+                        Assertions.assertTrue(match >= 0, "cut at " + cut + " of " + size + " matches no state at or after the last cut");
+                        lastMatch += match;
+                    }
+                } finally {
+                    delete(copy);
+                }
+            }
+            Assertions.assertEquals(states.get(states.size() - 1), states.get(lastMatch));
+        });
+    }
+    /**
+     * A snapshot with a flipped byte in a part or in the footer, or cut short, is refused with an
+     * IOException rather than restored; the intact one restores
+     */
+    @Test
+    @Order(4)
+    public void test_04_corruptSnapshot() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            Random random = new Random(4);
+            String before;
+            try (FeedService svc = open(dir, false)) {
+                for (int i = 0; i < 300; ++i) {
+                    randomOp(svc, random, i);
+                }
+                svc.checkpoint();
+                before = state(svc, false);
+            }
+            List<Long> snapshots = FeedLog.snapshots(dir);
+            Path snapshot = FeedLog.snapshotPath(dir, snapshots.get(snapshots.size() - 1));
+            long size = Files.size(snapshot);
+            for (long at : new long[] {8 + size / 3, size - 16}) {
+                Path copy = copyOf(dir);
+                try {
+                    try (FileChannel ch = FileChannel.open(copy.resolve(snapshot.getFileName()), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                        ByteBuffer b = ByteBuffer.allocate(1);
+                        ch.read(b, at);
+                        ch.write(ByteBuffer.wrap(new byte[] {(byte) (b.get(0) ^ 0x10)}), at);
+                    }
+                    Assertions.assertThrows(IOException.class, () -> open(copy, false));
+                } finally {
+                    delete(copy);
+                }
+            }
+            Path copy = copyOf(dir);
+            try {
+                try (FileChannel ch = FileChannel.open(copy.resolve(snapshot.getFileName()), StandardOpenOption.WRITE)) {
+                    ch.truncate(size / 2);
+                }
+                Assertions.assertThrows(IOException.class, () -> open(copy, false));
+            } finally {
+                delete(copy);
+            }
+            try (FeedService svc = open(dir, false)) {
+                Assertions.assertEquals(before, state(svc, false));
+            }
+        });
+    }
+    /**
+     * With the directory moved away a scheduled checkpoint fails quietly; the next checkpoint() reports it
+     * (the failure as its cause) instead of snapshotting, and the one after that snapshots normally.
+     * A second quiet failure is left for close(). Both tweets survive a reopen
+     */
+    @Test
+    @Order(5)
+    public void test_05_backgroundCheckpointFailure() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            Path moved = dir.resolveSibling(dir.getFileName() + "-moved");
+            FeedService svc = FeedService.open(dir, 0, 0);
+            Tweet hello = svc.postTweet("alice", "hello");
+            Files.move(dir, moved);
+            svc.backgroundCheckpoint();
+            Files.move(moved, dir);
+            IOException failed = Assertions.assertThrows(IOException.class, svc::checkpoint);
+            Assertions.assertNotNull(failed.getCause());
+            svc.checkpoint();
+
+            Tweet again = svc.postTweet("alice", "again");
+            Files.move(dir, moved);
+            svc.backgroundCheckpoint();
+            Files.move(moved, dir);
+            Assertions.assertThrows(UncheckedIOException.class, svc::close);
+
+            try (FeedService reopened = FeedService.open(dir, 0, 0)) {
+                Assertions.assertEquals(List.of(again.id, hello.id), ids(feed(reopened, "alice")));
+            }
+        });
+    }
+
+    /**
+     * bob and carol post 700 and 300 tweets in 10 batches a few milliseconds apart; alice follows both.
+     * Archiving at a millisecond inside bob's third chunk takes bob's first two chunks and none of carol's
+     * (her 240 older tweets do not fill a chunk). alice's paged feed then ends at the oldest tweet kept.
+     * Reopening replays the archive record; after a checkpoint a second archive takes carol's first chunk,
+     * and the next reopen restores the snapshot's partial logs and replays that record. Each reopen must
+     * match, and bob can keep posting after it. Pull and fan-out mode
+     */
+    @Test
+    @Order(6)
+    public void test_06_archiveThenReopen() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            int chunk = TweetLog.CHUNK;
+            for (boolean fanOut : new boolean[] {false, true}) {
+                Path d = dir.resolve(fanOut ? "fan-out" : "pull");
+                List<Tweet> bob = new ArrayList<>(), carol = new ArrayList<>();
+                String before;
+                try (FeedService svc = open(d, fanOut)) {
+                    svc.follow("alice", "bob");
+                    svc.follow("alice", "carol");
+                    for (int batch = 0; batch < 10; ++batch) {
+                        for (int i = 0; i < 70; ++i) {
+                            bob.add(svc.postTweet("bob", "b" + bob.size()));
+                        }
+                        for (int i = 0; i < 30; ++i) {
+                            carol.add(svc.postTweet("carol", "c" + carol.size()));
+                        }
+                        Thread.sleep(2);   // the next batch starts in a later millisecond
+                    }
+                    List<Tweet> archived = new ArrayList<>();
+                    Assertions.assertEquals(2 * chunk, svc.archiveOlderThan(bob.get(2 * chunk + 50).ts, archived::add));
+                    Assertions.assertEquals(bob.subList(0, 2 * chunk), archived);
+                    Assertions.assertEquals(newestFirst(bob.subList(2 * chunk, 700), carol), feed(svc, "alice"));
+                    before = state(svc, fanOut);
+                }
+                try (FeedService svc = open(d, fanOut)) {
+                    Assertions.assertEquals(before, state(svc, fanOut));
+                    svc.checkpoint();
+                    List<Tweet> archived = new ArrayList<>();
+                    Assertions.assertEquals(chunk, svc.archiveOlderThan(carol.get(270).ts, archived::add));
+                    Assertions.assertEquals(ids(carol.subList(0, chunk)), ids(archived));
+                    before = state(svc, fanOut);
+                }
+                try (FeedService svc = open(d, fanOut)) {
+                    Assertions.assertEquals(before, state(svc, fanOut));
+                    Assertions.assertEquals(ids(newestFirst(bob.subList(2 * chunk, 700), carol.subList(chunk, 300))), ids(feed(svc, "alice")));
+                    for (int i = 0; i < chunk; ++i) {
+                        bob.add(svc.postTweet("bob", "b" + bob.size()));
+                    }
+                    Assertions.assertEquals(ids(newestFirst(bob.subList(2 * chunk, bob.size()), carol.subList(chunk, 300))), ids(feed(svc, "alice")));
+                }
+            }
+        });
+    }
+
+    private static FeedService open(Path dir, boolean fanOut) throws IOException {
+        return fanOut ? FeedService.open(dir, 100, 3, 0, 0) : FeedService.open(dir, 0, 0);
+    }
+
+    /** one random write; each call is one log record, or none when it changes nothing */
+    private static void randomOp(FeedService svc, Random random, int i) {
+        String user = "u" + random.nextInt(USERS), other = "u" + random.nextInt(USERS);
+        switch (random.nextInt(4)) {
+            case 0 -> svc.follow(user, other);
+            case 1 -> svc.unfollow(user, other);
+            default -> svc.postTweet(user, "t" + i);
+        }
+    }
+
+    /** every user's followers and whole feed, paged; in fan-out mode also the timeline feed */
+    private static String state(FeedService svc, boolean fanOut) {
+        StringBuilder out = new StringBuilder();
+        for (int u = 0; u < USERS; ++u) {
+            String user = "u" + u;
+            out.append(user).append(svc.followers(user).stream().sorted().toList()).append('\n');
+            String cursor = null;
+            do {
+                FeedService.Page page = svc.getNewsFeed(user, cursor, 50);
+                page.tweets.forEach(t -> out.append(t.id).append(' ').append(t).append('\n'));
+                cursor = page.nextCursor;
+            } while (cursor != null);
+            if (fanOut) svc.getNewsFeed(user).forEach(t -> out.append("timeline ").append(t.id).append('\n'));
+        }
+        return out.toString();
+    }
+
+    /** userId's whole feed, paged */
+    private static List<Tweet> feed(FeedService svc, String userId) {
+        List<Tweet> res = new ArrayList<>();
+        String cursor = null;
+        do {
+            FeedService.Page page = svc.getNewsFeed(userId, cursor, 50);
+            res.addAll(page.tweets);
+            cursor = page.nextCursor;
+        } while (cursor != null);
+        return res;
+    }
+
+    /** tweets read back after a reopen are new objects, so they are compared by id */
+    private static List<Long> ids(List<Tweet> tweets) {
+        return tweets.stream().map(t -> t.id).toList();
+    }
+
+    private static List<Tweet> newestFirst(List<Tweet> a, List<Tweet> b) {
+        List<Tweet> res = new ArrayList<>(a);
+        res.addAll(b);
+        res.sort(Comparator.comparingLong((Tweet t) -> t.id).reversed());
+        return res;
+    }
+
+    private static Path copyOf(Path dir) throws IOException {
+        Path copy = Files.createTempDirectory("feed-crash");
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path f : (Iterable<Path>) files::iterator) {
+                Files.copy(f, copy.resolve(f.getFileName()));
+            }
+        }
+        return copy;
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,322 @@
+package tweetservice;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/* ───────────────────── Feed log ─────────────────────
+ * Append-only log of everything that changes a durable FeedService: posts, follows, unfollows and
+ * archive cutoffs. Segment files feed-<n>.log, each a sequence of records
+ *     [int length][int crc32][payload]      payload = one Op
+ * Group commit: append() only copies the record into the pending batch. The first caller of sync()
+ * writes the whole batch with one write + force and wakes the others, so under load many posts share
+ * one fsync. A checkpoint rolls to a new segment and snapshots next to it (see FeedService).
+ * A failed flush may have written part of a batch, so nothing after it would replay: the log stops there,
+ * and sync, roll and close all throw from then on. New segments have their directory entry synced. */
+final class FeedLog implements AutoCloseable {
+    static final int MAX_RECORD = 1 << 24;
+
+    /** one logged change; the fields a type does not use are null / 0 */
+    static final class Op {
+        static final byte POST = 1, FOLLOW = 2, UNFOLLOW = 3, ARCHIVE = 4;
+
+        final byte type;
+        final String user, other, text;
+        final long id;
+        final boolean pushed;
+
+        private Op(byte type, String user, String other, long id, boolean pushed, String text){
+            this.type = type; this.user = user; this.other = other; this.id = id; this.pushed = pushed; this.text = text;
+        }
+
+        static Op post(String user, long id, boolean pushed, String text){ return new Op(POST, user, null, id, pushed, text); }
+        static Op follow(String follower, String followee){ return new Op(FOLLOW, follower, followee, 0, false, null); }
+        static Op unfollow(String follower, String followee){ return new Op(UNFOLLOW, follower, followee, 0, false, null); }
+        static Op archive(long cutoffId){ return new Op(ARCHIVE, null, null, cutoffId, false, null); }
+    }
+
+    private final Path dir;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition flushed = lock.newCondition();
+
+    private FileChannel channel;
+    private long segment;
+    private ByteBuffer pending = ByteBuffer.allocate(1 << 16);
+    private ByteBuffer spare = ByteBuffer.allocate(1 << 16);
+    private long appendedLsn;
+    private long durableLsn;
+    private boolean flushing;
+    private IOException failed;           // first failed flush; records after it never become durable
+
+    /** opens a fresh segment after the newest one already in dir */
+    FeedLog(Path dir) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+        List<Long> existing = segments(dir);
+        segment = existing.isEmpty() ? 1 : existing.get(existing.size() - 1) + 1;
+        channel = open(segment);
+    }
+
+    /** a segment whose directory entry is not on disk can vanish in a crash with the records synced into it */
+    private FileChannel open(long n) throws IOException {
+        FileChannel ch = FileChannel.open(segmentPath(dir, n),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        try {
+            syncDirectory(dir);
+        } catch(IOException e){
+            ch.close();
+            throw e;
+        }
+        return ch;
+    }
+
+    /** makes the files created, renamed and deleted in dir so far durable */
+    static void syncDirectory(Path dir) throws IOException {
+        try(FileChannel ch = FileChannel.open(dir, StandardOpenOption.READ)){
+            ch.force(true);
+        }
+    }
+
+    static Path segmentPath(Path dir, long n){ return dir.resolve("feed-" + n + ".log"); }
+    static Path snapshotPath(Path dir, long n){ return dir.resolve("feed-" + n + ".snap"); }
+
+    static List<Long> segments(Path dir) throws IOException { return numbered(dir, ".log"); }
+    static List<Long> snapshots(Path dir) throws IOException { return numbered(dir, ".snap"); }
+
+    /** n of every feed-<n><suffix> in dir, ascending */
+    private static List<Long> numbered(Path dir, String suffix) throws IOException {
+        List<Long> out = new ArrayList<>();
+        if(!Files.isDirectory(dir)) return out;
+        try(Stream<Path> files = Files.list(dir)){
+            files.map(p -> p.getFileName().toString())
+                    .filter(n -> n.startsWith("feed-") && n.endsWith(suffix))
+                    .forEach(n -> out.add(Long.parseLong(n.substring(5, n.length() - suffix.length()))));
+        }
+        out.sort(null);
+        return out;
+    }
+
+    Path dir(){ return dir; }
+
+    /** the segment new records go to */
+    long segment(){
+        lock.lock();
+        try {
+            return segment;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** sequence number of the newest record appended, on disk or not */
+    long lastLsn(){
+        lock.lock();
+        try {
+            return appendedLsn;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** buffers one record, returns its sequence number for sync() */
+    long append(Op op){
+        byte[] payload = encode(op);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        lock.lock();
+        try {
+            if(pending.remaining() < payload.length + 8){
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + payload.length + 8));
+                pending.flip();
+                pending = bigger.put(pending);
+            }
+            pending.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+            return ++appendedLsn;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** returns once the record with this sequence number is on disk */
+    void sync(long lsn){
+        lock.lock();
+        try {
+            while(durableLsn < lsn){
+                if(failed != null) throw new UncheckedIOException(failed);
+                if(flushing){
+                    flushed.awaitUninterruptibly();
+                    continue;
+                }
+                flushing = true;
+                ByteBuffer batch = pending;
+                long upTo = appendedLsn;
+                FileChannel ch = channel;
+                pending = spare;
+                lock.unlock();
+                try {
+                    writeFully(ch, batch);
+                } catch(IOException e){
+                    failed = e;
+                } finally {
+                    lock.lock();
+                }
+                batch.clear();
+                spare = batch;
+                flushing = false;
+                if(failed == null) durableLsn = upTo;
+                flushed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer batch) throws IOException {
+        batch.flip();
+        while(batch.hasRemaining()) ch.write(batch);
+        ch.force(false);
+    }
+
+    /** flushes what is pending and starts a new segment; returns the new segment number */
+    long roll() throws IOException {
+        lock.lock();
+        try {
+            flushPending();
+            FileChannel next = open(segment + 1);
+            channel.close();
+            channel = next;
+            return ++segment;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** under the lock: writes the pending batch once no flush is running, or throws if one ever failed */
+    private void flushPending() throws IOException {
+        while(flushing) flushed.awaitUninterruptibly();
+        if(failed != null) throw new IOException("feed log stopped at a failed flush", failed);
+        try {
+            writeFully(channel, pending);
+        } catch(IOException e){
+            failed = e;
+            flushed.signalAll();
+            throw e;
+        }
+        pending.clear();
+        durableLsn = appendedLsn;
+    }
+
+    /** drops the segments and snapshots older than n, the snapshot n covers them */
+    void deleteBefore(long n) throws IOException {
+        for(long s : segments(dir)) if(s < n) Files.deleteIfExists(segmentPath(dir, s));
+        for(long s : snapshots(dir)) if(s < n) Files.deleteIfExists(snapshotPath(dir, s));
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            flushPending();
+        } finally {
+            try {
+                channel.close();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /* ---------- record format ---------- */
+
+    static byte[] encode(Op op){
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+        try(DataOutputStream out = new DataOutputStream(bytes)){
+            out.writeByte(op.type);
+            switch(op.type){
+                case Op.POST -> {
+                    writeString(out, op.user); out.writeLong(op.id); out.writeBoolean(op.pushed); writeString(out, op.text);
+                }
+                case Op.FOLLOW, Op.UNFOLLOW -> { writeString(out, op.user); writeString(out, op.other); }
+                case Op.ARCHIVE -> out.writeLong(op.id);
+                default -> throw new IllegalArgumentException("unknown op " + op.type);
+            }
+        } catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static Op decode(ByteBuffer in){
+        byte type = in.get();
+        return switch(type){
+            case Op.POST -> {
+                String user = readString(in);
+                long id = in.getLong();
+                boolean pushed = in.get() != 0;
+                yield Op.post(user, id, pushed, readString(in));
+            }
+            case Op.FOLLOW -> Op.follow(readString(in), readString(in));
+            case Op.UNFOLLOW -> Op.unfollow(readString(in), readString(in));
+            case Op.ARCHIVE -> Op.archive(in.getLong());
+            default -> throw new IllegalStateException("unknown op " + type);
+        };
+    }
+
+    /** strings as [int byteLength][utf-8], shared with the snapshot format */
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    static String readString(ByteBuffer in){
+        byte[] b = new byte[in.getInt()];
+        in.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    /** feeds every intact record of a segment to sink, stops at the first torn or corrupt one.
+     *  Only the tail of a segment can be torn: after a crash, the next open starts a new segment. */
+    static long replay(Path file, Consumer<Op> sink) throws IOException {
+        long records = 0;
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(FileChannel.open(file, StandardOpenOption.READ)), 1 << 20))){
+            while(true){
+                byte[] payload;
+                int crc;
+                try {
+                    int length = in.readInt();
+                    crc = in.readInt();
+                    if(length < 1 || length > MAX_RECORD) return records;
+                    payload = new byte[length];
+                    in.readFully(payload);
+                } catch(EOFException torn){
+                    return records;
+                }
+                CRC32 check = new CRC32();
+                check.update(payload);
+                if((int) check.getValue() != crc) return records;
+                sink.accept(decode(ByteBuffer.wrap(payload)));
+                records++;
+            }
+        }
+    }
+}
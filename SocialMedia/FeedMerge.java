@@ -0,0 +1,180 @@
+package tweetservice;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntFunction;
+
+/* ───────────────────── Top-k feed merge ─────────────────────
+ * Merges the newest ends of the followees' tweet logs into the newest k tweets (below a page cursor).
+ *  1. prune: every followee's first candidate is a distinct tweet, so if k followees have a first candidate
+ *     above x, no tweet at or below x can make the top k. Followees whose first candidate is below the
+ *     k-th largest one are dropped before merging: following thousands, at most k logs are left.
+ *  2. the survivors are merged with a loser tree kept in primitive arrays: log2(m) comparisons per tweet
+ *     taken and no per-step allocation, where a PriorityQueue boxes every re-insert.
+ *  3. past PARALLEL_AUTHORS followees the seeding (one log lookup or binary search per followee) dominates,
+ *     so the followee range is split on the common fork-join pool; each part keeps its own top k and the
+ *     parts' lists are merged on the way back.
+ * skipPushed merges skip tweets already pushed to timelines, so the first candidate may not count and
+ * pruning is off for them; they only run over the celebrity followees, which are few. */
+final class FeedMerge {
+    static final int PARALLEL_AUTHORS = 8192;
+
+    private FeedMerge(){}
+
+    //newest k tweets of the authors' logs with ids below before (Long.MAX_VALUE = from the newest)
+    static List<Tweet> topK(int[] authors, IntFunction<TweetLog> logs, long before, int k, boolean skipPushed){
+        if(authors.length > PARALLEL_AUTHORS){
+            return ForkJoinPool.commonPool().invoke(new Split(authors, 0, authors.length, logs, before, k, skipPushed));
+        }
+        return topK(authors, 0, authors.length, logs, before, k, skipPushed);
+    }
+
+    private static List<Tweet> topK(int[] authors, int from, int to, IntFunction<TweetLog> logs, long before,
+                                    int k, boolean skipPushed){
+        long[] heads = new long[to - from];
+        int[] who = new int[to - from];
+        int m = 0;
+        for(int i = from; i < to; i++){                   // first candidates, without making cursors yet
+            long head = logs.apply(authors[i]).newestIdBelow(before);
+            if(head == Long.MIN_VALUE) continue;
+            heads[m] = head;
+            who[m++] = authors[i];
+        }
+        long kth = !skipPushed && m > k ? kthLargest(heads, m, k) : Long.MIN_VALUE;
+        TweetLog.Cursor[] cursors = new TweetLog.Cursor[Math.min(m, skipPushed ? m : k)];
+        int open = 0;
+        for(int i = 0; i < m && open < cursors.length; i++){
+            if(heads[i] < kth) continue;
+            TweetLog.Cursor c = logs.apply(who[i]).olderThan(before);
+            if(c != null) cursors[open++] = c;
+        }
+        return new LoserTree(cursors, open).take(k, skipPushed);
+    }
+
+    //k-th largest of a[0..n), k <= n: the root of a size-k min-heap run over a
+    static long kthLargest(long[] a, int n, int k){
+        long[] heap = Arrays.copyOf(a, k);
+        for(int i = k / 2 - 1; i >= 0; i--) siftDown(heap, i);
+        for(int i = k; i < n; i++){
+            if(a[i] > heap[0]){
+                heap[0] = a[i];
+                siftDown(heap, 0);
+            }
+        }
+        return heap[0];
+    }
+
+    private static void siftDown(long[] heap, int i){
+        long v = heap[i];
+        int n = heap.length;
+        while(2 * i + 1 < n){
+            int c = 2 * i + 1;
+            if(c + 1 < n && heap[c + 1] < heap[c]) c++;
+            if(heap[c] >= v) break;
+            heap[i] = heap[c];
+            i = c;
+        }
+        heap[i] = v;
+    }
+
+    //merges two newest-first lists, keeping the first k
+    static List<Tweet> merge(List<Tweet> a, List<Tweet> b, int k){
+        List<Tweet> out = new ArrayList<>(Math.min(k, a.size() + b.size()));
+        int i = 0, j = 0;
+        while(out.size() < k && (i < a.size() || j < b.size())){
+            boolean left = j == b.size() || (i < a.size() && a.get(i).id > b.get(j).id);
+            out.add(left ? a.get(i++) : b.get(j++));
+        }
+        return out;
+    }
+
+    //halves the followee range until it is small enough to merge in one go
+    private static final class Split extends RecursiveTask<List<Tweet>> {
+        private static final long serialVersionUID = 1L;
+        private final int[] authors;
+        private final int from, to;
+        private final IntFunction<TweetLog> logs;
+        private final long before;
+        private final int k;
+        private final boolean skipPushed;
+
+        Split(int[] authors, int from, int to, IntFunction<TweetLog> logs, long before, int k, boolean skipPushed){
+            this.authors = authors;
+            this.from = from;
+            this.to = to;
+            this.logs = logs;
+            this.before = before;
+            this.k = k;
+            this.skipPushed = skipPushed;
+        }
+
+        @Override
+        protected List<Tweet> compute(){
+            if(to - from <= PARALLEL_AUTHORS) return topK(authors, from, to, logs, before, k, skipPushed);
+            int mid = (from + to) >>> 1;
+            Split left = new Split(authors, from, mid, logs, before, k, skipPushed);
+            left.fork();
+            List<Tweet> right = new Split(authors, mid, to, logs, before, k, skipPushed).compute();
+            return merge(left.join(), right, k);
+        }
+    }
+
+    /* Tournament tree over m cursors, padded to a power of two with exhausted leaves.
+     * keys[i] is cursor i's current id (EXHAUSTED once it ran out); tree[1..size) holds the loser of each
+     * match and tree[0] the overall winner, the newest tweet. Taking it replays only the matches on the
+     * winner's path to the root. */
+    private static final class LoserTree {
+        private static final long EXHAUSTED = Long.MIN_VALUE;
+
+        private final TweetLog.Cursor[] cursors;
+        private final long[] keys;
+        private final int[] tree;
+        private final int size;
+
+        LoserTree(TweetLog.Cursor[] cursors, int m){
+            this.cursors = cursors;
+            size = m <= 1 ? 1 : Integer.highestOneBit(m - 1) << 1;
+            keys = new long[size];
+            tree = new int[size];
+            for(int i = 0; i < size; i++) keys[i] = i < m ? cursors[i].id : EXHAUSTED;
+            int[] winners = new int[2 * size];
+            for(int i = 0; i < size; i++) winners[size + i] = i;
+            for(int n = size - 1; n >= 1; n--){
+                int a = winners[2 * n], b = winners[2 * n + 1];
+                boolean aWins = keys[a] >= keys[b];
+                winners[n] = aWins ? a : b;
+                tree[n] = aWins ? b : a;
+            }
+            tree[0] = winners[1];
+        }
+
+        List<Tweet> take(int k, boolean skipPushed){
+            List<Tweet> res = new ArrayList<>(Math.min(k, 64));
+            while(res.size() < k){
+                int w = tree[0];
+                if(keys[w] == EXHAUSTED) break;
+                TweetLog.Cursor c = cursors[w];
+                Tweet t = c.tweet();
+                if(!(skipPushed && t.pushed)) res.add(t);
+                keys[w] = c.advance() ? c.id : EXHAUSTED;
+                replay(w);
+            }
+            return res;
+        }
+
+        private void replay(int leaf){
+            int winner = leaf;
+            for(int n = (size + leaf) >>> 1; n >= 1; n >>>= 1){
+                int other = tree[n];
+                if(keys[other] > keys[winner]){
+                    tree[n] = winner;
+                    winner = other;
+                }
+            }
+            tree[0] = winner;
+        }
+    }
+}
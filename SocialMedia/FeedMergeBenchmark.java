@@ -0,0 +1,77 @@
+package tweetservice;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/* Compares FeedMerge with the PriorityQueue merge pull feeds used before it, on the same logs.
+ *   java tweetservice.FeedMergeBenchmark [tweetsPerAuthor=50]
+ * For each followee count it times the first page (k = 10) and a page of 100 taken from halfway
+ * down the merged history, and checks both merges return the same tweets. */
+class FeedMergeBenchmark {
+    private static final int[] FOLLOWEES = {10, 100, 1_000, 10_000, 100_000};
+
+    public static void main(String[] args){
+        int perAuthor = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        System.out.printf("%10s %6s %14s %14s%n", "followees", "k", "heap us/op", "merge us/op");
+        for(int f : FOLLOWEES){
+            TweetLog[] logs = logs(f, perAuthor);
+            int[] authors = new int[f];
+            for(int i = 0; i < f; i++) authors[i] = i;
+            List<Tweet> all = FeedMerge.topK(authors, i -> logs[i], Long.MAX_VALUE, f * perAuthor / 2, false);
+            long middle = all.get(all.size() - 1).id;
+            run(authors, logs, Long.MAX_VALUE, 10);
+            run(authors, logs, middle, 100);
+        }
+    }
+
+    //authors post in random order, like a live service, so their logs interleave
+    private static TweetLog[] logs(int authors, int perAuthor){
+        TweetLog[] logs = new TweetLog[authors];
+        for(int i = 0; i < authors; i++) logs[i] = new TweetLog();
+        SnowflakeIds ids = new SnowflakeIds(0);
+        Random rnd = new Random(42);
+        for(long n = (long) authors * perAuthor; n > 0; n--){
+            int a = rnd.nextInt(authors);
+            logs[a].append(() -> new Tweet(ids.next(), "u" + a, "t"));
+        }
+        return logs;
+    }
+
+    private static void run(int[] authors, TweetLog[] logs, long before, int k){
+        int reps = Math.max(20, 2_000_000 / authors.length);
+        List<Tweet> expected = heapMerge(authors, logs, before, k);
+        if(!expected.equals(FeedMerge.topK(authors, i -> logs[i], before, k, false))){
+            throw new IllegalStateException("merges disagree at " + authors.length + " followees");
+        }
+        long heap = 0, merge = 0;
+        for(int round = 0; round < 3; round++){                 // the first round warms up
+            long start = System.nanoTime();
+            for(int r = 0; r < reps; r++) heapMerge(authors, logs, before, k);
+            heap = System.nanoTime() - start;
+            start = System.nanoTime();
+            for(int r = 0; r < reps; r++) FeedMerge.topK(authors, i -> logs[i], before, k, false);
+            merge = System.nanoTime() - start;
+        }
+        System.out.printf("%,10d %6d %14.1f %14.1f%n", authors.length, k, heap / 1e3 / reps, merge / 1e3 / reps);
+    }
+
+    //the merge pull feeds used before FeedMerge: every followee seeded into a boxed heap
+    private static List<Tweet> heapMerge(int[] authors, TweetLog[] logs, long before, int k){
+        PriorityQueue<TweetLog.Cursor> pq = new PriorityQueue<>(
+                Comparator.comparingLong((TweetLog.Cursor c) -> c.id).reversed());
+        for(int a : authors){
+            TweetLog.Cursor c = before == Long.MAX_VALUE ? logs[a].newest() : logs[a].olderThan(before);
+            if(c != null) pq.add(c);
+        }
+        List<Tweet> res = new ArrayList<>(k);
+        while(!pq.isEmpty() && res.size() < k){
+            TweetLog.Cursor c = pq.poll();
+            res.add(c.tweet());
+            if(c.advance()) pq.add(c);
+        }
+        return res;
+    }
+}
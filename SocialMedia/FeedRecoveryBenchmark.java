@@ -0,0 +1,68 @@
+package tweetservice;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/* Restart times of a durable FeedService: replaying the whole log vs. loading a snapshot plus a short tail.
+ * Writers run on WRITERS threads so group commit gets to batch their fsyncs.
+ * args: users, tweets per user, follows per user */
+class FeedRecoveryBenchmark {
+    private static final int WRITERS = 32;
+
+    public static void main(String[] args) throws Exception {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int tweetsPerUser = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int followsPerUser = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        Path dir = Files.createTempDirectory("feed-recovery");
+        try {
+            long start = System.nanoTime();
+            try (FeedService svc = FeedService.open(dir, 0, 0)) {
+                load(svc, users, tweetsPerUser, followsPerUser, 0);
+            }
+            System.out.printf("loaded %,d users, %,d tweets, %,d follows in %d ms%n", users,
+                    (long) users * tweetsPerUser, (long) users * followsPerUser, (System.nanoTime() - start) / 1_000_000);
+
+            start = System.nanoTime();
+            try (FeedService svc = FeedService.open(dir, 0, 0)) {
+                System.out.printf("log replay: %d ms%n", (System.nanoTime() - start) / 1_000_000);
+                start = System.nanoTime();
+                svc.checkpoint();
+                System.out.printf("checkpoint: %d ms%n", (System.nanoTime() - start) / 1_000_000);
+                load(svc, users / 10, tweetsPerUser, 0, 1);
+            }
+
+            start = System.nanoTime();
+            try (FeedService svc = FeedService.open(dir, 0, 0)) {
+                System.out.printf("snapshot + tail: %d ms, first feed %s%n",
+                        (System.nanoTime() - start) / 1_000_000, svc.getNewsFeed("user0").size());
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    private static void load(FeedService svc, int users, int tweetsPerUser, int followsPerUser, int round)
+            throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(WRITERS);
+        for (int w = 0; w < WRITERS; w++) {
+            int writer = w;
+            pool.execute(() -> {
+                for (int u = writer; u < users; u += WRITERS) {
+                    String id = "user" + u;
+                    for (int f = 1; f <= followsPerUser; f++) svc.follow(id, "user" + (u + f * 7919) % users);
+                    for (int t = 0; t < tweetsPerUser; t++) svc.postTweet(id, "tweet " + t + " of round " + round);
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.HOURS);
+    }
+}
@@ -1,104 +1,684 @@
 package tweetservice;
 
-import java.time.Instant;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
 
 /* ──────────────────────  DOMAIN  ───────────────────────── */
 
-class Tweet {
-    final long   id;
-    final String userId;
-    final String text;
-    final long   ts = Instant.now().toEpochMilli();
-    Tweet(long id, String u, String t){ this.id=id; userId=u; text=t; }
-    @Override public String toString(){
-        return "%s: %s (%d)".formatted(userId, text, ts);
+/* Safe to share between threads: the follow sets and the tweet log lock their writers, and readers of
+ * the log never lock. */
+class User {
+    final String id;
+    final int idx;                        // interned id, what the follow sets store
+    final FollowSet following, followers;
+    final TweetLog tweets = new TweetLog();
+    volatile Timeline timeline;           // fan-out mode only, created on first push
+    volatile boolean hasUnpushed;         // posted at least once as a celebrity, readers must pull
+    volatile boolean rebuildTimeline;     // restored from disk in fan-out mode, timeline not rebuilt yet
+
+    User(String id, int idx){             // follow yourself by default
+        this.id=id; this.idx=idx; following = new FollowSet(idx); followers = new FollowSet(idx);
+    }
+
+    /** restored from a snapshot, the follow sets already sorted */
+    User(String id, int idx, int[] following, int[] followers){
+        this.id=id; this.idx=idx; this.following = new FollowSet(following); this.followers = new FollowSet(followers);
     }
 }
 
-class User {
-    final String id;
-    final Set<String> following = new HashSet<>();
-    /** newest tweet at head → singly-linked via next pointer */
-    TweetNode head;                       // null if no tweets
+/* Bounded ring of the newest tweet ids pushed to one reader; the ids order themselves, so the
+ * feed merge never looks the tweets up to sort them. Oldest entries fall off the end.
+ * Every method locks the timeline; readers hold the lock while they walk it. */
+class Timeline {
+    private final long[] ids;
+    private int newest = -1;              // ring index of the newest entry
+    private int size;
+    private boolean truncated;            // entries were dropped, older tweets may be missing
+
+    Timeline(int capacity){ ids = new long[capacity]; }
 
-    static final class TweetNode {
-        final Tweet tweet;
-        TweetNode next;
-        TweetNode(Tweet t){ tweet=t; }
+    synchronized int size(){ return size; }
+    synchronized boolean truncated(){ return truncated; }
+    synchronized void markTruncated(){ truncated = true; }
+
+    /** i-th newest entry, 0 = newest */
+    synchronized long id(int i){ return ids[slot(i)]; }
+
+    private int slot(int i){
+        int s = newest - i;
+        return s < 0 ? s + ids.length : s;
+    }
+
+    /** usually the new tweet is the newest; concurrent posts can arrive slightly out of order, so it is
+     *  slid past any newer entries. A tweet a backfill already brought in is not added twice. */
+    synchronized void push(long id){
+        int pos = 0;                                      // entries newer than the new one
+        while(pos < size && id(pos) > id) pos++;
+        if(pos < size && id(pos) == id) return;
+        if(pos == size && size == ids.length){ truncated = true; return; }   // older than all we keep
+        newest = (newest + 1) % ids.length;               // old entry k is now entry k + 1
+        if(size < ids.length) size++; else truncated = true;
+        for(int i = 0; i < pos; i++) ids[slot(i)] = ids[slot(i + 1)];
+        ids[slot(pos)] = id;
+    }
+
+    /** merges older tweets in (a new followee's history), keeping the newest capacity entries.
+     *  Tweets already present (a re-follow) are not added twice. */
+    synchronized void backfill(List<Tweet> tweets){
+        int cap = ids.length;
+        long[] merged = new long[cap];
+        int i = 0, j = 0, n = 0;                          // both newest first
+        while(n < cap && (i < size || j < tweets.size())){
+            if(i < size && j < tweets.size() && id(i) == tweets.get(j).id) j++;
+            boolean mine = j == tweets.size() || (i < size && id(i) > tweets.get(j).id);
+            merged[n++] = mine ? id(i++) : tweets.get(j++).id;
+        }
+        if(i < size || j < tweets.size()) truncated = true;
+        size = n;
+        for(int k = 0; k < n; k++) ids[n - 1 - k] = merged[k];   // lay out oldest at 0, newest at n - 1
+        newest = n - 1;
     }
-    User(String id){ this.id=id; following.add(id); }   // follow yourself by default
 }
 
 /* ─────────────────────  SERVICE  ───────────────────────── */
 
-public class FeedService {
-    private long nextTweetId = 1;
-    private final Map<String, User> users = new HashMap<>();
+/* Tweet ids come from a SnowflakeIds generator for this node; services on different nodes (node ids)
+ * make ids that never collide and still sort by time.
+ *
+ * Users are interned to ints on first sight and the follow graph is kept as per-user FollowSets of those
+ * ints in both directions, so fan-out reads a follower row and the celebrity check is a count.
+ *
+ * Two read paths:
+ *  - pull (default): every feed read merges the newest ends of all followees' tweet logs.
+ *  - fan-out on write: postTweet pushes the tweet id into each follower's bounded Timeline, so a read
+ *    merges one timeline. Authors with more than celebrityThreshold followers are not fanned out
+ *    (one post would touch millions of timelines); their tweets stay unpushed and readers pull them
+ *    from the author's list and merge them with the timeline.
+ *
+ * open(dir, ...) makes the service durable: posts, follows, unfollows and archive cutoffs go to a FeedLog
+ * with group commit, and checkpoint() writes a binary snapshot of every user (follow rows and kept tweet
+ * chunks) next to a fresh log segment. A restart maps the newest snapshot and decodes its parts in
+ * parallel, then replays only the log written after it. */
+public class FeedService implements AutoCloseable {
+    private static final int FEED_SIZE = 10;
+
+    private final SnowflakeIds ids;
+    private final Map<String, User> users = new ConcurrentHashMap<>();
+    private volatile User[] byIdx = new User[16];        // interned id -> user
+    private int userCount;                               // guarded by this
+    private final boolean fanOut;
+    private final int timelineCapacity;
+    private final int celebrityThreshold;
+    private final Map<Long, Tweet> tweets;               // fan-out mode only, timelines hold ids
+
+    private final FeedLog log;                           // null unless opened on a directory
+    private final ReentrantLock checkpointLock = new ReentrantLock();
+    private ScheduledExecutorService checkpoints;        // background checkpoints, if asked for
+    private final AtomicReference<IOException> checkpointFailure = new AtomicReference<>();   // thrown by the next checkpoint or close
+
+    public FeedService(){
+        this(0);
+    }
+
+    /** pull mode, tweet ids made as node */
+    public FeedService(int node){
+        this(false, 0, 0, node, null);
+    }
+
+    /** fan-out on write with timelines of timelineCapacity ids */
+    public FeedService(int timelineCapacity, int celebrityThreshold){
+        this(timelineCapacity, celebrityThreshold, 0);
+    }
+
+    public FeedService(int timelineCapacity, int celebrityThreshold, int node){
+        this(true, timelineCapacity, celebrityThreshold, node, null);
+    }
+
+    private FeedService(boolean fanOut, int timelineCapacity, int celebrityThreshold, int node, FeedLog log){
+        if(fanOut && timelineCapacity < FEED_SIZE) throw new IllegalArgumentException("timelineCapacity must be >= " + FEED_SIZE);
+        this.ids = new SnowflakeIds(node);
+        this.fanOut = fanOut;
+        this.timelineCapacity = timelineCapacity;
+        this.celebrityThreshold = celebrityThreshold;
+        this.tweets = fanOut ? new ConcurrentHashMap<>() : null;
+        this.log = log;
+    }
+
+    /** open(dir, node, ...) - a durable pull service: loads the newest snapshot in dir, replays the log written
+     *  after it, then logs every post, follow, unfollow and archive; those return once their record is on disk.
+     *  checkpointIntervalMillis - period of background checkpoints, 0 to only checkpoint on demand */
+    public static FeedService open(Path dir, int node, long checkpointIntervalMillis) throws IOException {
+        return open(dir, false, 0, 0, node, checkpointIntervalMillis);
+    }
+
+    /** a durable fan-out service. Timelines are a cache and are not persisted: each one is rebuilt from the
+     *  followees' logs on its owner's first read after a restart */
+    public static FeedService open(Path dir, int timelineCapacity, int celebrityThreshold, int node,
+                                   long checkpointIntervalMillis) throws IOException {
+        return open(dir, true, timelineCapacity, celebrityThreshold, node, checkpointIntervalMillis);
+    }
+
+    private static FeedService open(Path dir, boolean fanOut, int timelineCapacity, int celebrityThreshold, int node,
+                                    long checkpointIntervalMillis) throws IOException {
+        FeedLog log = new FeedLog(dir);
+        try {
+            FeedService svc = new FeedService(fanOut, timelineCapacity, celebrityThreshold, node, log);
+            svc.recover(dir, log.segment());
+            if(checkpointIntervalMillis > 0) svc.startCheckpoints(checkpointIntervalMillis);
+            return svc;
+        } catch(IOException | RuntimeException e){
+            log.close();
+            throw e;
+        }
+    }
+
+    private void startCheckpoints(long intervalMillis){
+        checkpoints = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "feed-checkpoint");
+            t.setDaemon(true);
+            return t;
+        });
+        checkpoints.scheduleWithFixedDelay(this::backgroundCheckpoint, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** the scheduled checkpoint; no caller is there to see it fail, so the failure waits for checkpoint() or close() */
+    void backgroundCheckpoint(){
+        try {
+            checkpoint();
+        } catch(IOException e){
+            checkpointFailure.compareAndSet(null, e);
+        } catch(UncheckedIOException e){
+            checkpointFailure.compareAndSet(null, e.getCause());
+        }
+    }
 
     /* ---------- helpers ------------ */
     private User user(String id){
-        return users.computeIfAbsent(id, User::new);
+        User u = users.get(id);
+        return u != null ? u : users.computeIfAbsent(id, this::register);
+    }
+
+    private User user(int idx){
+        return byIdx[idx];
+    }
+
+    /** stored before the user is returned, so any idx found in a follow set resolves */
+    private synchronized User register(String id){
+        User u = new User(id, userCount);
+        User[] a = byIdx;
+        if(userCount == a.length) a = Arrays.copyOf(a, a.length * 2);
+        a[userCount++] = u;
+        byIdx = a;
+        return u;
     }
 
     /* ---------- API ---------------- */
     public Tweet postTweet(String userId, String text){
         User u  = user(userId);
-        Tweet t = new Tweet(nextTweetId++, userId, text);
-        /* prepend to user’s list */
-        User.TweetNode n = new User.TweetNode(t);
-        n.next = u.head;  u.head = n;
+        // decided before the tweet is visible, so a reader never pulls a tweet that will also be pushed
+        boolean push = fanOut && u.followers.size() - 1 <= celebrityThreshold;   // the row holds the author too
+        if(fanOut && !push) u.hasUnpushed = true;         // readers pull this one
+        /* append to user’s log; its log record goes in under the same lock, so replay keeps the user's order */
+        long[] lsn = new long[1];
+        Tweet t = u.tweets.append(() -> {
+            Tweet n = new Tweet(ids.next(), userId, text, push);
+            lsn[0] = log(FeedLog.Op.post(userId, n.id, push, text));
+            return n;
+        });
+        sync(lsn[0]);                                     // on disk before anyone's timeline gets it
+        if(fanOut){
+            tweets.put(t.id, t);
+            if(push) for(int f : u.followers.toArray()) timeline(user(f)).push(t.id);
+        }
         return t;
     }
+
+    private Timeline timeline(User u){
+        Timeline tl = u.timeline;
+        if(tl == null){
+            synchronized(u){
+                tl = u.timeline;
+                if(tl == null) u.timeline = tl = new Timeline(timelineCapacity);
+            }
+        }
+        return tl;
+    }
+
     public void follow(String follower, String followee){
-        user(follower).following.add(followee);
+        User u = user(follower), v = user(followee);
+        long lsn;
+        // both rows change before the record is appended: a checkpoint that rolls the log before the record
+        // will replay it, one that rolls after it sees both changes in its snapshot
+        synchronized(u.following){
+            if(!u.following.add(v.idx)) return;
+            v.followers.add(u.idx);
+            lsn = log(FeedLog.Op.follow(follower, followee));
+        }
+        sync(lsn);
+        if(fanOut) backfill(u, v);
+    }
+
+    /** a new followee's already pushed tweets go into the follower's timeline; unpushed ones are pulled anyway */
+    private void backfill(User follower, User followee){
+        List<Tweet> recent = new ArrayList<>();
+        for(TweetLog.Cursor c = followee.tweets.newest(); c != null && recent.size() < timelineCapacity; ){
+            Tweet t = c.tweet();
+            if(t.pushed && tweets.containsKey(t.id)) recent.add(t);   // else its push is still coming
+            if(!c.advance()) break;
+        }
+        if(!recent.isEmpty()) timeline(follower).backfill(recent);
     }
+
+    /** the follower's timeline keeps the old entries; reads skip authors no longer followed */
     public void unfollow(String follower, String followee){
-        if(!follower.equals(followee))
-            user(follower).following.remove(followee);
+        if(!follower.equals(followee)){
+            User u = user(follower), v = user(followee);
+            long lsn;
+            synchronized(u.following){
+                if(!u.following.remove(v.idx)) return;
+                v.followers.remove(u.idx);
+                lsn = log(FeedLog.Op.unfollow(follower, followee));
+            }
+            sync(lsn);
+        }
+    }
+
+    /** how many users follow userId, not counting themselves */
+    public int followerCount(String userId){
+        return user(userId).followers.size() - 1;
+    }
+
+    /** ids of the users following userId, not counting themselves */
+    public List<String> followers(String userId){
+        User u = user(userId);
+        List<String> res = new ArrayList<>();
+        for(int f : u.followers.toArray()) if(f != u.idx) res.add(user(f).id);
+        return res;
+    }
+
+    /** moves tweets older than cutoffMillis out of memory, a whole chunk of one user's log at a time (so a
+     *  user's newest TweetLog.CHUNK tweets or so always stay), handing each to archive - pass t -> {} to just
+     *  drop them. Feeds and pages stop at the oldest tweet kept. Returns how many tweets went. */
+    public long archiveOlderThan(long cutoffMillis, Consumer<Tweet> archive){
+        long cutoffId = SnowflakeIds.smallestAt(cutoffMillis);
+        long dropped = dropOlderThan(cutoffId, archive);
+        sync(log(FeedLog.Op.archive(cutoffId)));          // after the drops, like follow
+        return dropped;
+    }
+
+    private long dropOlderThan(long cutoffId, Consumer<Tweet> archive){
+        Consumer<Tweet> sink = fanOut ? t -> { tweets.remove(t.id); archive.accept(t); } : archive;
+        long dropped = 0;
+        for(User u : users.values()) dropped += u.tweets.dropOlderThan(cutoffId, sink);
+        return dropped;
     }
 
     /** newest 10 tweets across the user + followees */
     public List<Tweet> getNewsFeed(String userId){
-        /* min-heap ordered by tweet timestamp descending (newest first) */
+        if(fanOut) return timelineFeed(user(userId));
+        return pullFeed(user(userId).following.toArray(), false, Long.MAX_VALUE, FEED_SIZE);
+    }
+
+    /** one page of a feed plus the cursor for the next one, null once the feed is exhausted */
+    public static final class Page {
+        public final List<Tweet> tweets;
+        public final String nextCursor;
+        Page(List<Tweet> tweets, String nextCursor){ this.tweets = tweets; this.nextCursor = nextCursor; }
+    }
+
+    /** getNewsFeed(userId, cursor, limit) - the next limit tweets after cursor, null cursor = newest.
+     *  The cursor is the id of the last tweet served (its time included), so a page starts exactly below it even if newer
+     *  tweets arrived meanwhile. Each followee's log is entered by binary search, O(log n), so deep pages
+     *  cost the same as the first: O(followees · log tweets + limit · log followees). */
+    public Page getNewsFeed(String userId, String cursor, int limit){
+        if(limit < 1) throw new IllegalArgumentException("limit must be >= 1");
+        long before = cursor == null ? Long.MAX_VALUE : decodeCursor(cursor);
+        List<Tweet> res = pullFeed(user(userId).following.toArray(), false, before, limit);
+        String next = res.size() < limit ? null : encodeCursor(res.get(res.size() - 1));
+        return new Page(res, next);
+    }
 
-        //Comparator.comparingLong orders ascending (1,2,3…).
-        //.reversed() flips it to descending (3,2,1…).
-        //PriorityQueue in Java is a min-heap by default,
-        // so reversing the comparator yields a max-heap where peek() and poll() return the largest timestamp (= newest tweet).
+    static String encodeCursor(Tweet last){
+        return Long.toString(last.id, 36);
+    }
 
-        PriorityQueue<User.TweetNode> pq = new PriorityQueue<>(
-                Comparator.comparingLong((User.TweetNode n)->n.tweet.ts) // natural = oldest first
-                        .reversed());  // reverse  = newest first
+    static long decodeCursor(String cursor){
+        try {
+            return Long.parseLong(cursor, 36);
+        } catch (NumberFormatException e){
+            throw new IllegalArgumentException("bad cursor: " + cursor);
+        }
+    }
 
+    /** pull merge over the given authors' logs, of tweets with ids below before;
+     *  skipPushed leaves out tweets a timeline already has */
+    private List<Tweet> pullFeed(int[] authors, boolean skipPushed, long before, int limit){
+        return FeedMerge.topK(authors, i -> user(i).tweets, before, limit, skipPushed);
+    }
 
-        //PriorityQueue<User.TweetNode> pq = new PriorityQueue<>((a,b) -> Long.compare(b.tweet.ts, a.tweet.ts));
+    /** newest entries of the timeline still followed, merged with what celebrity followees did not push */
+    private List<Tweet> timelineFeed(User u){
+        if(u.rebuildTimeline) rebuildTimeline(u);
+        List<Tweet> pushed = new ArrayList<>(FEED_SIZE);
+        Timeline tl = u.timeline;
+        boolean truncated = false;
+        if(tl != null) synchronized(tl){
+            // tweets are registered before they reach any timeline, so the lookup always hits
+            for(int i = 0; i < tl.size() && pushed.size() < FEED_SIZE; i++){
+                Tweet t = tweets.get(tl.id(i));
+                if(t != null && u.following.contains(user(t.userId).idx)) pushed.add(t);
+            }
+            truncated = tl.truncated();
+        }
+        // unfollows thinned out a full timeline: what fell off the end may belong in this feed
+        int[] following = u.following.toArray();
+        if(pushed.size() < FEED_SIZE && truncated) return pullFeed(following, false, Long.MAX_VALUE, FEED_SIZE);
 
-        // seed with head of each followed user's list
-        user(userId).following.forEach(fol -> {
-            User.TweetNode h = user(fol).head;
-            if(h!=null) pq.add(h);
-        });
+        int[] celebrities = Arrays.stream(following).filter(f -> user(f).hasUnpushed).toArray();
+        if(celebrities.length == 0) return pushed;
+        List<Tweet> pulled = pullFeed(celebrities, true, Long.MAX_VALUE, FEED_SIZE);
 
-        List<Tweet> res = new ArrayList<>(10);
-        while(!pq.isEmpty() && res.size()<10){
-            User.TweetNode node = pq.poll();
-            res.add(node.tweet);
-            if(node.next!=null) pq.add(node.next);      // push the rest of that user's list
+        List<Tweet> res = new ArrayList<>(FEED_SIZE);
+        int i = 0, j = 0;
+        while(res.size() < FEED_SIZE && (i < pushed.size() || j < pulled.size())){
+            boolean mine = j == pulled.size() || (i < pushed.size() && pushed.get(i).id > pulled.get(j).id);
+            res.add(mine ? pushed.get(i++) : pulled.get(j++));
         }
         return res;
     }
+
+    /** pushed tweets of the current followees back into a restored user's timeline, once */
+    private void rebuildTimeline(User u){
+        synchronized(u){
+            if(!u.rebuildTimeline) return;
+            List<Tweet> recent = pullFeed(u.following.toArray(), false, Long.MAX_VALUE, timelineCapacity);
+            List<Tweet> pushed = recent.stream().filter(t -> t.pushed).toList();
+            Timeline tl = timeline(u);
+            if(!pushed.isEmpty()) tl.backfill(pushed);
+            if(recent.size() == timelineCapacity) tl.markTruncated();   // older pushed tweets were left out
+            u.rebuildTimeline = false;
+        }
+    }
+
+    /* ---------- persistence ---------- */
+
+    private static final long SNAPSHOT_MAGIC = 0x464545442d534e50L;   // "FEED-SNP"
+    private static final int SNAPSHOT_PART = 32 << 20;               // bytes per part, each restored by one task
+
+    private long log(FeedLog.Op op){
+        return log == null ? 0 : log.append(op);
+    }
+
+    private void sync(long lsn){
+        if(log != null) log.sync(lsn);
+    }
+
+    /** checkpoint - snapshots every user and drops the log segments and snapshots it covers.
+     *  The log is rolled first and writes keep going while the snapshot is written. A change that lands in
+     *  both the snapshot and the new segment replays harmlessly: a post already in the user's log is skipped,
+     *  and follow rows end up as the last follow or unfollow of each pair says.
+     *  A background checkpoint that failed is thrown here first, once. */
+    public void checkpoint() throws IOException {
+        if(log == null) throw new IllegalStateException("FeedService was not opened with a directory");
+        IOException failed = checkpointFailure.getAndSet(null);
+        if(failed != null) throw new IOException("background checkpoint failed", failed);
+        checkpointLock.lock();
+        try {
+            long segment = log.roll();
+            writeSnapshot(FeedLog.snapshotPath(log.dir(), segment));
+            log.deleteBefore(segment);
+        } finally {
+            checkpointLock.unlock();
+        }
+    }
+
+    /* Snapshot layout, big-endian:
+     *   [long magic] part* footer [int footer crc32][long footer offset]
+     *   part   = user* for consecutive interned ids, cut after SNAPSHOT_PART bytes
+     *   user   = [string id][int first position][bool hasUnpushed][ids following][ids followers]
+     *            [int tweets] ([long id][bool pushed][string text])*      kept tweets, oldest first
+     *   ids    = [int n][int]*
+     *   footer = [int users][int parts] ([long offset][long length][int first user][int users][int crc32])*
+     * Each part carries its own crc so the parallel restore checks it in the task that decodes it.
+     * Before the rename the log is synced up to its newest record: the snapshot may hold changes whose
+     * records are still pending, and those must not outlive a crash that loses their records. */
+    private void writeSnapshot(Path path) throws IOException {
+        int n;
+        User[] all;
+        synchronized(this){ n = userCount; all = byIdx; }
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try(FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)){
+            CRC32 crc = new CRC32();
+            OutputStream file = new CheckedOutputStream(Channels.newOutputStream(ch), crc);
+            writeFully(ch, ByteBuffer.allocate(8).putLong(SNAPSHOT_MAGIC));
+            ByteArrayOutputStream part = new ByteArrayOutputStream(1 << 20);
+            DataOutputStream out = new DataOutputStream(part);
+            List<long[]> parts = new ArrayList<>();
+            long offset = 8;
+            int partFirst = 0;
+            for(int i = 0; i < n; i++){
+                writeUser(out, all[i], n);
+                if(part.size() >= SNAPSHOT_PART || i == n - 1){
+                    crc.reset();
+                    part.writeTo(file);
+                    parts.add(new long[]{ offset, part.size(), partFirst, i + 1 - partFirst, crc.getValue() });
+                    offset += part.size();
+                    partFirst = i + 1;
+                    part.reset();
+                }
+            }
+            ByteBuffer footer = ByteBuffer.allocate(8 + 28 * parts.size() + 12).putInt(n).putInt(parts.size());
+            for(long[] p : parts) footer.putLong(p[0]).putLong(p[1]).putInt((int) p[2]).putInt((int) p[3]).putInt((int) p[4]);
+            crc.reset();
+            crc.update(footer.array(), 0, footer.position());
+            writeFully(ch, footer.putInt((int) crc.getValue()).putLong(offset));
+            ch.force(true);
+        }
+        log.sync(log.lastLsn());
+        Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE);
+        FeedLog.syncDirectory(path.getParent());             // the rename is durable before old segments go
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while(buf.hasRemaining()) ch.write(buf);
+    }
+
+    /** users interned after the snapshot started are left out, and so are edges to them: the log segment
+     *  the snapshot sits next to has the follows that made those edges */
+    private static void writeUser(DataOutputStream out, User u, int users) throws IOException {
+        List<Tweet> kept = new ArrayList<>();
+        int first = u.tweets.copyKept(kept);
+        FeedLog.writeString(out, u.id);
+        out.writeInt(first);
+        out.writeBoolean(u.hasUnpushed);
+        writeIds(out, u.following.toArray(), users);
+        writeIds(out, u.followers.toArray(), users);
+        out.writeInt(kept.size());
+        for(Tweet t : kept){
+            out.writeLong(t.id);
+            out.writeBoolean(t.pushed);
+            FeedLog.writeString(out, t.text);
+        }
+    }
+
+    private static void writeIds(DataOutputStream out, int[] ids, int below) throws IOException {
+        int n = ids.length;
+        while(n > 0 && ids[n - 1] >= below) n--;          // ascending, so the new users are at the end
+        out.writeInt(n);
+        for(int i = 0; i < n; i++) out.writeInt(ids[i]);
+    }
+
+    /** newest snapshot, then every log segment from it up to (not including) the one just opened */
+    private void recover(Path dir, long openSegment) throws IOException {
+        List<Long> snapshots = FeedLog.snapshots(dir);
+        long from = 1;
+        if(!snapshots.isEmpty()){
+            from = snapshots.get(snapshots.size() - 1);
+            readSnapshot(FeedLog.snapshotPath(dir, from));
+        }
+        for(long segment : FeedLog.segments(dir)){
+            if(segment < from || segment >= openSegment) continue;
+            FeedLog.replay(FeedLog.segmentPath(dir, segment), this::replay);
+        }
+        if(fanOut) for(User u : users.values()) u.rebuildTimeline = true;
+    }
+
+    /** maps the snapshot and decodes its parts on the fork-join pool, each straight into its users' slots */
+    private void readSnapshot(Path path) throws IOException {
+        try(FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)){
+            long size = ch.size();
+            if(size < 16 || ch.map(FileChannel.MapMode.READ_ONLY, 0, 8).getLong() != SNAPSHOT_MAGIC)
+                throw new IOException("not a feed snapshot: " + path);
+            long footerAt = ch.map(FileChannel.MapMode.READ_ONLY, size - 8, 8).getLong();
+            if(footerAt < 8 || footerAt > size - 20) throw new IOException("corrupt feed snapshot: " + path);
+            ByteBuffer footer = ch.map(FileChannel.MapMode.READ_ONLY, footerAt, size - 8 - footerAt);
+            if(crc(footer.slice(0, footer.limit() - 4)) != footer.getInt(footer.limit() - 4))
+                throw new IOException("corrupt feed snapshot: " + path);
+            int n = footer.getInt(), parts = footer.getInt();
+            long[][] part = new long[parts][];
+            for(int p = 0; p < parts; p++)
+                part[p] = new long[]{ footer.getLong(), footer.getLong(), footer.getInt(), footer.getInt(), footer.getInt() };
+            User[] restored = new User[Math.max(16, n + n / 2)];
+            long newest;
+            try {
+                newest = Arrays.stream(part).parallel().mapToLong(p -> {
+                    try {
+                        ByteBuffer in = ch.map(FileChannel.MapMode.READ_ONLY, p[0], p[1]);
+                        if(crc(in.duplicate()) != (int) p[4]) throw new IOException("corrupt feed snapshot: " + path);
+                        return readPart(in, (int) p[2], (int) p[3], restored);
+                    } catch(IOException e){
+                        throw new UncheckedIOException(e);
+                    }
+                }).max().orElse(Long.MIN_VALUE);
+            } catch(UncheckedIOException e){
+                throw e.getCause();
+            }
+            synchronized(this){ byIdx = restored; userCount = n; }
+            if(newest != Long.MIN_VALUE) ids.observe(newest);
+        }
+    }
+
+    private static int crc(ByteBuffer bytes){
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+
+    /** decodes users first .. first + count - 1; returns the newest tweet id seen */
+    private long readPart(ByteBuffer in, int first, int count, User[] into){
+        long newest = Long.MIN_VALUE;
+        for(int idx = first; idx < first + count; idx++){
+            String id = FeedLog.readString(in);
+            int position = in.getInt();
+            boolean hasUnpushed = in.get() != 0;
+            User u = new User(id, idx, readIds(in), readIds(in));
+            u.hasUnpushed = hasUnpushed;
+            int n = in.getInt();
+            List<Tweet> kept = new ArrayList<>(n);
+            for(int i = 0; i < n; i++){
+                long tweetId = in.getLong();
+                boolean pushed = in.get() != 0;
+                Tweet t = new Tweet(tweetId, id, FeedLog.readString(in), pushed);
+                kept.add(t);
+                if(fanOut) tweets.put(t.id, t);
+                newest = Math.max(newest, t.id);
+            }
+            u.tweets.restore(position, kept);
+            into[idx] = u;
+            users.put(id, u);
+        }
+        return newest;
+    }
+
+    private static int[] readIds(ByteBuffer in){
+        int[] ids = new int[in.getInt()];
+        in.asIntBuffer().get(ids);
+        in.position(in.position() + 4 * ids.length);
+        return ids;
+    }
+
+    /** applies one logged change on top of the snapshot; see checkpoint for why repeats are harmless */
+    private void replay(FeedLog.Op op){
+        switch(op.type){
+            case FeedLog.Op.POST -> {
+                User u = user(op.user);
+                if(op.id <= u.tweets.newestIdBelow(Long.MAX_VALUE)) return;   // in the snapshot already
+                if(!op.pushed) u.hasUnpushed = true;
+                Tweet t = u.tweets.append(() -> new Tweet(op.id, u.id, op.text, op.pushed));
+                if(fanOut) tweets.put(t.id, t);
+                ids.observe(t.id);
+            }
+            case FeedLog.Op.FOLLOW -> {                   // each side on its own: the snapshot may have caught one
+                User u = user(op.user), v = user(op.other);
+                u.following.add(v.idx);
+                v.followers.add(u.idx);
+            }
+            case FeedLog.Op.UNFOLLOW -> {
+                User u = user(op.user), v = user(op.other);
+                u.following.remove(v.idx);
+                v.followers.remove(u.idx);
+            }
+            case FeedLog.Op.ARCHIVE -> dropOlderThan(op.id, t -> {});
+            default -> throw new IllegalStateException("unknown op " + op.type);
+        }
+    }
+
+    /** close - lets a running background checkpoint finish, flushes the log, then throws a background
+     *  checkpoint failure no checkpoint() has reported yet */
+    @Override
+    public void close(){
+        if(checkpoints != null){
+            checkpoints.shutdown();
+            try {
+                checkpoints.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+            }
+        }
+        if(log != null){
+            checkpointLock.lock();
+            try {
+                log.close();
+            } catch(IOException e){
+                throw new UncheckedIOException(e);
+            } finally {
+                checkpointLock.unlock();
+            }
+        }
+        IOException failed = checkpointFailure.getAndSet(null);
+        if(failed != null) throw new UncheckedIOException("background checkpoint failed", failed);
+    }
 }
 
 /* ─────────────────────  DEMO / TEST  ───────────────────── */
  class Main {
-    public static void main(String[] args) throws InterruptedException {
+    public static void main(String[] args) {
         FeedService svc = new FeedService();
 
         svc.postTweet("alice", "Hello Twitter!");
-        Thread.sleep(5);                                  // ensure different timestamps
-        svc.postTweet("bob",   "Good morning");
-        Thread.sleep(5);
+        svc.postTweet("bob",   "Good morning");           // same millisecond is fine: ids still order them
         svc.postTweet("alice", "My second tweet");
         svc.postTweet("carol", "Hi all, I'm Carol");
 
@@ -111,8 +691,30 @@ public class FeedService {
         svc.unfollow("alice","bob");                       // Alice unfollows Bob
         System.out.println("-- Alice's feed (after unfollow Bob) --");
         svc.getNewsFeed("alice").forEach(System.out::println);
+
+        // fan-out on write: timelines of 100 ids, more than 2 followers makes a celebrity
+        FeedService fan = new FeedService(100, 2);
+        fan.follow("alice","bob");
+        fan.follow("carol","bob");                        // bob: 2 followers, still pushed
+        fan.postTweet("bob",   "pushed to alice's and carol's timelines");
+        fan.follow("dave","bob");                         // 3 followers -> celebrity
+        fan.postTweet("bob",   "pulled by readers");
+        fan.postTweet("alice", "pushed to alice's timeline");
+        System.out.println("-- Alice's feed (fan-out) --");
+        fan.getNewsFeed("alice").forEach(System.out::println);
+        System.out.println("bob's followers: " + fan.followers("bob") + " (" + fan.followerCount("bob") + ")");
+
+        // pages of 2, each resuming below the last tweet of the previous one
+        System.out.println("-- Alice's feed, 2 per page --");
+        String cursor = null;
+        do {
+            FeedService.Page page = svc.getNewsFeed("alice", cursor, 2);
+            System.out.println(page.tweets);
+            cursor = page.nextCursor;
+        } while(cursor != null);
     }
 }
+
 //class Tweet - id, userId, ts,
 //class User - id, tweerNode head, List<String> following;
 //    Every user maintans the time sorted singly linked list tweetNode.
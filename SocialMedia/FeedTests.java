@@ -0,0 +1,239 @@
+package tweetservice;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.*;
+/**
+ * FeedService feeds: what getNewsFeed returns in pull and fan-out mode, also under several threads.
+ * A feed is checked against the tweets posted and the follow graph: the newest 10 tweets of the user and
+ * everyone they follow.
+ */
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class FeedTests {
+    private static final int TIMELINE = 100;
+    private static final int THREADS = 8;
+    private static final int USERS = 32;
+    /**
+     * celebrityThreshold 2: an author with exactly 2 followers (self not counted) is still fanned out,
+     * the third follower makes them a celebrity; every follower's feed holds both tweets either way
+     */
+    @Test
+    @Order(1)
+    public void test_01_celebrityThreshold() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            FeedService svc = new FeedService(TIMELINE, 2);
+            svc.follow("alice", "bob");
+            svc.follow("carol", "bob");
+            Assertions.assertEquals(2, svc.followerCount("bob"));
+            var pushed = svc.postTweet("bob", "at the threshold");
+            Assertions.assertTrue(pushed.pushed);
+            svc.follow("dave", "bob");
+            var pulled = svc.postTweet("bob", "over the threshold");
+            Assertions.assertFalse(pulled.pushed);
+            for (String reader : List.of("alice", "carol", "dave", "bob")) {
+                Assertions.assertEquals(List.of(pulled, pushed), svc.getNewsFeed(reader));
+            }
+
+            svc.unfollow("dave", "bob");
+            Assertions.assertTrue(svc.postTweet("bob", "back at the threshold").pushed);
+        });
+    }
+    /**
+     * THREADS threads post as random users, follow and unfollow, and read random feeds, in pull mode and in
+     * fan-out mode with some authors crossing the celebrity threshold both ways. Thread t only changes the
+     * followings of users u with u % THREADS == t, so it knows their final rows.
+     * Every feed read is newest first without repeats; tweet ids are unique; once the threads are done,
+     * every feed and follower list matches the graph and the tweets posted
+     */
+    @Test
+    @Order(2)
+    public void test_02_concurrentFollowsPostsAndFeeds() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(60), () -> {
+            for (FeedService svc : List.of(new FeedService(), new FeedService(TIMELINE, 4))) {
+                Queue<Tweet> posted = new ConcurrentLinkedQueue<>();
+                List<Set<Integer>> following = new ArrayList<>();
+                for (int u = 0; u < USERS; ++u) {
+                    following.add(new HashSet<>());
+                }
+                runThreads(t -> {
+                    Random random = new Random(t);
+                    for (int i = 0; i < 5000; ++i) {
+                        int u = random.nextInt(USERS);
+                        switch (random.nextInt(4)) {
+                            case 0 -> posted.add(svc.postTweet(user(u), "t" + t + "." + i));
+                            case 1 -> {
+                                int owned = u - u % THREADS + t, v = random.nextInt(USERS);
+                                if (owned >= USERS || owned == v) break;
+                                if (following.get(owned).add(v)) {
+                                    svc.follow(user(owned), user(v));
+                                } else {
+                                    following.get(owned).remove(v);
+                                    svc.unfollow(user(owned), user(v));
+                                }
+                            }
+                            default -> {
+                                List<Tweet> feed = svc.getNewsFeed(user(u));
+                                Assertions.assertTrue(feed.size() <= 10);
+                                for (int j = 1; j < feed.size(); ++j) {
+                                    Assertions.assertTrue(feed.get(j - 1).id > feed.get(j).id, "feed out of order or repeated");
+                                }
+                            }
+                        }
+                    }
+                });
+                List<Tweet> tweets = new ArrayList<>(posted);
+                Assertions.assertEquals(tweets.size(), tweets.stream().mapToLong(tw -> tw.id).distinct().count());
+                tweets.sort(Comparator.comparingLong((Tweet tw) -> tw.id).reversed());
+                for (int u = 0; u < USERS; ++u) {
+                    Set<String> authors = new HashSet<>(List.of(user(u)));
+                    List<String> followers = new ArrayList<>();
+                    for (int v = 0; v < USERS; ++v) {
+                        if (following.get(u).contains(v)) authors.add(user(v));
+                        if (following.get(v).contains(u)) followers.add(user(v));
+                    }
+                    List<Tweet> expected = tweets.stream().filter(tw -> authors.contains(tw.userId)).limit(10).toList();
+                    Assertions.assertEquals(expected, svc.getNewsFeed(user(u)), "feed of " + user(u));
+                    Assertions.assertEquals(followers.size(), svc.followerCount(user(u)));
+                    Assertions.assertEquals(new HashSet<>(followers), new HashSet<>(svc.followers(user(u))));
+                }
+            }
+        });
+    }
+
+    /**
+     * alice follows bob and carol, 20 tweets each. Pages of 7 chain through all 60 newest first, the last one
+     * short with no cursor; pages of 10 end on an empty page. A page never repeats the previous one's last
+     * tweet, the first page is getNewsFeed(alice), and limit 0 or a bad cursor are rejected
+     */
+    @Test
+    @Order(3)
+    public void test_03_pagesCoverTheFeed() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            FeedService svc = new FeedService();
+            svc.follow("alice", "bob");
+            svc.follow("alice", "carol");
+            List<Tweet> all = new ArrayList<>();
+            for (int i = 0; i < 20; ++i) {
+                for (String author : List.of("alice", "bob", "carol")) {
+                    all.add(0, svc.postTweet(author, author + i));
+                }
+            }
+            svc.postTweet("dave", "not followed");
+            Assertions.assertEquals(svc.getNewsFeed("alice"), svc.getNewsFeed("alice", null, 10).tweets);
+
+            List<Integer> sizes = new ArrayList<>();
+            Assertions.assertEquals(all, pageThrough(svc, "alice", 7, sizes));
+            Assertions.assertEquals(List.of(7, 7, 7, 7, 7, 7, 7, 7, 4), sizes);
+            sizes.clear();
+            Assertions.assertEquals(all, pageThrough(svc, "alice", 10, sizes));
+            Assertions.assertEquals(List.of(10, 10, 10, 10, 10, 10, 0), sizes);
+
+            Assertions.assertThrows(IllegalArgumentException.class, () -> svc.getNewsFeed("alice", null, 0));
+            Assertions.assertThrows(IllegalArgumentException.class, () -> svc.getNewsFeed("alice", "not a cursor!", 5));
+        });
+    }
+    /**
+     * alice follows 3 authors with 200 tweets each; THREADS - 1 threads post up to 2000 tweets each as them
+     * (and as an author alice does not follow) while alice pages through her feed in pages of 13, over and over.
+     * Every pass is newest first without repeats, holds only followed authors and holds every tweet
+     * posted before the paging started: new posts never shift a cursor onto tweets already served
+     */
+    @Test
+    @Order(4)
+    public void test_04_pagingDuringPosts() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(60), () -> {
+            FeedService svc = new FeedService();
+            List<String> authors = List.of("bob", "carol", "dave");
+            Set<Long> before = new HashSet<>();
+            for (String author : authors) {
+                svc.follow("alice", author);
+                for (int i = 0; i < 200; ++i) {
+                    before.add(svc.postTweet(author, author + i).id);
+                }
+            }
+            AtomicBoolean done = new AtomicBoolean();
+            runThreads(t -> {
+                Random random = new Random(t);
+                if (t > 0) {
+                    for (int i = 0; i < 2000 && !done.get(); ++i) {
+                        svc.postTweet(random.nextInt(4) == 0 ? "eve" : authors.get(random.nextInt(3)), "new" + i);
+                    }
+                    return;
+                }
+                try {
+                    for (int pass = 0; pass < 50; ++pass) {
+                        List<Tweet> feed = pageThrough(svc, "alice", 13, new ArrayList<>());
+                        Set<Long> seen = new HashSet<>();
+                        for (int j = 0; j < feed.size(); ++j) {
+                            Tweet tw = feed.get(j);
+                            Assertions.assertTrue(j == 0 || feed.get(j - 1).id > tw.id, "pages out of order or overlapping");
+                            Assertions.assertTrue(authors.contains(tw.userId), tw.userId + " is not followed");
+                            seen.add(tw.id);
+                        }
+                        Assertions.assertTrue(seen.containsAll(before), "a page skipped an older tweet");
+                    }
+                } finally {
+                    done.set(true);
+                }
+            });
+        });
+    }
+
+    /** every page of userId's feed, limit at a time, from the newest; the size of each page goes to sizes */
+    private static List<Tweet> pageThrough(FeedService svc, String userId, int limit, List<Integer> sizes) {
+        List<Tweet> res = new ArrayList<>();
+        String cursor = null;
+        do {
+            FeedService.Page page = svc.getNewsFeed(userId, cursor, limit);
+            Assertions.assertTrue(page.tweets.size() <= limit);
+            sizes.add(page.tweets.size());
+            res.addAll(page.tweets);
+            cursor = page.nextCursor;
+        } while (cursor != null);
+        return res;
+    }
+
+    private static String user(int u) {
+        return "user" + u;
+    }
+
+    private interface Worker {
+        void run(int thread);
+    }
+
+    private static void runThreads(Worker worker) throws Throwable {
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; ++t) {
+            int id = t;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    worker.run(id);
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package tweetservice;
+
+import java.util.Arrays;
+
+/* One direction of one user's follow edges, as interned user ids: a sorted int[] base (one CSR row)
+ * plus a small sorted delta of changes not merged in yet. A delta entry is idx << 1 | 1 for a follow the
+ * base lacks and idx << 1 for an unfollow of a base entry. Once the delta outgrows max(MIN_DELTA, √base)
+ * it is merged into a fresh base, so a change costs O(√n) even on a celebrity's follower list, and an
+ * edge costs 4 bytes instead of a boxed string set entry. Every method locks the set. */
+class FollowSet {
+    static final int MIN_DELTA = 16;
+    private static final int[] NO_DELTA = {};           // most users never change their follows much
+
+    private int[] base;                   // ascending, exact length, never written after it is built
+    private int[] delta = NO_DELTA;
+    private int deltaSize;
+    private int size;
+
+    FollowSet(int self){ base = new int[]{ self }; size = 1; }
+
+    FollowSet(int[] sorted){ base = sorted; size = sorted.length; }
+
+    synchronized int size(){ return size; }
+
+    synchronized boolean contains(int idx){
+        int d = findDelta(idx);
+        if(d >= 0) return (delta[d] & 1) != 0;
+        return Arrays.binarySearch(base, idx) >= 0;
+    }
+
+    synchronized boolean add(int idx){
+        int d = findDelta(idx);
+        if(d >= 0){
+            if((delta[d] & 1) != 0) return false;         // already a pending follow
+            size++;
+            removeDelta(d);                               // cancels a pending unfollow
+        } else {
+            if(Arrays.binarySearch(base, idx) >= 0) return false;
+            size++;                                       // before a merge sizes the new base
+            insertDelta(-d - 1, idx << 1 | 1);
+        }
+        return true;
+    }
+
+    synchronized boolean remove(int idx){
+        int d = findDelta(idx);
+        if(d >= 0){
+            if((delta[d] & 1) == 0) return false;         // already a pending unfollow
+            size--;
+            removeDelta(d);                               // cancels a pending follow
+        } else {
+            if(Arrays.binarySearch(base, idx) < 0) return false;
+            size--;
+            insertDelta(-d - 1, idx << 1);
+        }
+        return true;
+    }
+
+    /** every id, ascending. Callers must not write to it: with nothing pending it is the base itself */
+    synchronized int[] toArray(){ return deltaSize == 0 ? base : merged(); }
+
+    /** Arrays.binarySearch contract over the delta, keyed by idx */
+    private int findDelta(int idx){
+        int lo = 0, hi = deltaSize - 1;
+        while(lo <= hi){
+            int mid = (lo + hi) >>> 1, v = delta[mid] >>> 1;
+            if(v < idx) lo = mid + 1; else if(v > idx) hi = mid - 1; else return mid;
+        }
+        return -(lo + 1);
+    }
+
+    private void insertDelta(int pos, int entry){
+        if(deltaSize == delta.length) delta = Arrays.copyOf(delta, Math.max(4, deltaSize * 2));
+        System.arraycopy(delta, pos, delta, pos + 1, deltaSize - pos);
+        delta[pos] = entry;
+        if(++deltaSize > Math.max(MIN_DELTA, (int) Math.sqrt(base.length))){
+            base = merged();
+            delta = NO_DELTA;
+            deltaSize = 0;
+        }
+    }
+
+    private void removeDelta(int pos){
+        System.arraycopy(delta, pos + 1, delta, pos, --deltaSize - pos);
+    }
+
+    private int[] merged(){
+        int[] out = new int[size];
+        int i = 0, j = 0, n = 0;
+        while(i < base.length || j < deltaSize){
+            if(j == deltaSize || (i < base.length && base[i] < delta[j] >>> 1)) out[n++] = base[i++];
+            else {
+                int e = delta[j++];
+                if((e & 1) != 0) out[n++] = e >>> 1;
+                else i++;                                 // an unfollow drops the base entry it names
+            }
+        }
+        return out;
+    }
+}
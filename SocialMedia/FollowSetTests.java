@@ -0,0 +1,214 @@
+package tweetservice;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.*;
+/**
+ * FollowSet against a TreeSet<Integer> model: every add, remove, contains, size and toArray must agree.
+ * toArray() hands out the base itself while nothing is pending, so the same array twice in a row
+ * means the delta is empty.
+ */
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class FollowSetTests {
+    private static final int THREADS = 8;
+    /**
+     * A base of n ids takes max(MIN_DELTA, √n) pending changes and merges on the next one:
+     * 16 for a new user's set of one, 100 for a base of 10000, follows and unfollows alike
+     */
+    @Test
+    @Order(1)
+    public void test_01_mergeThreshold() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            for (int n : new int[] {1, 200, 10_000}) {
+                int threshold = Math.max(FollowSet.MIN_DELTA, (int) Math.sqrt(n));
+                for (boolean follows : new boolean[] {true, false}) {
+                    FollowSet set = new FollowSet(range(0, n));
+                    TreeSet<Integer> model = modelOf(range(0, n));
+                    for (int i = 0; i < threshold; ++i) {
+                        int id = follows ? n + i : i;     // unfollows need base entries; n = 1 runs out of them
+                        if (!follows && id >= n) break;
+                        Assertions.assertEquals(follows ? model.add(id) : model.remove(id), follows ? set.add(id) : set.remove(id));
+                        Assertions.assertNotSame(set.toArray(), set.toArray(), "merged after " + (i + 1) + " of " + threshold);
+                        check(model, set);
+                    }
+                    if (!follows && threshold >= n) continue;
+                    int last = follows ? n + threshold : threshold;
+                    Assertions.assertTrue(follows ? set.add(last) : set.remove(last));
+                    if (follows) model.add(last); else model.remove(last);
+                    int[] merged = set.toArray();
+                    Assertions.assertSame(merged, set.toArray(), "not merged at " + (threshold + 1) + " changes, n = " + n);
+                    check(model, set);
+                }
+            }
+        });
+    }
+    /**
+     * A pending follow undone by an unfollow, and a pending unfollow of a base entry undone by a re-follow,
+     * leave no delta behind. Repeating a pending change is refused. A base entry unfollowed and merged away
+     * can be followed again and then unfollowed again
+     */
+    @Test
+    @Order(2)
+    public void test_02_cancelPendingChanges() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            int[] base = {2, 4, 6, 8};
+            FollowSet set = new FollowSet(base);
+            TreeSet<Integer> model = modelOf(base);
+
+            Assertions.assertTrue(set.add(5));
+            Assertions.assertFalse(set.add(5));
+            Assertions.assertTrue(set.remove(5));
+            Assertions.assertFalse(set.remove(5));
+            Assertions.assertSame(base, set.toArray());
+            check(model, set);
+
+            Assertions.assertTrue(set.remove(4));
+            Assertions.assertFalse(set.remove(4));
+            Assertions.assertFalse(set.contains(4));
+            Assertions.assertEquals(3, set.size());
+            Assertions.assertTrue(set.add(4));
+            Assertions.assertFalse(set.add(4));
+            Assertions.assertSame(base, set.toArray());
+            check(model, set);
+
+            Assertions.assertTrue(set.remove(4));
+            model.remove(4);
+            for (int i = 0; i < FollowSet.MIN_DELTA; ++i) {   // pushes the delta past the threshold
+                Assertions.assertTrue(set.add(100 + i));
+                model.add(100 + i);
+            }
+            Assertions.assertSame(set.toArray(), set.toArray());
+            check(model, set);
+            Assertions.assertTrue(set.add(4));
+            model.add(4);
+            check(model, set);
+            Assertions.assertTrue(set.remove(4));
+            model.remove(4);
+            check(model, set);
+            Assertions.assertFalse(set.remove(4));
+        });
+    }
+    /**
+     * Random follows and unfollows over ids 0..99 on bases of 1, 10 and 1000 ids, checked against the model
+     * after every change, through many merges
+     */
+    @Test
+    @Order(3)
+    public void test_03_randomAgainstModel() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            Random random = new Random(3);
+            for (int n : new int[] {1, 10, 1000}) {
+                int[] base = new int[n];
+                for (int i = 0; i < n; ++i) {
+                    base[i] = 2 * i;
+                }
+                FollowSet set = new FollowSet(base);
+                TreeSet<Integer> model = modelOf(base);
+                for (int i = 0; i < 20_000; ++i) {
+                    int id = random.nextInt(2 * n + 100);
+                    if (random.nextBoolean()) {
+                        Assertions.assertEquals(model.add(id), set.add(id), "add " + id);
+                    } else {
+                        Assertions.assertEquals(model.remove(id), set.remove(id), "remove " + id);
+                    }
+                    Assertions.assertEquals(model.contains(id), set.contains(id));
+                    if (i % 97 == 0) check(model, set);
+                }
+                check(model, set);
+            }
+        });
+    }
+    /**
+     * THREADS threads follow and unfollow ids of their own residue class mod THREADS on one set;
+     * the set ends up as the union of the per-thread models
+     */
+    @Test
+    @Order(4)
+    public void test_04_concurrentChanges() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            FollowSet set = new FollowSet(range(0, 400));
+            List<TreeSet<Integer>> models = new ArrayList<>();
+            for (int t = 0; t < THREADS; ++t) {
+                TreeSet<Integer> model = new TreeSet<>();
+                for (int id = t; id < 400; id += THREADS) {
+                    model.add(id);
+                }
+                models.add(model);
+            }
+            runThreads(t -> {
+                Random random = new Random(t);
+                TreeSet<Integer> model = models.get(t);
+                for (int i = 0; i < 5000; ++i) {
+                    int id = random.nextInt(1000 / THREADS) * THREADS + t;
+                    if (random.nextBoolean()) {
+                        Assertions.assertEquals(model.add(id), set.add(id));
+                    } else {
+                        Assertions.assertEquals(model.remove(id), set.remove(id));
+                    }
+                }
+            });
+            TreeSet<Integer> union = new TreeSet<>();
+            models.forEach(union::addAll);
+            check(union, set);
+        });
+    }
+
+    private static void check(TreeSet<Integer> model, FollowSet set) {
+        Assertions.assertEquals(model.size(), set.size());
+        Assertions.assertArrayEquals(model.stream().mapToInt(Integer::intValue).toArray(), set.toArray());
+        for (int id : model) {
+            Assertions.assertTrue(set.contains(id), id + " missing");
+        }
+    }
+
+    private static int[] range(int from, int to) {
+        int[] ids = new int[to - from];
+        for (int i = 0; i < ids.length; ++i) {
+            ids[i] = from + i;
+        }
+        return ids;
+    }
+
+    private static TreeSet<Integer> modelOf(int[] ids) {
+        TreeSet<Integer> model = new TreeSet<>();
+        for (int id : ids) {
+            model.add(id);
+        }
+        return model;
+    }
+
+    private interface Worker {
+        void run(int thread);
+    }
+
+    private static void runThreads(Worker worker) throws Throwable {
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; ++t) {
+            int id = t;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    worker.run(id);
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package tweetservice;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/* ───────────────────── Snowflake ids ─────────────────────
+ * 64-bit ids laid out as
+ *     [0][41 bits ms since EPOCH][10 bits node][12 bits sequence]
+ * so sorting ids sorts by creation time, and nodes with different node ids never collide.
+ * 41 bits of milliseconds last about 69 years from EPOCH.
+ *
+ * One CAS per id: the state is (ms << 12 | sequence) of the last id handed out, and the next is
+ * max(last + 1, now << 12). A sequence overflow therefore rolls into the next millisecond instead of
+ * waiting for it, and a clock that steps back keeps counting from the last id, so ids from one
+ * generator always increase. The ms part can run slightly ahead of the clock; it catches up once
+ * the load drops below 4096 ids per ms. */
+public final class SnowflakeIds {
+    public static final long EPOCH = 1_577_836_800_000L;   // 2020-01-01T00:00:00Z
+    static final int NODE_BITS = 10, SEQUENCE_BITS = 12;
+    public static final int MAX_NODE = (1 << NODE_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private final long node;
+    private final LongSupplier clock;
+    private final AtomicLong last = new AtomicLong();
+
+    public SnowflakeIds(int node){
+        this(node, System::currentTimeMillis);
+    }
+
+    SnowflakeIds(int node, LongSupplier clock){
+        if(node < 0 || node > MAX_NODE) throw new IllegalArgumentException("node must be in [0, " + MAX_NODE + "]");
+        this.node = node;
+        this.clock = clock;
+    }
+
+    public long next(){
+        long now = (clock.getAsLong() - EPOCH) << SEQUENCE_BITS, prev, next;
+        do {
+            prev = last.get();
+            next = Math.max(prev + 1, now);
+        } while(!last.compareAndSet(prev, next));
+        return (next >>> SEQUENCE_BITS) << (NODE_BITS + SEQUENCE_BITS)
+                | node << SEQUENCE_BITS
+                | next & SEQUENCE_MASK;
+    }
+
+    /** makes every later next() larger than id, for ids restored from disk after a clock step back */
+    void observe(long id){
+        long state = (id >>> (NODE_BITS + SEQUENCE_BITS)) << SEQUENCE_BITS | id & SEQUENCE_MASK;
+        last.accumulateAndGet(state, Math::max);
+    }
+
+    /** the epoch millisecond an id was made in */
+    public static long millis(long id){
+        return (id >>> (NODE_BITS + SEQUENCE_BITS)) + EPOCH;
+    }
+
+    public static int node(long id){
+        return (int) (id >>> SEQUENCE_BITS) & MAX_NODE;
+    }
+
+    /** the smallest id any node can make at epochMillis: id < smallestAt(t) exactly when millis(id) < t */
+    public static long smallestAt(long epochMillis){
+        return (epochMillis - EPOCH) << (NODE_BITS + SEQUENCE_BITS);
+    }
+}
@@ -0,0 +1,187 @@
+package tweetservice;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.*;
+/**
+ * SnowflakeIds with a clock the test moves by hand: the bit layout, ids that keep increasing when the clock
+ * steps back or one millisecond runs out of sequence numbers, and observe() after ids come back from disk.
+ */
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class SnowflakeIdsTests {
+    private static final int THREADS = 8;
+    private static final long SEQUENCES = 1 << SnowflakeIds.SEQUENCE_BITS;
+    /**
+     * node 5 at EPOCH + 1234 ms -> [1234][5][0], and node(), millis() and smallestAt() read the fields back.
+     * smallestAt(t) is at or below every id of t on any node and above every id of t - 1, even node
+     * MAX_NODE at the last sequence number. Nodes outside [0, MAX_NODE] are refused
+     */
+    @Test
+    @Order(1)
+    public void test_01_bitLayout() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            long t = SnowflakeIds.EPOCH + 1234;
+            long id = new SnowflakeIds(5, () -> t).next();
+            Assertions.assertEquals(1234L << 22 | 5L << 12, id);
+            Assertions.assertEquals(5, SnowflakeIds.node(id));
+            Assertions.assertEquals(t, SnowflakeIds.millis(id));
+            Assertions.assertEquals(1234L << 22, SnowflakeIds.smallestAt(t));
+
+            long last = (1233L << 22) | ((long) SnowflakeIds.MAX_NODE << 12) | (SEQUENCES - 1);
+            Assertions.assertEquals(SnowflakeIds.MAX_NODE, SnowflakeIds.node(last));
+            Assertions.assertEquals(t - 1, SnowflakeIds.millis(last));
+            Assertions.assertTrue(last < SnowflakeIds.smallestAt(t));
+            Assertions.assertTrue(new SnowflakeIds(0, () -> t).next() >= SnowflakeIds.smallestAt(t));
+            Assertions.assertTrue(new SnowflakeIds(SnowflakeIds.MAX_NODE, () -> t).next() < SnowflakeIds.smallestAt(t + 1));
+
+            Assertions.assertThrows(IllegalArgumentException.class, () -> new SnowflakeIds(-1));
+            Assertions.assertThrows(IllegalArgumentException.class, () -> new SnowflakeIds(SnowflakeIds.MAX_NODE + 1));
+        });
+    }
+    /**
+     * The clock steps back 100 ms after an id: the next ids still increase and stay on the old millisecond,
+     * with the sequence counting on, until the clock passes it again
+     */
+    @Test
+    @Order(2)
+    public void test_02_clockStepsBack() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            AtomicLong clock = new AtomicLong(SnowflakeIds.EPOCH + 1000);
+            SnowflakeIds ids = new SnowflakeIds(7, clock::get);
+            long first = ids.next();
+            clock.set(SnowflakeIds.EPOCH + 900);
+            long prev = first;
+            for (int i = 1; i <= 10; ++i) {
+                long id = ids.next();
+                Assertions.assertTrue(id > prev);
+                Assertions.assertEquals(SnowflakeIds.EPOCH + 1000, SnowflakeIds.millis(id));
+                Assertions.assertEquals(i, id & (SEQUENCES - 1));
+                Assertions.assertEquals(7, SnowflakeIds.node(id));
+                prev = id;
+            }
+            clock.set(SnowflakeIds.EPOCH + 1001);
+            long id = ids.next();
+            Assertions.assertEquals(SnowflakeIds.EPOCH + 1001, SnowflakeIds.millis(id));
+            Assertions.assertEquals(0, id & (SEQUENCES - 1));
+        });
+    }
+    /**
+     * 3 * 4096 + 10 ids in one clock millisecond: the first 4096 use sequences 0..4095, then each overflow
+     * rolls into the next millisecond ahead of the clock. Every id is larger than the one before; once the
+     * clock moves past, ids follow the clock again
+     */
+    @Test
+    @Order(3)
+    public void test_03_sequenceOverflow() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            long t = SnowflakeIds.EPOCH + 50_000;
+            AtomicLong clock = new AtomicLong(t);
+            SnowflakeIds ids = new SnowflakeIds(1, clock::get);
+            long prev = Long.MIN_VALUE;
+            for (int i = 0; i < 3 * SEQUENCES + 10; ++i) {
+                long id = ids.next();
+                Assertions.assertTrue(id > prev, "id " + i + " did not increase");
+                Assertions.assertEquals(t + i / SEQUENCES, SnowflakeIds.millis(id));
+                Assertions.assertEquals(i % SEQUENCES, id & (SEQUENCES - 1));
+                prev = id;
+            }
+            clock.set(t + 2);                     // still behind the ids
+            Assertions.assertEquals(t + 3, SnowflakeIds.millis(ids.next()));
+            clock.set(t + 10);
+            long id = ids.next();
+            Assertions.assertEquals(t + 10, SnowflakeIds.millis(id));
+            Assertions.assertEquals(0, id & (SEQUENCES - 1));
+        });
+    }
+    /**
+     * Ids restored from disk were made by a clock ahead of this one (or by another node): after observe(newest)
+     * every id is larger, observing an older id changes nothing, and the generator's own node stays in its ids
+     */
+    @Test
+    @Order(4)
+    public void test_04_observeAfterRestore() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            long t = SnowflakeIds.EPOCH + 10_000;
+            SnowflakeIds before = new SnowflakeIds(3, () -> t);
+            long newest = 0;
+            for (int i = 0; i < 100; ++i) {
+                newest = before.next();
+            }
+            SnowflakeIds restored = new SnowflakeIds(9, () -> t - 5000);
+            Assertions.assertTrue(restored.next() < newest);
+            restored.observe(newest);
+            restored.observe(newest - (10L << 22));
+            long id = restored.next();
+            Assertions.assertTrue(id > newest);
+            Assertions.assertEquals(t, SnowflakeIds.millis(id));
+            Assertions.assertEquals(100, id & (SEQUENCES - 1));
+            Assertions.assertEquals(9, SnowflakeIds.node(id));
+
+            SnowflakeIds fresh = new SnowflakeIds(9, () -> t + 1);
+            fresh.observe(newest);
+            Assertions.assertEquals(SnowflakeIds.smallestAt(t + 1) | 9L << 12, fresh.next());
+        });
+    }
+    /**
+     * THREADS threads take 20000 ids each from one generator with a frozen clock (so almost every id
+     * overflows into a later millisecond): no id repeats and each thread sees its ids increase
+     */
+    @Test
+    @Order(5)
+    public void test_05_concurrentIds() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            SnowflakeIds ids = new SnowflakeIds(2, () -> SnowflakeIds.EPOCH + 1);
+            ConcurrentLinkedQueue<Long> all = new ConcurrentLinkedQueue<>();
+            runThreads(t -> {
+                long prev = Long.MIN_VALUE;
+                List<Long> mine = new ArrayList<>();
+                for (int i = 0; i < 20_000; ++i) {
+                    long id = ids.next();
+                    Assertions.assertTrue(id > prev);
+                    mine.add(id);
+                    prev = id;
+                }
+                all.addAll(mine);
+            });
+            Set<Long> distinct = new HashSet<>(all);
+            Assertions.assertEquals(THREADS * 20_000, distinct.size());
+        });
+    }
+
+    private interface Worker {
+        void run(int thread);
+    }
+
+    private static void runThreads(Worker worker) throws Throwable {
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; ++t) {
+            int id = t;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    worker.run(id);
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package tweetservice;
+
+/* id is a SnowflakeIds id, so it carries the creation time and a newer tweet always has a larger id:
+ * ordering tweets is one long comparison. */
+class Tweet {
+    final long   id;
+    final String userId;
+    final String text;
+    final long   ts;                      // epoch ms, taken from the id
+    final boolean pushed;                 // fanned out to follower timelines when posted
+    Tweet(long id, String u, String t){ this(id, u, t, false); }
+    Tweet(long id, String u, String t, boolean pushed){ this.id=id; ts=SnowflakeIds.millis(id); userId=u; text=t; this.pushed=pushed; }
+    @Override public String toString(){
+        return "%s: %s (%d)".formatted(userId, text, ts);
+    }
+}
@@ -0,0 +1,160 @@
+package tweetservice;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/* One user's tweets, append-only, in chunks of CHUNK parallel arrays (ids, tweets) so the feed merge
+ * compares primitives laid out next to each other instead of chasing one node per tweet.
+ * Position p, counted from the user's first tweet, lives in chunk p / CHUNK; the newest chunk starts
+ * small and doubles until it is full, so users with a handful of tweets stay cheap.
+ * Appends lock the log and build the tweet under the lock, so positions are in id order.
+ * Readers never lock: an entry, and the view holding its chunk, are written before the volatile count
+ * that covers it. Full chunks whose newest tweet is older than a cutoff can be dropped from the front. */
+class TweetLog {
+    static final int CHUNK = 256;
+    private static final int FIRST_CHUNK = 4;
+
+    static final class Chunk {
+        final long[] ids;
+        final Tweet[] tweets;
+        Chunk(int capacity){ ids = new long[capacity]; tweets = new Tweet[capacity]; }
+
+        Chunk grown(){
+            Chunk c = new Chunk(ids.length * 2);
+            System.arraycopy(ids, 0, c.ids, 0, ids.length);
+            System.arraycopy(tweets, 0, c.tweets, 0, tweets.length);
+            return c;
+        }
+    }
+
+    /** the chunks kept, oldest first; chunks[0] starts at position first. Never changed once published */
+    private static final class View {
+        final Chunk[] chunks;
+        final int first;
+        View(Chunk[] chunks, int first){ this.chunks = chunks; this.first = first; }
+
+        Chunk chunk(int pos){ return chunks[(pos - first) / CHUNK]; }
+    }
+
+    private static final View EMPTY = new View(new Chunk[0], 0);
+
+    private volatile View view = EMPTY;
+    private volatile int count;
+
+    Tweet append(Supplier<Tweet> newTweet){
+        synchronized(this){
+            Tweet t = newTweet.get();
+            int pos = count, slot = pos % CHUNK;
+            View v = view;
+            int c = (pos - v.first) / CHUNK;
+            if(c == v.chunks.length || slot == v.chunks[c].ids.length){   // new chunk, or a full small one
+                Chunk[] chunks = Arrays.copyOf(v.chunks, c + 1);
+                chunks[c] = c == v.chunks.length ? new Chunk(FIRST_CHUNK) : v.chunks[c].grown();
+                view = v = new View(chunks, v.first);
+            }
+            Chunk ch = v.chunks[c];
+            ch.ids[slot] = t.id; ch.tweets[slot] = t;
+            count = pos + 1;
+            return t;
+        }
+    }
+
+    /** newest-first reader from the newest tweet, null if there is none */
+    Cursor newest(){
+        return olderThan(Long.MAX_VALUE);
+    }
+
+    /** newest-first reader from the newest tweet with an id below id, null if there is none */
+    Cursor olderThan(long id){
+        int n = count;
+        View v = view;
+        int pos = below(v, n, id);
+        return pos >= v.first ? new Cursor(v, pos) : null;
+    }
+
+    /** id of the newest tweet with an id below id, Long.MIN_VALUE if there is none; no cursor is made */
+    long newestIdBelow(long id){
+        int n = count;
+        View v = view;
+        int pos = below(v, n, id);
+        return pos >= v.first ? v.chunk(pos).ids[pos % CHUNK] : Long.MIN_VALUE;
+    }
+
+    /** last position of the first n with an id below id. Positions are in id order, so a binary search */
+    private static int below(View v, int n, long id){
+        if(id == Long.MAX_VALUE) return n - 1;
+        int lo = v.first, hi = n;                         // answer + 1 in [lo, hi]
+        while(lo < hi){
+            int mid = (lo + hi) >>> 1;
+            if(v.chunk(mid).ids[mid % CHUNK] >= id) hi = mid;
+            else lo = mid + 1;
+        }
+        return lo - 1;
+    }
+
+    /** copies the kept tweets, oldest first, into out and returns the position of the first. Locked, so it
+     *  never sees an append half done */
+    synchronized int copyKept(List<Tweet> out){
+        View v = view;
+        int n = count;
+        for(int p = v.first; p < n; p++) out.add(v.chunk(p).tweets[p % CHUNK]);
+        return v.first;
+    }
+
+    /** fills a log no reader can see yet with tweets from a snapshot, oldest first, kept.get(0) at position first */
+    void restore(int first, List<Tweet> kept){
+        int n = kept.size();
+        Chunk[] chunks = new Chunk[(n + CHUNK - 1) / CHUNK];
+        for(int c = 0; c < chunks.length; c++){
+            int len = Math.min(CHUNK, n - c * CHUNK);      // the newest chunk gets the size appends would have grown it to
+            Chunk ch = chunks[c] = new Chunk(Math.max(FIRST_CHUNK, Integer.highestOneBit(Math.max(1, len - 1)) << 1));
+            for(int i = 0; i < len; i++){
+                Tweet t = kept.get(c * CHUNK + i);
+                ch.ids[i] = t.id; ch.tweets[i] = t;
+            }
+        }
+        view = new View(chunks, first);
+        count = first + n;
+    }
+
+    /** drops full chunks whose tweets all have ids below cutoffId, oldest first, handing each dropped
+     *  tweet to archive. Readers already walking the log still see them. Returns how many were dropped. */
+    synchronized int dropOlderThan(long cutoffId, Consumer<Tweet> archive){
+        View v = view;
+        int drop = 0;
+        while(drop < v.chunks.length && v.first + (drop + 1) * CHUNK <= count
+                && v.chunks[drop].ids[CHUNK - 1] < cutoffId) drop++;
+        if(drop == 0) return 0;
+        for(int c = 0; c < drop; c++) for(Tweet t : v.chunks[c].tweets) archive.accept(t);
+        view = new View(Arrays.copyOfRange(v.chunks, drop, v.chunks.length), v.first + drop * CHUNK);
+        return drop * CHUNK;
+    }
+
+    /** walks one snapshot of the log towards older tweets, keeping the current entry's id in a field
+     *  so a merge heap compares it without touching the tweet */
+    static final class Cursor {
+        private final View view;
+        private int pos;
+        private Chunk chunk;
+        long id;
+
+        private Cursor(View view, int pos){ this.view = view; this.pos = pos; load(); }
+
+        private void load(){
+            chunk = view.chunk(pos);
+            id = chunk.ids[pos % CHUNK];
+        }
+
+        Tweet tweet(){ return chunk.tweets[pos % CHUNK]; }
+
+        /** moves to the next older tweet, false once past the oldest kept */
+        boolean advance(){
+            if(--pos < view.first) return false;
+            if(pos % CHUNK == CHUNK - 1) load();
+            else id = chunk.ids[pos % CHUNK];
+            return true;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package tweetservice;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.*;
+/**
+ * TweetLog on its own: what its cursors, newestIdBelow and copyKept return must be the tweets appended
+ * (or restored), minus the whole chunks dropOlderThan took off the front, however the chunks were grown.
+ * Tweet i of a log has id 10 * (i + 1), so ids between two tweets are easy to name.
+ */
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class TweetLogTests {
+    private static final int CHUNK = TweetLog.CHUNK;
+    /**
+     * Appends one tweet at a time up to 3 chunks and a bit; after every append the newest-first walk
+     * returns every tweet, and olderThan / newestIdBelow land on the right tweet for ids on and between
+     * tweets, across the small doubling chunks and the full ones
+     */
+    @Test
+    @Order(1)
+    public void test_01_chunkGrowth() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            TweetLog log = new TweetLog();
+            List<Tweet> model = new ArrayList<>();
+            Assertions.assertNull(log.newest());
+            Random random = new Random(1);
+            for (int i = 0; i < 3 * CHUNK + 7; ++i) {
+                Tweet t = tweet(i);
+                Assertions.assertSame(t, log.append(() -> t));
+                model.add(t);
+                Assertions.assertEquals(model, oldestFirst(log.newest()));
+                for (int probe = 0; probe < 4; ++probe) {
+                    long id = 5 + random.nextInt(10 * (i + 2));
+                    checkBelow(log, model, id);
+                }
+            }
+            List<Tweet> kept = new ArrayList<>();
+            Assertions.assertEquals(0, log.copyKept(kept));
+            Assertions.assertEquals(model, kept);
+        });
+    }
+    /**
+     * 1000 tweets: a cutoff in the middle of chunk 1 drops only chunk 0, one on the boundary of chunk 2
+     * drops chunk 1 too, and a cutoff above every tweet drops the full chunks but never the partial
+     * newest one. Dropped tweets reach archive oldest first; a cursor opened before a drop still walks them
+     */
+    @Test
+    @Order(2)
+    public void test_02_dropOlderThan() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            TweetLog log = new TweetLog();
+            List<Tweet> model = new ArrayList<>();
+            for (int i = 0; i < 1000; ++i) {
+                Tweet t = tweet(i);
+                log.append(() -> t);
+                model.add(t);
+            }
+            TweetLog.Cursor before = log.newest();
+            List<Tweet> archived = new ArrayList<>();
+
+            Assertions.assertEquals(0, log.dropOlderThan(tweet(CHUNK - 1).id, archived::add));   // chunk 0 not all below
+            Assertions.assertEquals(CHUNK, log.dropOlderThan(tweet(CHUNK + 100).id, archived::add));
+            Assertions.assertEquals(model.subList(0, CHUNK), archived);
+            check(log, model.subList(CHUNK, 1000), CHUNK);
+
+            Assertions.assertEquals(CHUNK, log.dropOlderThan(tweet(2 * CHUNK).id, archived::add));
+            Assertions.assertEquals(0, log.dropOlderThan(tweet(2 * CHUNK).id, archived::add));
+            check(log, model.subList(2 * CHUNK, 1000), 2 * CHUNK);
+
+            Assertions.assertEquals(CHUNK, log.dropOlderThan(Long.MAX_VALUE, archived::add));
+            Assertions.assertEquals(model.subList(0, 3 * CHUNK), archived);
+            check(log, model.subList(3 * CHUNK, 1000), 3 * CHUNK);
+            Assertions.assertEquals(Long.MIN_VALUE, log.newestIdBelow(tweet(3 * CHUNK).id));
+            Assertions.assertNull(log.olderThan(tweet(3 * CHUNK).id));
+
+            Assertions.assertEquals(model, oldestFirst(before));
+            Tweet t = tweet(1000);
+            log.append(() -> t);
+            model.add(t);
+            check(log, model.subList(3 * CHUNK, 1001), 3 * CHUNK);
+        });
+    }
+    /**
+     * restore(first, kept) for sizes around the chunk sizes: the log reads back what was restored, takes
+     * appends through the next chunk boundaries (the newest chunk must be the size appends would have
+     * grown it to) and drops whole chunks counted from first
+     */
+    @Test
+    @Order(3)
+    public void test_03_restoreSizing() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            for (int n : new int[] {0, 1, 3, 4, 5, 8, 9, CHUNK - 1, CHUNK, CHUNK + 1, 2 * CHUNK + 77}) {
+                int first = 2 * CHUNK;
+                List<Tweet> model = new ArrayList<>();
+                for (int i = 0; i < n; ++i) {
+                    model.add(tweet(first + i));
+                }
+                TweetLog log = new TweetLog();
+                log.restore(first, new ArrayList<>(model));
+                check(log, model, first);
+                for (int i = n; i < n + CHUNK + 30; ++i) {
+                    Tweet t = tweet(first + i);
+                    log.append(() -> t);
+                    model.add(t);
+                    if (i % 7 == 0) Assertions.assertEquals(model, oldestFirst(log.newest()), "restored " + n + ", appended " + (i - n + 1));
+                }
+                check(log, model, first);
+                int full = model.size() / CHUNK;
+                Assertions.assertEquals(full * CHUNK, log.dropOlderThan(Long.MAX_VALUE, tw -> {}));
+                check(log, model.subList(full * CHUNK, model.size()), first + full * CHUNK);
+            }
+        });
+    }
+
+    private static Tweet tweet(int i) {
+        return new Tweet(10L * (i + 1), "u", "t" + i);
+    }
+
+    /** the tweets a cursor walks, put back oldest first */
+    private static List<Tweet> oldestFirst(TweetLog.Cursor c) {
+        List<Tweet> res = new ArrayList<>();
+        if (c == null) return res;
+        do {
+            res.add(0, c.tweet());
+        } while (c.advance());
+        return res;
+    }
+
+    /** log holds exactly kept, the oldest at position first */
+    private static void check(TweetLog log, List<Tweet> kept, int first) {
+        List<Tweet> copy = new ArrayList<>();
+        Assertions.assertEquals(first, log.copyKept(copy));
+        Assertions.assertEquals(kept, copy);
+        Assertions.assertEquals(kept, oldestFirst(log.newest()));
+        if (kept.isEmpty()) return;
+        for (long id : new long[] {kept.get(0).id, kept.get(0).id + 5, kept.get(kept.size() / 2).id, kept.get(kept.size() - 1).id + 1}) {
+            checkBelow(log, kept, id);
+        }
+    }
+
+    private static void checkBelow(TweetLog log, List<Tweet> kept, long id) {
+        List<Tweet> below = kept.stream().filter(t -> t.id < id).toList();
+        Assertions.assertEquals(below.isEmpty() ? Long.MIN_VALUE : below.get(below.size() - 1).id, log.newestIdBelow(id), "below " + id);
+        Assertions.assertEquals(below, oldestFirst(log.olderThan(id)));
+    }
+}